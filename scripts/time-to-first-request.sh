@@ -0,0 +1,22 @@
+#!/usr/bin/env bash
+# Starts the app with the given JVM/app arguments and prints the milliseconds until
+# GET /api/transactions answers 200, then stops it.
+#   scripts/time-to-first-request.sh -jar target/transactions-api.jar
+#   scripts/time-to-first-request.sh -XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true -jar app.jar
+set -euo pipefail
+
+url="${URL:-http://localhost:8085/api/transactions?size=1}"
+
+start=$(date +%s%N)
+java "$@" > "${LOG:-/dev/null}" 2>&1 &
+pid=$!
+trap 'kill $pid 2>/dev/null; wait $pid 2>/dev/null || true' EXIT
+
+until [ "$(curl -s -o /dev/null -w '%{http_code}' "$url")" = "200" ]; do
+  if ! kill -0 $pid 2>/dev/null; then
+    echo "app exited before answering" >&2
+    exit 1
+  fi
+  sleep 0.02
+done
+echo $(( ($(date +%s%N) - start) / 1000000 ))
@@ -0,0 +1,53 @@
+package com.transactions.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.transactions.model.Transaction;
+import com.transactions.service.ListPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.concurrent.TimeUnit;
+
+// Writing a page of the list endpoint in each encoding it offers, the database left out
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PageSerializationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int pageSize;
+
+    @Param({"json", "cbor", "smile"})
+    public String format;
+
+    private ListPage<Transaction> page;
+    private ObjectMapper mapper;
+
+    @Setup(Level.Trial)
+    public void loadPage(SeededApplication app) {
+        page = ListPage.of(app.service.searchWithFilters(null, null, null, null,
+                PageRequest.of(0, pageSize, Sort.by(Sort.Direction.DESC, "date"))));
+        mapper = switch (format) {
+            case "cbor" -> app.objectMapper.copyWith(new CBORFactory());
+            case "smile" -> app.objectMapper.copyWith(new SmileFactory());
+            default -> app.objectMapper;
+        };
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(page);
+    }
+}
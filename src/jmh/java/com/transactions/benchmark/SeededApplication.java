@@ -0,0 +1,87 @@
+package com.transactions.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.transactions.Application;
+import com.transactions.search.NameSearchIndex;
+import com.transactions.service.PendingCreditPool;
+import com.transactions.service.RollupService;
+import com.transactions.service.TransactionService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * The application without its web server, on a private in-memory H2 seeded with
+ * {@code rows} transactions (one per minute from 2024-01-01 UTC, {@code paidPercent} of them
+ * PAID, the rest PENDING) and {@code creditBacklog} pending payments of 1.00 each.
+ * Change the mix from the command line, e.g. {@code -p rows=10000,1000000,5000000}.
+ */
+@State(Scope.Benchmark)
+public class SeededApplication {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"50"})
+    public int paidPercent;
+
+    @Param({"0"})
+    public int creditBacklog;
+
+    ConfigurableApplicationContext context;
+    TransactionService service;
+    ObjectMapper objectMapper;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                // As arguments, so they win over application.properties
+                .run("--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.hibernate.ddl-auto=create-drop",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        // Measure the queries, not the result cache
+                        "--transactions.search-cache.enabled=false");
+        seed(context.getBean(JdbcTemplate.class));
+
+        context.getBean(NameSearchIndex.class).rebuild();
+        context.getBean(RollupService.class).rebuild();
+        context.getBean(PendingCreditPool.class).reload();
+        service = context.getBean(TransactionService.class);
+        objectMapper = context.getBean(ObjectMapper.class);
+    }
+
+    // Set-based inserts straight from H2's range generator; millions of rows take seconds
+    private void seed(JdbcTemplate jdbc) {
+        jdbc.update("""
+                INSERT INTO transactions (id, name, date, value_cents, status)
+                SELECT X,
+                       'Customer ' || MOD(X, 5000),
+                       DATEADD('MINUTE', X, TIMESTAMP WITH TIME ZONE '2024-01-01 00:00:00+00'),
+                       100 + MOD(X * 7919, 100000),
+                       CASE WHEN MOD(X * 31, 100) < ? THEN 'PAID' ELSE 'PENDING' END
+                FROM SYSTEM_RANGE(1, ?)
+                """, paidPercent, rows);
+        jdbc.update("""
+                INSERT INTO payments (id, value_cents, status)
+                SELECT X, 100, 'PENDING' FROM SYSTEM_RANGE(1, ?)
+                """, creditBacklog);
+
+        // Leave a gap above the seeded ids for the pooled sequence blocks
+        jdbc.execute("ALTER SEQUENCE transactions_seq RESTART WITH " + (rows + 100));
+        jdbc.execute("ALTER SEQUENCE payments_seq RESTART WITH " + (creditBacklog + 100));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+}
@@ -0,0 +1,78 @@
+package com.transactions.benchmark;
+
+import com.transactions.Application;
+import com.transactions.service.PendingCreditPool;
+import com.transactions.service.RollupService;
+import com.transactions.service.TransactionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payments per second from many clients at once. With {@code maxBatch=1} the settlement writer
+ * commits every payment on its own, which is what the per-call {@code @Transactional} path did
+ * before the engine; larger batches share one commit between the payments that queued up.
+ * The queue holds {@code rows} pending transactions, enough that every payment settles some.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+@State(Scope.Benchmark)
+public class SettlementThroughputBenchmark {
+
+    @Param({"1", "256"})
+    public int maxBatch;
+
+    @Param({"1000", "20000"})
+    public int rows;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService service;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .run("--transactions.settlement.max-batch=" + maxBatch,
+                        "--spring.datasource.url=jdbc:h2:mem:settlement-benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--transactions.search-cache.enabled=false");
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        jdbc.update("""
+                INSERT INTO transactions (id, name, date, value_cents, status, version)
+                SELECT X, 'Customer ' || MOD(X, 5000),
+                       DATEADD('MINUTE', X, TIMESTAMP WITH TIME ZONE '2024-01-01 00:00:00+00'),
+                       100 + MOD(X * 7919, 1000), 'PENDING', 0
+                FROM SYSTEM_RANGE(1, ?)
+                """, rows);
+        jdbc.execute("ALTER SEQUENCE transactions_seq RESTART WITH " + (rows + 100));
+        context.getBean(RollupService.class).rebuild();
+        context.getBean(PendingCreditPool.class).reload();
+        service = context.getBean(TransactionService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public void pay() {
+        service.makePayment(10.0, null);
+    }
+}
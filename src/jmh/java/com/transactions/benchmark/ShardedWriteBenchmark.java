@@ -0,0 +1,78 @@
+package com.transactions.benchmark;
+
+import com.transactions.Application;
+import com.transactions.model.Transaction;
+import com.transactions.service.TransactionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates from many clients at once, spread over 1000 accounts, with the data split over
+ * {@code shards} in-memory databases. Throughput should grow with the number of shards,
+ * since each shard's writer applies its own batches. {@code linger} is the writers' group-commit
+ * wait ({@code transactions.settlement.linger}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+@State(Scope.Benchmark)
+public class ShardedWriteBenchmark {
+
+    private static final ZonedDateTime DATE = ZonedDateTime.of(2024, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+
+    @Param({"1", "4"})
+    public int shards;
+
+    @Param({"0ms", "2ms"})
+    public String linger;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService service;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .run("--transactions.shards.count=" + shards,
+                        "--transactions.settlement.linger=" + linger,
+                        "--transactions.shards.url=jdbc:h2:mem:sharded-benchmark-{shard};DB_CLOSE_DELAY=-1",
+                        "--spring.datasource.url=jdbc:h2:mem:sharded-benchmark-0;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.hibernate.ddl-auto=create-drop",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN");
+        service = context.getBean(TransactionService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public Transaction create() {
+        Transaction t = new Transaction();
+        t.setAccount("account-" + ThreadLocalRandom.current().nextInt(1000));
+        t.setName("Benchmark");
+        t.setDate(DATE);
+        t.setValue(25.0);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+        return service.save(t);
+    }
+}
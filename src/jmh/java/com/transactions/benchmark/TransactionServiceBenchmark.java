@@ -0,0 +1,49 @@
+package com.transactions.benchmark;
+
+import com.transactions.model.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+// The three hot paths of the service, each against the same seeded database
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TransactionServiceBenchmark {
+
+    private static final ZonedDateTime DATE = ZonedDateTime.of(2024, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+    private static final PageRequest FIRST_PAGE = PageRequest.of(0, 20, Sort.by(Sort.Direction.DESC, "date"));
+
+    @Benchmark
+    public Transaction create(SeededApplication app) {
+        Transaction t = new Transaction();
+        t.setName("Benchmark");
+        t.setDate(DATE);
+        t.setValue(25.0);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+        return app.service.save(t);
+    }
+
+    // Small enough that each payment settles a few transactions and the queue lasts the run
+    @Benchmark
+    public void pay(SeededApplication app) {
+        app.service.makePayment(10.0, null);
+    }
+
+    @Benchmark
+    public Page<Transaction> search(SeededApplication app) {
+        return app.service.searchWithFilters("Customer 42",
+                LocalDate.of(2024, 1, 1), LocalDate.of(2024, 12, 31), "PENDING", FIRST_PAGE);
+    }
+}
@@ -0,0 +1,145 @@
+package com.transactions.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the HTTP API of a seeded, embedded instance of the app at a fixed request rate and
+ * writes per-operation latency percentiles and throughput to a report meant to be diffed
+ * between builds:
+ * <pre>
+ * mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--rate=1000 --duration=60s"
+ * </pre>
+ * The load is open-loop: request {@code n} is due at {@code start + n / rate} whether or not
+ * earlier ones have answered, each on a virtual thread of its own, and its latency is counted
+ * from when it was due. A server that falls behind therefore shows up as queueing in the
+ * percentiles instead of as a lower request rate.
+ * <p>
+ * Options, all {@code --name=value}:
+ * <ul>
+ *   <li>{@code rate} requests per second (200)</li>
+ *   <li>{@code duration} measured time after the warmup (30s), {@code warmup} (5s)</li>
+ *   <li>{@code mix} relative weights ({@code list:50,create:20,update:10,delete:5,pay:15})</li>
+ *   <li>{@code rows}, {@code accounts}, {@code paid-percent} the seeded data (100000, 100, 50)</li>
+ *   <li>{@code seed} for the operation sequence and request bodies (42)</li>
+ *   <li>{@code max-in-flight} requests waiting on the server before new ones are dropped (10000);
+ *   requests with no answer after 30 seconds count as failed</li>
+ *   <li>{@code out} directory for {@code report.txt} and one {@code .hgrm} per operation (target/loadtest)</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "rate", "200",
+            "duration", "30s",
+            "warmup", "5s",
+            "mix", "list:50,create:20,update:10,delete:5,pay:15",
+            "rows", "100000",
+            "accounts", "100",
+            "paid-percent", "50",
+            "seed", "42",
+            "max-in-flight", "10000",
+            "out", "target/loadtest");
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        int rate = Integer.parseInt(options.get("rate"));
+        Duration duration = DurationStyle.detectAndParse(options.get("duration"));
+        Duration warmup = DurationStyle.detectAndParse(options.get("warmup"));
+        int rows = Integer.parseInt(options.get("rows"));
+        int accounts = Integer.parseInt(options.get("accounts"));
+        int paidPercent = Integer.parseInt(options.get("paid-percent"));
+        Path out = Path.of(options.get("out"));
+
+        try (SeededServer server = SeededServer.start(rows, accounts, paidPercent)) {
+            Workload workload = new Workload(server.baseUri(), Workload.parseMix(options.get("mix")),
+                    rows, accounts, paidPercent, new Random(Long.parseLong(options.get("seed"))));
+            Report report = new Report(workload.operations());
+            run(workload, report, rate, warmup, duration, Integer.parseInt(options.get("max-in-flight")));
+
+            Files.createDirectories(out);
+            String text = report.render(options);
+            Files.writeString(out.resolve("report.txt"), text);
+            report.writeHistograms(out);
+            System.out.print(text);
+        }
+    }
+
+    private static void run(Workload workload, Report report, int rate, Duration warmup, Duration duration,
+                            int maxInFlight) throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (warmup.toNanos() + duration.toNanos()) / interval;
+        long warmupRequests = warmup.toNanos() / interval;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient http = HttpClient.newBuilder()
+                     .version(HttpClient.Version.HTTP_1_1)
+                     .executor(clients)
+                     .connectTimeout(Duration.ofSeconds(5))
+                     .build()) {
+            long start = System.nanoTime();
+            for (long n = 0; n < total; n++) {
+                long due = start + n * interval;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (n == warmupRequests) {
+                    report.startMeasuring(due);
+                }
+                Workload.Call call = workload.next();
+                if (!inFlight.tryAcquire()) {
+                    report.dropped(call.operation());
+                    continue;
+                }
+                clients.execute(() -> {
+                    try {
+                        HttpResponse<Void> response = http.send(call.request(), HttpResponse.BodyHandlers.discarding());
+                        report.record(call.operation(), due, System.nanoTime(), response.statusCode());
+                    } catch (IOException e) {
+                        report.failed(call.operation(), due, System.nanoTime());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            report.stopMeasuring(start + total * interval);
+        }
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, eq);
+            if (!DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option --" + name + ", expected one of " + DEFAULTS.keySet());
+            }
+            options.put(name, arg.substring(eq + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,125 @@
+package com.transactions.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes per operation, counting only requests that were due inside the measured
+ * window. The rendered report has a fixed layout and no timestamps, so two runs diff line by line.
+ */
+final class Report {
+
+    // Microseconds, up to an hour, three significant digits
+    private static final long HIGHEST = TimeUnit.HOURS.toMicros(1);
+
+    private static final class Outcomes {
+        private final Histogram latency = new ConcurrentHistogram(HIGHEST, 3);
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder clientError = new LongAdder();
+        private final LongAdder serverError = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        long requests() {
+            return ok.sum() + clientError.sum() + serverError.sum() + failed.sum() + dropped.sum();
+        }
+    }
+
+    private final Map<String, Outcomes> byOperation = new LinkedHashMap<>();
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private volatile long measureTo = Long.MAX_VALUE;
+
+    Report(List<String> operations) {
+        operations.forEach(operation -> byOperation.put(operation, new Outcomes()));
+    }
+
+    void startMeasuring(long at) {
+        measureFrom = at;
+    }
+
+    void stopMeasuring(long at) {
+        measureTo = at;
+    }
+
+    private boolean measured(long due) {
+        return due >= measureFrom && due < measureTo;
+    }
+
+    void record(String operation, long due, long answered, int status) {
+        if (!measured(due)) {
+            return;
+        }
+        Outcomes outcomes = byOperation.get(operation);
+        outcomes.latency.recordValue(Math.min(HIGHEST, TimeUnit.NANOSECONDS.toMicros(answered - due)));
+        (status < 400 ? outcomes.ok : status < 500 ? outcomes.clientError : outcomes.serverError).increment();
+    }
+
+    void failed(String operation, long due, long gaveUp) {
+        if (measured(due)) {
+            Outcomes outcomes = byOperation.get(operation);
+            outcomes.latency.recordValue(Math.min(HIGHEST, TimeUnit.NANOSECONDS.toMicros(gaveUp - due)));
+            outcomes.failed.increment();
+        }
+    }
+
+    // Never sent: too many requests were already waiting on the server
+    void dropped(String operation) {
+        if (measureFrom != Long.MAX_VALUE) {
+            byOperation.get(operation).dropped.increment();
+        }
+    }
+
+    String render(Map<String, String> options) {
+        double seconds = (measureTo - measureFrom) / 1e9;
+        StringBuilder out = new StringBuilder("# transactions-api load test\n");
+        new TreeMap<>(options).forEach((name, value) -> out.append("# ").append(name).append('=').append(value).append('\n'));
+        out.append(String.format("%-8s %9s %9s %9s %9s %7s %8s %9s %9s %9s %9s %9s %9s%n",
+                "op", "requests", "2xx/3xx", "4xx", "5xx", "failed", "dropped", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+
+        Outcomes all = new Outcomes();
+        byOperation.forEach((operation, outcomes) -> {
+            row(out, operation, outcomes, seconds);
+            all.latency.add(outcomes.latency);
+            all.ok.add(outcomes.ok.sum());
+            all.clientError.add(outcomes.clientError.sum());
+            all.serverError.add(outcomes.serverError.sum());
+            all.failed.add(outcomes.failed.sum());
+            all.dropped.add(outcomes.dropped.sum());
+        });
+        row(out, "all", all, seconds);
+        return out.toString();
+    }
+
+    private static void row(StringBuilder out, String operation, Outcomes o, double seconds) {
+        Histogram h = o.latency;
+        out.append(String.format("%-8s %9d %9d %9d %9d %7d %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                operation, o.requests(), o.ok.sum(), o.clientError.sum(), o.serverError.sum(), o.failed.sum(),
+                o.dropped.sum(), (h.getTotalCount()) / seconds,
+                millis(h.getValueAtPercentile(50)), millis(h.getValueAtPercentile(90)),
+                millis(h.getValueAtPercentile(99)), millis(h.getValueAtPercentile(99.9)), millis(h.getMaxValue())));
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    // Full percentile distributions, in milliseconds, for plotting or a closer comparison
+    void writeHistograms(Path dir) throws IOException {
+        for (Map.Entry<String, Outcomes> entry : byOperation.entrySet()) {
+            try (PrintStream out = new PrintStream(dir.resolve(entry.getKey() + ".hgrm").toFile())) {
+                entry.getValue().latency.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+    }
+}
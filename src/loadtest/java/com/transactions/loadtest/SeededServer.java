@@ -0,0 +1,70 @@
+package com.transactions.loadtest;
+
+import com.transactions.Application;
+import com.transactions.search.NameSearchIndex;
+import com.transactions.service.PendingCreditPool;
+import com.transactions.service.RollupService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.net.URI;
+
+/**
+ * The application on an embedded server at a random port, over a private in-memory H2 seeded
+ * with {@code rows} transactions spread over {@code accounts} accounts.
+ */
+final class SeededServer implements AutoCloseable {
+
+    private final ConfigurableApplicationContext context;
+
+    private SeededServer(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    static SeededServer start(int rows, int accounts, int paidPercent) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                // As arguments, so they win over application.properties
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        // Nothing is old enough to archive, and the run shouldn't pause for it
+                        "--transactions.archive.enabled=false");
+        seed(context.getBean(JdbcTemplate.class), rows, accounts, paidPercent);
+
+        context.getBean(NameSearchIndex.class).rebuild();
+        context.getBean(RollupService.class).rebuild();
+        context.getBean(PendingCreditPool.class).reload();
+        return new SeededServer(context);
+    }
+
+    // Set-based inserts straight from H2's range generator, one row per minute, the oldest ones PAID
+    private static void seed(JdbcTemplate jdbc, int rows, int accounts, int paidPercent) {
+        jdbc.update("""
+                INSERT INTO transactions (id, account, name, date, value_cents, status, version)
+                SELECT X,
+                       'account-' || MOD(X, ?),
+                       'Customer ' || MOD(X, 5000),
+                       DATEADD('MINUTE', X, TIMESTAMP WITH TIME ZONE '2024-01-01 00:00:00+00'),
+                       100 + MOD(X * 7919, 100000),
+                       CASE WHEN X <= ? THEN 'PAID' ELSE 'PENDING' END,
+                       0
+                FROM SYSTEM_RANGE(1, ?)
+                """, accounts, (long) rows * paidPercent / 100, rows);
+
+        // Leave a gap above the seeded ids for the pooled sequence blocks
+        jdbc.execute("ALTER SEQUENCE transactions_seq RESTART WITH " + (rows + 100));
+    }
+
+    URI baseUri() {
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        return URI.create("http://localhost:" + port);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,138 @@
+package com.transactions.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The sequence of calls a run makes: operations drawn by weight from the mix, with bodies and
+ * ids made up from the seeded data. Only the scheduling thread calls {@link #next}, so the same
+ * seed always yields the same calls.
+ * <p>
+ * Seeded rows are one per minute from 2024-01-01 with the oldest {@code paidPercent} PAID.
+ * Deletes take the newest seeded rows one after another; updates pick among the PENDING rows
+ * that haven't been deleted yet.
+ */
+final class Workload {
+
+    record Call(String operation, HttpRequest request) {}
+
+    private static final List<String> OPERATIONS = List.of("list", "create", "update", "delete", "pay");
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final URI api;
+    private final List<String> operations;
+    private final int[] cumulativeWeights;
+    private final int accounts;
+    private final long firstPending;
+    private final Random random;
+    private long nextDelete;
+
+    Workload(URI baseUri, Map<String, Integer> mix, int rows, int accounts, int paidPercent, Random random) {
+        this.api = baseUri.resolve("/api/transactions");
+        this.operations = List.copyOf(mix.keySet());
+        this.cumulativeWeights = new int[operations.size()];
+        int total = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            total += mix.get(operations.get(i));
+            cumulativeWeights[i] = total;
+        }
+        this.accounts = accounts;
+        this.firstPending = (long) rows * paidPercent / 100 + 1;
+        this.nextDelete = rows;
+        this.random = random;
+    }
+
+    // "list:50,create:20" -> weights, in the order given
+    static Map<String, Integer> parseMix(String spec) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split(":");
+            if (kv.length != 2 || !OPERATIONS.contains(kv[0])) {
+                throw new IllegalArgumentException("Bad mix entry '" + part + "', expected <op>:<weight> with op one of " + OPERATIONS);
+            }
+            int weight = Integer.parseInt(kv[1]);
+            if (weight > 0) {
+                mix.put(kv[0], weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("The mix has no operation with a positive weight");
+        }
+        return mix;
+    }
+
+    List<String> operations() {
+        return operations;
+    }
+
+    Call next() {
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (pick >= cumulativeWeights[i]) {
+            i++;
+        }
+        String operation = operations.get(i);
+        HttpRequest request = switch (operation) {
+            case "list" -> list();
+            case "create" -> json(api, "POST", transaction(true));
+            case "update" -> json(api.resolve("/api/transactions/" + pendingId()), "PUT", transaction(false));
+            case "delete" -> request(api.resolve("/api/transactions/" + deleteId())).DELETE().build();
+            case "pay" -> json(api.resolve("/api/transactions/pay"), "POST", String.format(Locale.ROOT,
+                    "{\"paymentValue\":%.2f,\"account\":\"%s\"}", 1 + random.nextInt(500) / 100.0, account()));
+            default -> throw new IllegalStateException(operation);
+        };
+        return new Call(operation, request);
+    }
+
+    // A page of the whole table, of one status, or of one month
+    private HttpRequest list() {
+        String query = "?size=20&page=" + random.nextInt(5);
+        query += switch (random.nextInt(3)) {
+            case 0 -> "";
+            case 1 -> "&status=PENDING";
+            default -> {
+                LocalDate month = LocalDate.of(2024, 1 + random.nextInt(12), 1);
+                yield "&from=" + month + "&to=" + month.plusMonths(1).minusDays(1);
+            }
+        };
+        return request(URI.create(api + query)).GET().build();
+    }
+
+    private long pendingId() {
+        return firstPending + (long) (random.nextDouble() * Math.max(1, nextDelete - firstPending));
+    }
+
+    private long deleteId() {
+        return nextDelete > firstPending ? nextDelete-- : pendingId();
+    }
+
+    private String account() {
+        return "account-" + random.nextInt(accounts);
+    }
+
+    private String transaction(boolean withAccount) {
+        LocalDate day = LocalDate.of(2024, 1, 1).plusDays(random.nextInt(730));
+        return String.format(Locale.ROOT,
+                "{%s\"name\":\"Load %d\",\"date\":\"%sT12:00:00Z\",\"value\":%.2f,\"status\":\"PENDING\"}",
+                withAccount ? "\"account\":\"" + account() + "\"," : "",
+                random.nextInt(5000), day, 1 + random.nextInt(100_000) / 100.0);
+    }
+
+    private HttpRequest json(URI uri, String method, String body) {
+        return request(uri)
+                .header("Content-Type", "application/json")
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(TIMEOUT).header("Accept", "application/json");
+    }
+}
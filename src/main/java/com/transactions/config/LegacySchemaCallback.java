@@ -0,0 +1,95 @@
+package com.transactions.config;
+
+import com.transactions.spec.MonthPartitions;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.callback.Callback;
+import org.flywaydb.core.api.callback.Context;
+import org.flywaydb.core.api.callback.Event;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Brings a database that {@code ddl-auto=update} created, before there were migrations, to the
+ * shape V1 expects. Flyway baselines such a database at 0 exactly once, and this runs right after,
+ * before V1: V1 only creates what is missing, so the columns its indexes need, the sequences that
+ * replaced identity ids and the versions of rows older than optimistic locking are added here.
+ * Amounts still stored as decimals are left to V3. Boot registers it with its own Flyway run;
+ * {@link com.transactions.shard.ShardingConfig} passes it to every shard's.
+ */
+@Component
+public class LegacySchemaCallback implements Callback {
+
+    @Override
+    public boolean supports(Event event, Context context) {
+        return event == Event.AFTER_BASELINE;
+    }
+
+    @Override
+    public boolean canHandleInTransaction(Event event, Context context) {
+        return true;
+    }
+
+    @Override
+    public void handle(Event event, Context context) {
+        Connection connection = context.getConnection();
+        try (Statement sql = connection.createStatement()) {
+            if (tableExists(sql, "TRANSACTIONS")) {
+                // Accounts arrived with sharding, versions with conditional writes, month_key with partitions
+                sql.execute("ALTER TABLE transactions ADD COLUMN IF NOT EXISTS account VARCHAR(255)");
+                sql.execute("ALTER TABLE transactions ADD COLUMN IF NOT EXISTS version BIGINT");
+                sql.execute("ALTER TABLE transactions ADD COLUMN IF NOT EXISTS month_key " + MonthPartitions.COLUMN);
+                // A null version would make Hibernate take a stored row for a new one
+                sql.executeUpdate("UPDATE transactions SET version = 0 WHERE version IS NULL");
+                createSequencePast(sql, "transactions_seq", "transactions");
+            }
+            if (tableExists(sql, "TRANSACTIONS_ARCHIVE")) {
+                sql.execute("ALTER TABLE transactions_archive ADD COLUMN IF NOT EXISTS month_key " + MonthPartitions.COLUMN);
+            }
+            if (tableExists(sql, "PAYMENTS")) {
+                sql.execute("ALTER TABLE payments ADD COLUMN IF NOT EXISTS account VARCHAR(255)");
+                createSequencePast(sql, "payments_seq", "payments");
+            }
+            if (tableExists(sql, "PAYMENT_JOBS")) {
+                sql.execute("ALTER TABLE payment_jobs ADD COLUMN IF NOT EXISTS account VARCHAR(255)");
+                createSequencePast(sql, "payment_jobs_seq", "payment_jobs");
+            }
+        } catch (SQLException e) {
+            throw new FlywayException("Could not bring the pre-migration schema in line with V1", e);
+        }
+    }
+
+    // Tables from before the sequences had identity ids. Ids are pooled 50 at a time from the
+    // value the sequence returns downwards, so it starts 50 past the highest id in use
+    private static void createSequencePast(Statement sql, String sequence, String table) throws SQLException {
+        if (found(sql, "SELECT 1 FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_SCHEMA = CURRENT_SCHEMA"
+                + " AND SEQUENCE_NAME = '" + sequence.toUpperCase() + "'")) {
+            return;
+        }
+        long maxId;
+        try (ResultSet row = sql.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+            row.next();
+            maxId = row.getLong(1);
+        }
+        sql.execute("CREATE SEQUENCE " + sequence + " START WITH " + (maxId + 50) + " INCREMENT BY 50");
+    }
+
+    private static boolean tableExists(Statement sql, String table) throws SQLException {
+        return found(sql, "SELECT 1 FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = CURRENT_SCHEMA"
+                + " AND TABLE_NAME = '" + table + "'");
+    }
+
+    private static boolean found(Statement sql, String query) throws SQLException {
+        try (ResultSet row = sql.executeQuery(query)) {
+            return row.next();
+        }
+    }
+
+    @Override
+    public String getCallbackName() {
+        return "legacy-schema";
+    }
+}
@@ -1,42 +1,218 @@
 package com.transactions.controller;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.transactions.model.Money;
+import com.transactions.model.PaymentJob;
 import com.transactions.model.Transaction;
+import com.transactions.service.AccountBalance;
+import com.transactions.service.BatchResult;
+import com.transactions.service.BulkFilter;
+import com.transactions.service.BulkResult;
+import com.transactions.service.CursorPage;
+import com.transactions.service.InvalidRequestException;
+import com.transactions.service.ListPage;
+import com.transactions.service.PaymentJobService;
+import com.transactions.service.Reconciler;
+import com.transactions.service.ReconciliationReport;
+import com.transactions.service.RollupService;
+import com.transactions.service.SearchResultCache;
+import com.transactions.service.TransactionArchiver;
+import com.transactions.service.TransactionNotFoundException;
 import com.transactions.service.TransactionService;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
+import com.transactions.stream.ChangeFeed;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.web.PageableDefault;
 import org.springframework.data.web.SortDefault;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 @RestController
 @RequestMapping("/api/transactions")
 public class TransactionController {
     private final TransactionService service;
+    private final RollupService rollups;
+    private final PaymentJobService paymentJobs;
+    private final TransactionArchiver archiver;
+    private final Reconciler reconciler;
+    private final ChangeFeed changes;
+    private final ObjectMapper objectMapper;
+    private final int maxPageSize;
 
-    public TransactionController(TransactionService service) {
+    public TransactionController(TransactionService service,
+                                 RollupService rollups,
+                                 PaymentJobService paymentJobs,
+                                 TransactionArchiver archiver,
+                                 Reconciler reconciler,
+                                 ChangeFeed changes,
+                                 ObjectMapper objectMapper,
+                                 @Value("${spring.data.web.pageable.max-page-size:2000}") int maxPageSize) {
         this.service = service;
+        this.rollups = rollups;
+        this.paymentJobs = paymentJobs;
+        this.archiver = archiver;
+        this.reconciler = reconciler;
+        this.changes = changes;
+        this.objectMapper = objectMapper;
+        this.maxPageSize = maxPageSize;
     }
 
     @GetMapping
-    public ResponseEntity<Page<Transaction>> list(
+    public ResponseEntity<ListPage<Transaction>> list(
             @RequestParam(required = false) String name,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
             @RequestParam(required = false) String status,
+            @RequestParam(defaultValue = "true") boolean count,
             @PageableDefault(size = 10) @SortDefault.SortDefaults({
                     @SortDefault(sort = "date", direction = Sort.Direction.DESC)
             }) Pageable pageable
     ) {
-        Page<Transaction> list = service.searchWithFilters(name, from, to, status, pageable);
-        return ResponseEntity.ok(list);
+        Slice<Transaction> list = count
+                ? service.searchWithFilters(name, from, to, status, pageable)
+                : service.sliceWithFilters(name, from, to, status, pageable);
+        return ResponseEntity.ok(ListPage.of(list));
+    }
+
+    // Cursor mode: no OFFSET and no total count, pass nextCursor back to get the following window
+    @GetMapping(params = "mode=cursor")
+    public ResponseEntity<CursorPage<Transaction>> scroll(
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "DESC") Sort.Direction direction
+    ) {
+        // Sized the way page mode sizes its pages: below 1 takes the default, above the maximum is capped
+        int windowSize = size < 1 ? 10 : Math.min(size, maxPageSize);
+        CursorPage<Transaction> window = service.scrollWithFilters(name, from, to, status, direction, cursor, windowSize);
+        return ResponseEntity.ok(window);
+    }
+
+    // Streams every matching row as it is read; the same filters as list, but no paging
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(required = false) String name,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String status,
+            @RequestParam(defaultValue = "ndjson") String format
+    ) {
+        boolean csv = format.equalsIgnoreCase("csv");
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            if (csv) {
+                writer.write("id,account,name,date,value,status\n");
+            }
+            service.exportWithFilters(name, from, to, status, t -> {
+                try {
+                    writer.write(csv ? toCsvRow(t) : objectMapper.writeValueAsString(t));
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8) : MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=transactions." + (csv ? "csv" : "ndjson"))
+                .body(body);
+    }
+
+    private static String toCsvRow(Transaction t) {
+        return String.join(",",
+                String.valueOf(t.getId()),
+                csvField(t.getAccount()),
+                csvField(t.getName()),
+                t.getDate() == null ? "" : t.getDate().toString(),
+                t.getValue() == null ? "" : t.getValue().toString(),
+                t.getStatus() == null ? "" : t.getStatus().name());
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    // Server-Sent Events of committed changes; a reconnecting client resumes after Last-Event-ID
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(
+            @RequestParam(required = false) String account,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId
+    ) {
+        return changes.subscribe(account, lastEventId);
+    }
+
+    @GetMapping("/summary")
+    public ResponseEntity<RollupService.Summary> summary(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to
+    ) {
+        return ResponseEntity.ok(rollups.summary(from, to));
+    }
+
+    @PostMapping("/summary/rebuild")
+    public ResponseEntity<Map<String, Integer>> rebuildSummary() {
+        return ResponseEntity.ok(Map.of("buckets", rollups.rebuild()));
+    }
+
+    @GetMapping("/summary/check")
+    public ResponseEntity<List<RollupService.Mismatch>> checkSummary() {
+        return ResponseEntity.ok(rollups.check());
+    }
+
+    // Without an account, the balance of the transactions that don't have one
+    @GetMapping("/balance")
+    public ResponseEntity<AccountBalance> balance(@RequestParam(required = false) String account) {
+        return ResponseEntity.ok(service.balance(account));
+    }
+
+    // Runs the archiver now instead of waiting for its next scheduled run
+    @PostMapping("/archive")
+    public ResponseEntity<Map<String, Long>> archive() {
+        return ResponseEntity.ok(Map.of("archived", archiver.archiveDue()));
+    }
+
+    // End-of-day reconciliation; the full report is also written to transactions.reconcile.dir
+    @PostMapping("/reconcile")
+    public ResponseEntity<ReconciliationReport> reconcile() {
+        return ResponseEntity.ok(reconciler.run());
+    }
+
+    @GetMapping("/search-cache/stats")
+    public ResponseEntity<SearchResultCache.Stats> searchCacheStats() {
+        return ResponseEntity.ok(service.searchCacheStats());
     }
 
     @PostMapping
@@ -45,6 +221,14 @@ public class TransactionController {
         return ResponseEntity.status(HttpStatus.CREATED).body(newTransaction);
     }
 
+    // Accepts a JSON array or newline-delimited JSON; items are bound one at a time as they are read
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<BatchResult> createBatch(InputStream body) throws IOException {
+        try (MappingIterator<Transaction> items = objectMapper.readerFor(Transaction.class).readValues(body)) {
+            return ResponseEntity.ok(service.saveAll(items));
+        }
+    }
+
     @PutMapping("/{id}")
     public ResponseEntity<Transaction> update(
             @PathVariable Long id,
@@ -60,11 +244,67 @@ public class TransactionController {
         return ResponseEntity.noContent().build();
     }
 
-    public record PaymentValueBody(Double paymentValue) {}
+    // Either ids or a filter with the list endpoint's parameters; PAID rows are never touched
+    public record BulkStatusBody(List<Long> ids, BulkFilter filter, Transaction.TransactionStatus status) {}
+
+    public record BulkDeleteBody(List<Long> ids, BulkFilter filter) {}
+
+    @PostMapping("/bulk/status")
+    public ResponseEntity<BulkResult> bulkStatus(@RequestBody BulkStatusBody body) {
+        return ResponseEntity.ok(service.bulkUpdateStatus(body.ids(), body.filter(), body.status()));
+    }
+
+    @PostMapping("/bulk/delete")
+    public ResponseEntity<BulkResult> bulkDelete(@RequestBody BulkDeleteBody body) {
+        return ResponseEntity.ok(service.bulkDelete(body.ids(), body.filter()));
+    }
+
+    // Without an account the payment settles the transactions that don't have one
+    public record PaymentValueBody(Double paymentValue, String account) {}
 
     @PostMapping("/pay")
     public ResponseEntity<Void> pay(@RequestBody PaymentValueBody paymentValue) {
-        service.makePayment(paymentValue.paymentValue);
+        service.makePayment(paymentValue.paymentValue, paymentValue.account);
         return ResponseEntity.ok().build();
     }
+
+    // Async mode: the payment is stored and settled in the background, poll the returned job for the outcome
+    @PostMapping(value = "/pay", params = "mode=async")
+    public ResponseEntity<PaymentJob> payAsync(@RequestBody PaymentValueBody paymentValue) {
+        return paymentJobs.submit(Money.toCents(paymentValue.paymentValue.doubleValue()), paymentValue.account)
+                .map(job -> ResponseEntity.accepted()
+                        .location(URI.create("/api/transactions/pay/" + job.getId()))
+                        .body(job))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .build());
+    }
+
+    @GetMapping("/pay/{jobId}")
+    public ResponseEntity<PaymentJob> paymentJob(@PathVariable Long jobId) {
+        return ResponseEntity.of(paymentJobs.find(jobId));
+    }
+
+    // Input the service can't use, such as a cursor it didn't hand out
+    @ExceptionHandler(InvalidRequestException.class)
+    public ResponseEntity<Map<String, String>> badRequest(InvalidRequestException e) {
+        return ResponseEntity.badRequest().body(error(e));
+    }
+
+    // Also ids outside every shard's range, which no row can have
+    @ExceptionHandler(TransactionNotFoundException.class)
+    public ResponseEntity<Map<String, String>> notFound(TransactionNotFoundException e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error(e));
+    }
+
+    // The version sent with an update no longer matches the stored row
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Map<String, String>> conflict(OptimisticLockingFailureException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(error(e));
+    }
+
+    // Map.of takes no null values, and not every exception has a message
+    private static Map<String, String> error(RuntimeException e) {
+        return Map.of("error", Objects.requireNonNullElse(e.getMessage(), e.getClass().getSimpleName()));
+    }
 }
@@ -0,0 +1,438 @@
+package com.transactions.ledger;
+
+import com.transactions.model.Transaction;
+import com.transactions.repository.LedgerCheckpointRepository;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.search.NameSearchIndex;
+import com.transactions.service.PendingCreditPool;
+import com.transactions.service.RollupService;
+import com.transactions.shard.Shards;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Event-sourced mode, on with {@code transactions.ledger.enabled}. Every balance change is
+ * appended to a per-shard {@link LedgerFile} and applied to an in-memory {@link LedgerState}
+ * holding each account's pending queue and credit; the tables become a read model kept in
+ * step by the same database transaction. A batch's entries are forced to disk just before
+ * it commits, together with a checkpoint row saying which entry the tables have reached, so
+ * after a crash the tables can be brought up to date from the log.
+ * <p>
+ * The state is snapshotted every {@code transactions.ledger.snapshot-every} entries, and
+ * segments older than the snapshots are deleted, so a restart loads the newest snapshot and
+ * replays only the entries written after it.
+ */
+@Component
+public class Ledger {
+
+    private static final Logger log = LoggerFactory.getLogger(Ledger.class);
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final int SNAPSHOTS_KEPT = 2;
+
+    // Live balance of one account, as of the last commit on its shard
+    public record Balance(String account, long pending, long pendingCents, long creditCents) {}
+
+    // What a payment settles: the transactions it pays off, per UTC day as the rollups want them
+    public record Paid(List<Long> ids, List<TransactionRepository.DaySettlement> days, long coveredCents, long leftover) {}
+
+    private record Day(LocalDate day, long covered, long coveredCents) implements TransactionRepository.DaySettlement {
+        @Override
+        public LocalDate getDay() {
+            return day;
+        }
+
+        @Override
+        public long getCovered() {
+            return covered;
+        }
+
+        @Override
+        public long getCoveredCents() {
+            return coveredCents;
+        }
+    }
+
+    // Everything about one shard's ledger; only its writer thread touches the file and the state
+    private static final class ShardLedger {
+        private final int shard;
+        private final Path dir;
+        private final LedgerState state = new LedgerState();
+        // What reads see: copied from the state when a batch commits
+        private final Map<String, Balance> published = Collections.synchronizedMap(new HashMap<>());
+        private LedgerFile file;
+        private long snapshotSeq;
+
+        private ShardLedger(int shard, Path dir) {
+            this.shard = shard;
+            this.dir = dir;
+        }
+    }
+
+    private final TransactionRepository repo;
+    private final PaymentRepository paymentRepo;
+    private final LedgerCheckpointRepository checkpointRepo;
+    private final PendingCreditPool creditPool;
+    private final Shards shards;
+    private final LedgerProjector projector;
+    private final TransactionTemplate writeTx;
+    private final TransactionTemplate readTx;
+    private final boolean enabled;
+    private final int segmentSize;
+    private final long snapshotEvery;
+    private final boolean force;
+    private final List<ShardLedger> ledgers;
+
+    public Ledger(TransactionRepository repo,
+                  PaymentRepository paymentRepo,
+                  LedgerCheckpointRepository checkpointRepo,
+                  PendingCreditPool creditPool,
+                  RollupService rollups,
+                  NameSearchIndex nameIndex,
+                  Shards shards,
+                  PlatformTransactionManager txManager,
+                  @Value("${transactions.ledger.enabled:false}") boolean enabled,
+                  @Value("${transactions.ledger.dir:./data/ledger}") Path dir,
+                  @Value("${transactions.ledger.segment-size:64MB}") DataSize segmentSize,
+                  @Value("${transactions.ledger.snapshot-every:100000}") long snapshotEvery,
+                  @Value("${transactions.ledger.force:true}") boolean force) {
+        this.repo = repo;
+        this.paymentRepo = paymentRepo;
+        this.checkpointRepo = checkpointRepo;
+        this.creditPool = creditPool;
+        this.shards = shards;
+        this.projector = new LedgerProjector(repo, paymentRepo, rollups, nameIndex);
+        this.writeTx = new TransactionTemplate(txManager);
+        this.readTx = new TransactionTemplate(txManager);
+        this.readTx.setReadOnly(true);
+        this.enabled = enabled;
+        this.segmentSize = Math.toIntExact(segmentSize.toBytes());
+        this.snapshotEvery = snapshotEvery;
+        this.force = force;
+        this.ledgers = IntStream.range(0, shards.count())
+                .mapToObj(shard -> new ShardLedger(shard, dir.resolve("shard-" + shard)))
+                .toList();
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void recover() {
+        if (!enabled) {
+            return;
+        }
+        boolean projected = false;
+        for (ShardLedger ledger : ledgers) {
+            ledger.state.accounts().clear();
+            ledger.published.clear();
+            if (ledger.file != null) {
+                ledger.file.close();
+            }
+            projected |= shards.on(ledger.shard, () -> recover(ledger));
+        }
+        if (projected) {
+            creditPool.reload();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        for (ShardLedger ledger : ledgers) {
+            if (ledger.file != null) {
+                ledger.file.close();
+                ledger.file = null;
+            }
+        }
+    }
+
+    // Returns whether entries had to be projected into the tables
+    private boolean recover(ShardLedger ledger) {
+        long started = System.nanoTime();
+        ledger.file = new LedgerFile(ledger.dir, segmentSize);
+        List<Path> snapshots = snapshots(ledger);
+        Long checkpoint = readTx.execute(status -> checkpointRepo.findSeq().orElse(null));
+        if (checkpoint == null && ledger.file.lastSeq() == 0 && snapshots.isEmpty()) {
+            bootstrap(ledger);
+            return false;
+        }
+
+        long applied = checkpoint == null ? 0 : checkpoint;
+        long last = ledger.file.lastSeq();
+        if (applied > last) {
+            throw new IllegalStateException("Shard " + ledger.shard + " tables are at ledger entry " + applied
+                    + " but its ledger ends at " + last);
+        }
+        long from = loadSnapshot(ledger, snapshots, applied);
+        if (ledger.file.firstSeq() > from + 1) {
+            throw new IllegalStateException("Shard " + ledger.shard + " ledger starts at entry " + ledger.file.firstSeq()
+                    + ", there is no snapshot to replay it from");
+        }
+
+        // Voided entries are only known once the entry voiding them is read, so collect those first
+        List<LedgerEvent.Voided> voided = new ArrayList<>();
+        ledger.file.read(from, (seq, event) -> {
+            if (event instanceof LedgerEvent.Voided v) {
+                voided.add(v);
+            }
+        });
+        List<LedgerEvent> missed = new ArrayList<>();
+        List<List<LedgerState.Pending>> missedSettled = new ArrayList<>();
+        long[] replayed = new long[1];
+        ledger.file.read(from, (seq, event) -> {
+            if (event instanceof LedgerEvent.Voided || voided.stream().anyMatch(v -> seq >= v.fromSeq() && seq <= v.toSeq())) {
+                return;
+            }
+            List<LedgerState.Pending> settled = new ArrayList<>();
+            ledger.state.apply(event, settled);
+            replayed[0]++;
+            if (seq > applied) {
+                missed.add(event);
+                missedSettled.add(settled);
+            }
+        });
+        if (applied < last) {
+            writeTx.executeWithoutResult(status -> {
+                for (int i = 0; i < missed.size(); i++) {
+                    projector.project(missed.get(i), missedSettled.get(i));
+                }
+                checkpointRepo.advance(last);
+            });
+        }
+
+        ledger.snapshotSeq = from;
+        ledger.state.accounts().forEach((account, a) -> ledger.published.put(account, balanceOf(account, a)));
+        if (last > from) {
+            snapshot(ledger, last);
+        }
+        log.info("Ledger of shard {} recovered: snapshot at {}, {} entries replayed, {} projected into the tables, in {} ms",
+                ledger.shard, from, replayed[0], missed.size(), (System.nanoTime() - started) / 1_000_000);
+        return !missed.isEmpty();
+    }
+
+    // The newest snapshot the tables have caught up with; an unreadable one falls back to the one before
+    private long loadSnapshot(ShardLedger ledger, List<Path> snapshots, long applied) {
+        for (Path snapshot : snapshots.reversed()) {
+            if (seqOf(snapshot) > applied) {
+                continue;
+            }
+            try {
+                return ledger.state.readSnapshot(snapshot);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Skipping ledger snapshot {}: {}", snapshot, e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    // First start in ledger mode: the state is read from the tables and becomes snapshot 0
+    private void bootstrap(ShardLedger ledger) {
+        readTx.executeWithoutResult(status -> {
+            try (Stream<TransactionRepository.PendingRow> rows = repo.streamPending()) {
+                rows.forEach(row -> ledger.state.seed(row.getAccount(), new LedgerState.Pending(row.getId(),
+                        row.getDate() == null ? null : row.getDate().toInstant(),
+                        row.getValueCents() == null ? 0 : row.getValueCents())));
+            }
+            paymentRepo.sumPendingCreditByAccount().forEach(c -> ledger.state.seedCredit(c.getAccount(), c.getCents()));
+        });
+        snapshot(ledger, 0);
+        writeTx.executeWithoutResult(status -> checkpointRepo.advance(0));
+        ledger.state.accounts().forEach((account, a) -> ledger.published.put(account, balanceOf(account, a)));
+        log.info("Ledger of shard {} seeded from the tables with {} accounts", ledger.shard, ledger.state.accounts().size());
+    }
+
+    public void created(Transaction saved, long creditUsed) {
+        if (enabled) {
+            record(new LedgerEvent.Created(saved.getId(), saved.getAccount(), saved.getName(), instantOf(saved),
+                    saved.getValueCents(), saved.getStatus(), creditUsed));
+        }
+    }
+
+    public void updated(Transaction saved) {
+        if (enabled) {
+            record(new LedgerEvent.Updated(saved.getId(), saved.getAccount(), saved.getName(), instantOf(saved),
+                    saved.getValueCents(), saved.getStatus()));
+        }
+    }
+
+    public void deleted(Transaction deleted) {
+        if (enabled) {
+            record(new LedgerEvent.Deleted(deleted.getId(), deleted.getAccount()));
+        }
+    }
+
+    /**
+     * Settles a payment against the account's pending queue in memory and records it; the
+     * caller marks the returned ids as paid in the same transaction. Must run on the
+     * account's settlement writer.
+     */
+    public Paid settle(String account, long paymentCents) {
+        ShardLedger ledger = ledgers.get(Shards.current());
+        List<LedgerState.Pending> covered = ledger.state.covered(account, paymentCents);
+        long coveredCents = covered.stream().mapToLong(LedgerState.Pending::cents).sum();
+        long leftover = paymentCents - coveredCents;
+        record(new LedgerEvent.Settled(account, paymentCents, covered.size(), leftover));
+        return new Paid(covered.stream().map(LedgerState.Pending::id).toList(), byDay(covered), coveredCents, leftover);
+    }
+
+    public Balance balance(String account) {
+        Balance balance = ledgers.get(shards.shardOf(account)).published.get(account);
+        return balance == null ? new Balance(account, 0, 0, 0) : balance;
+    }
+
+    static List<TransactionRepository.DaySettlement> byDay(List<LedgerState.Pending> covered) {
+        Map<LocalDate, long[]> days = new TreeMap<>();
+        for (LedgerState.Pending p : covered) {
+            LocalDate day = p.date() == null ? RollupService.UNDATED : p.date().atZone(ZoneOffset.UTC).toLocalDate();
+            long[] totals = days.computeIfAbsent(day, d -> new long[2]);
+            totals[0]++;
+            totals[1] += p.cents();
+        }
+        List<TransactionRepository.DaySettlement> result = new ArrayList<>(days.size());
+        days.forEach((day, totals) -> result.add(new Day(day, totals[0], totals[1])));
+        return result;
+    }
+
+    private static Instant instantOf(Transaction t) {
+        return t.getDate() == null ? null : t.getDate().toInstant();
+    }
+
+    private static Balance balanceOf(String account, LedgerState.Account a) {
+        return new Balance(account, a.pendingCount(), a.pendingCents(), a.credit());
+    }
+
+    // Applied to the state right away, so later commands of the batch see it; written when the batch commits
+    private void record(LedgerEvent event) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Ledger entries are recorded inside the transaction making the change");
+        }
+        ShardLedger ledger = ledgers.get(Shards.current());
+        Batch batch = (Batch) TransactionSynchronizationManager.getResource(ledger);
+        if (batch == null) {
+            batch = new Batch(ledger);
+            TransactionSynchronizationManager.bindResource(ledger, batch);
+            TransactionSynchronizationManager.registerSynchronization(batch);
+        }
+        batch.undo.add(ledger.state.apply(event, null));
+        batch.events.add(event);
+        batch.touched.add(event.account());
+    }
+
+    // The entries of one database transaction on one shard
+    private final class Batch implements TransactionSynchronization {
+        private final ShardLedger ledger;
+        private final List<LedgerEvent> events = new ArrayList<>();
+        private final List<Runnable> undo = new ArrayList<>();
+        private final Set<String> touched = new HashSet<>();
+        private long firstSeq;
+        private long lastSeq;
+
+        private Batch(ShardLedger ledger) {
+            this.ledger = ledger;
+        }
+
+        // Flushed first, so a constraint violation fails the batch before anything is written
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            repo.flush();
+            firstSeq = ledger.file.lastSeq() + 1;
+            lastSeq = ledger.file.append(events);
+            if (force) {
+                ledger.file.force();
+            }
+            checkpointRepo.advance(lastSeq);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(ledger);
+            if (status == STATUS_COMMITTED) {
+                committed(ledger, touched, lastSeq);
+                return;
+            }
+            for (Runnable step : undo.reversed()) {
+                step.run();
+            }
+            if (lastSeq != 0) {
+                ledger.file.append(List.of(new LedgerEvent.Voided(firstSeq, lastSeq)));
+                if (force) {
+                    ledger.file.force();
+                }
+            }
+        }
+    }
+
+    private void committed(ShardLedger ledger, Set<String> touched, long seq) {
+        ledger.state.prune(touched);
+        for (String account : touched) {
+            LedgerState.Account a = ledger.state.accounts().get(account);
+            if (a == null) {
+                ledger.published.remove(account);
+            } else {
+                ledger.published.put(account, balanceOf(account, a));
+            }
+        }
+        if (seq - ledger.snapshotSeq >= snapshotEvery) {
+            snapshot(ledger, seq);
+        }
+    }
+
+    // Taken on the writer, between batches; the log is kept back to the oldest snapshot still on disk
+    private void snapshot(ShardLedger ledger, long seq) {
+        try {
+            ledger.state.writeSnapshot(ledger.dir.resolve(String.format("%020d%s", seq, SNAPSHOT_SUFFIX)), seq);
+            ledger.snapshotSeq = seq;
+            List<Path> snapshots = snapshots(ledger);
+            for (Path old : snapshots.subList(0, Math.max(0, snapshots.size() - SNAPSHOTS_KEPT))) {
+                Files.deleteIfExists(old);
+            }
+            ledger.file.dropThrough(seqOf(snapshots(ledger).getFirst()));
+        } catch (IOException e) {
+            // The log still has everything; the next snapshot gets another chance
+            log.warn("Ledger snapshot of shard {} at {} failed", ledger.shard, seq, e);
+        } catch (UncheckedIOException e) {
+            log.warn("Ledger snapshot of shard {} at {} failed", ledger.shard, seq, e.getCause());
+        }
+    }
+
+    private static List<Path> snapshots(ShardLedger ledger) {
+        try (Stream<Path> files = Files.list(ledger.dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SNAPSHOT_SUFFIX)).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long seqOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,166 @@
+package com.transactions.ledger;
+
+import com.transactions.model.Transaction;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * The balance changes the ledger records, and their binary form. Every event carries what it
+ * takes to apply it again, to the in-memory state on replay and to the tables when projecting.
+ */
+public sealed interface LedgerEvent {
+
+    String account();
+
+    // A transaction was stored; creditUsed is what it took from the account's pending payments
+    record Created(long id, String account, String name, Instant date, Long cents,
+                   Transaction.TransactionStatus status, long creditUsed) implements LedgerEvent {}
+
+    // A transaction that wasn't paid was given a new name, date, value or status
+    record Updated(long id, String account, String name, Instant date, Long cents,
+                   Transaction.TransactionStatus status) implements LedgerEvent {}
+
+    record Deleted(long id, String account) implements LedgerEvent {}
+
+    // A payment settled the first {@code covered} of the account's pending transactions and kept the rest as credit
+    record Settled(String account, long paymentCents, long covered, long leftover) implements LedgerEvent {}
+
+    // Entries from fromSeq to toSeq were written but their database transaction rolled back; replay skips them
+    record Voided(long fromSeq, long toSeq) implements LedgerEvent {
+        @Override
+        public String account() {
+            return null;
+        }
+    }
+
+    byte CREATED = 1;
+    byte UPDATED = 2;
+    byte DELETED = 3;
+    byte SETTLED = 4;
+    byte VOIDED = 5;
+
+    static void write(LedgerEvent event, ByteBuffer out) {
+        switch (event) {
+            case Created e -> {
+                out.put(CREATED);
+                out.putLong(e.id());
+                putString(out, e.account());
+                putString(out, e.name());
+                putInstant(out, e.date());
+                putLong(out, e.cents());
+                putStatus(out, e.status());
+                out.putLong(e.creditUsed());
+            }
+            case Updated e -> {
+                out.put(UPDATED);
+                out.putLong(e.id());
+                putString(out, e.account());
+                putString(out, e.name());
+                putInstant(out, e.date());
+                putLong(out, e.cents());
+                putStatus(out, e.status());
+            }
+            case Deleted e -> {
+                out.put(DELETED);
+                out.putLong(e.id());
+                putString(out, e.account());
+            }
+            case Settled e -> {
+                out.put(SETTLED);
+                putString(out, e.account());
+                out.putLong(e.paymentCents());
+                out.putLong(e.covered());
+                out.putLong(e.leftover());
+            }
+            case Voided e -> {
+                out.put(VOIDED);
+                out.putLong(e.fromSeq());
+                out.putLong(e.toSeq());
+            }
+        }
+    }
+
+    static LedgerEvent read(ByteBuffer in) {
+        byte type = in.get();
+        return switch (type) {
+            case CREATED -> new Created(in.getLong(), getString(in), getString(in), getInstant(in), getLong(in),
+                    getStatus(in), in.getLong());
+            case UPDATED -> new Updated(in.getLong(), getString(in), getString(in), getInstant(in), getLong(in),
+                    getStatus(in));
+            case DELETED -> new Deleted(in.getLong(), getString(in));
+            case SETTLED -> new Settled(getString(in), in.getLong(), in.getLong(), in.getLong());
+            case VOIDED -> new Voided(in.getLong(), in.getLong());
+            default -> throw new IllegalStateException("Unknown ledger entry type " + type);
+        };
+    }
+
+    // Upper bound of an event's size, strings counted at their longest UTF-8 encoding
+    static int maxSize(LedgerEvent event) {
+        int strings = switch (event) {
+            case Created e -> length(e.account()) + length(e.name());
+            case Updated e -> length(e.account()) + length(e.name());
+            case Deleted e -> length(e.account());
+            case Settled e -> length(e.account());
+            case Voided e -> 0;
+        };
+        return 64 + strings * 3;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putInstant(ByteBuffer out, Instant instant) {
+        out.put((byte) (instant == null ? 0 : 1));
+        if (instant != null) {
+            out.putLong(instant.getEpochSecond());
+            out.putInt(instant.getNano());
+        }
+    }
+
+    private static Instant getInstant(ByteBuffer in) {
+        return in.get() == 0 ? null : Instant.ofEpochSecond(in.getLong(), in.getInt());
+    }
+
+    private static void putLong(ByteBuffer out, Long value) {
+        out.put((byte) (value == null ? 0 : 1));
+        if (value != null) {
+            out.putLong(value);
+        }
+    }
+
+    private static Long getLong(ByteBuffer in) {
+        return in.get() == 0 ? null : in.getLong();
+    }
+
+    private static void putStatus(ByteBuffer out, Transaction.TransactionStatus status) {
+        out.put((byte) (status == null ? -1 : status.ordinal()));
+    }
+
+    private static Transaction.TransactionStatus getStatus(ByteBuffer in) {
+        byte ordinal = in.get();
+        return ordinal < 0 ? null : Transaction.TransactionStatus.values()[ordinal];
+    }
+}
@@ -0,0 +1,221 @@
+package com.transactions.ledger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of one shard's ledger, kept in fixed-size memory-mapped segment files named
+ * after the sequence number of their first entry. Each entry is
+ * {@code [length][crc32c][seq][event]}, the checksum covering seq and event. Reading stops at
+ * the first entry that is incomplete, fails its checksum or skips a number, so a write torn by
+ * a crash is dropped on the next open and overwritten. Only used by the shard's writer thread.
+ */
+final class LedgerFile implements AutoCloseable {
+
+    private static final int HEADER = 8;
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final ByteBuffer scratch;
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long lastSeq;
+
+    LedgerFile(Path dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.scratch = ByteBuffer.allocate(64 * 1024);
+        try {
+            Files.createDirectories(dir);
+            List<Path> segments = segments();
+            if (segments.isEmpty()) {
+                lastSeq = 0;
+                return;
+            }
+            Path last = segments.getLast();
+            long first = firstSeqOf(last);
+            lastSeq = first - 1;
+            openSegment(last);
+            lastSeq = scan(segment, first - 1, (seq, event) -> {});
+            // Whatever follows the last good entry is a torn write; clear it so it can't be read later
+            for (int i = segment.position(); i < segmentSize; i++) {
+                segment.put(i, (byte) 0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    interface EntryConsumer {
+        void accept(long seq, LedgerEvent event);
+    }
+
+    long lastSeq() {
+        return lastSeq;
+    }
+
+    // First sequence number still on disk, or lastSeq + 1 when the log is empty
+    long firstSeq() {
+        List<Path> segments = segments();
+        return segments.isEmpty() ? lastSeq + 1 : firstSeqOf(segments.getFirst());
+    }
+
+    // Appends the events in order and returns the sequence number of the last one
+    long append(List<LedgerEvent> events) {
+        for (LedgerEvent event : events) {
+            int max = LedgerEvent.maxSize(event) + HEADER + 8;
+            ByteBuffer body = max <= scratch.capacity() ? scratch.clear() : ByteBuffer.allocate(max);
+            body.putLong(lastSeq + 1);
+            LedgerEvent.write(event, body);
+            body.flip();
+            CRC32C crc = new CRC32C();
+            crc.update(body.duplicate());
+
+            int size = HEADER + body.remaining();
+            if (size > segmentSize) {
+                throw new IllegalArgumentException("Ledger entry of " + size + " bytes doesn't fit a segment");
+            }
+            if (segment == null || segment.remaining() < size) {
+                roll(lastSeq + 1);
+            }
+            segment.putInt(body.remaining());
+            segment.putInt((int) crc.getValue());
+            segment.put(body);
+            lastSeq++;
+        }
+        return lastSeq;
+    }
+
+    void force() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    // Hands every entry after afterSeq to the consumer, in order
+    void read(long afterSeq, EntryConsumer consumer) {
+        List<Path> segments = segments();
+        long expected = afterSeq;
+        for (int i = 0; i < segments.size(); i++) {
+            Path path = segments.get(i);
+            if (i + 1 < segments.size() && firstSeqOf(segments.get(i + 1)) <= afterSeq + 1) {
+                continue;
+            }
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                long first = firstSeqOf(path);
+                if (first > expected + 1) {
+                    throw new IllegalStateException("Ledger entries " + (expected + 1) + " to " + (first - 1) + " are missing");
+                }
+                long[] next = {expected};
+                scan(data, first - 1, (seq, event) -> {
+                    if (seq > afterSeq) {
+                        consumer.accept(seq, event);
+                    }
+                    next[0] = seq;
+                });
+                expected = Math.max(expected, next[0]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Deletes the segments that only hold entries up to and including seq
+    void dropThrough(long seq) {
+        List<Path> segments = segments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstSeqOf(segments.get(i + 1)) > seq + 1) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(segments.get(i));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (segment != null) {
+                segment.force();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Reads entries from the buffer's start until the first bad one, leaving the buffer positioned there
+    private static long scan(ByteBuffer data, long previous, EntryConsumer consumer) {
+        data.position(0);
+        long last = previous;
+        while (data.remaining() >= HEADER) {
+            int start = data.position();
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length < 8 || length > data.remaining()) {
+                data.position(start);
+                break;
+            }
+            ByteBuffer body = data.slice(data.position(), length);
+            CRC32C crc = new CRC32C();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum || body.getLong(0) != last + 1) {
+                data.position(start);
+                break;
+            }
+            body.position(8);
+            consumer.accept(last + 1, LedgerEvent.read(body));
+            last++;
+            data.position(start + HEADER + length);
+        }
+        return last;
+    }
+
+    private void roll(long firstSeq) {
+        try {
+            if (segment != null) {
+                segment.force();
+                channel.close();
+            }
+            openSegment(dir.resolve(String.format("%020d%s", firstSeq, SUFFIX)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void openSegment(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    private List<Path> segments() {
+        try (Stream<Path> files = Files.list(dir)) {
+            return new ArrayList<>(files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long firstSeqOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,101 @@
+package com.transactions.ledger;
+
+import com.transactions.model.Payment;
+import com.transactions.model.Transaction;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.search.NameSearchIndex;
+import com.transactions.service.AfterCommit;
+import com.transactions.service.RollupService;
+
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Brings the tables up to date with ledger entries they missed: entries that were written
+ * but whose database transaction never committed, or every entry when the tables were
+ * emptied. Runs inside the transaction that advances the checkpoint past them.
+ */
+final class LedgerProjector {
+
+    private final TransactionRepository repo;
+    private final PaymentRepository paymentRepo;
+    private final RollupService rollups;
+    private final NameSearchIndex nameIndex;
+
+    LedgerProjector(TransactionRepository repo,
+                    PaymentRepository paymentRepo,
+                    RollupService rollups,
+                    NameSearchIndex nameIndex) {
+        this.repo = repo;
+        this.paymentRepo = paymentRepo;
+        this.rollups = rollups;
+        this.nameIndex = nameIndex;
+    }
+
+    // settled holds what a Settled event paid off, as replaying it found
+    void project(LedgerEvent event, List<LedgerState.Pending> settled) {
+        switch (event) {
+            case LedgerEvent.Created e -> {
+                Transaction t = new Transaction();
+                t.setId(e.id());
+                t.setAccount(e.account());
+                t.setName(e.name());
+                t.setDate(e.date() == null ? null : e.date().atZone(ZoneOffset.UTC));
+                t.setValueCents(e.cents());
+                t.setStatus(e.status());
+                repo.insertRow(e.id(), e.account(), e.name(), t.getDate(), e.cents(),
+                        e.status() == null ? null : e.status().name());
+                consumeCredit(e.account(), e.creditUsed());
+                rollups.record(t, 1);
+                AfterCommit.run(() -> nameIndex.put(e.id(), e.name()));
+            }
+            case LedgerEvent.Updated e -> repo.findById(e.id()).ifPresent(t -> {
+                rollups.record(t, -1);
+                t.setName(e.name());
+                t.setDate(e.date() == null ? null : e.date().atZone(ZoneOffset.UTC));
+                t.setValueCents(e.cents());
+                t.setStatus(e.status());
+                rollups.record(t, 1);
+                AfterCommit.run(() -> nameIndex.put(e.id(), e.name()));
+            });
+            case LedgerEvent.Deleted e -> repo.findById(e.id()).ifPresent(t -> {
+                rollups.record(t, -1);
+                repo.delete(t);
+                AfterCommit.run(() -> nameIndex.delete(e.id()));
+            });
+            case LedgerEvent.Settled e -> {
+                if (!settled.isEmpty()) {
+                    repo.markPaid(settled.stream().map(LedgerState.Pending::id).toList());
+                    rollups.recordSettled(Ledger.byDay(settled));
+                }
+                Payment payment = new Payment();
+                payment.setAccount(e.account());
+                payment.setValueCents(e.leftover());
+                payment.setSettledCents(e.paymentCents() - e.leftover());
+                payment.setStatus(e.leftover() == 0 ? Payment.PaymentStatus.COMPLETED : Payment.PaymentStatus.PENDING);
+                paymentRepo.save(payment);
+            }
+            case LedgerEvent.Voided e -> {}
+        }
+    }
+
+    // The same oldest-first consumption the service does when the transaction is created
+    private void consumeCredit(String account, long amount) {
+        if (amount == 0) {
+            return;
+        }
+        List<Payment> payments = paymentRepo.findConsumedBy(account, amount);
+        long remaining = amount;
+        for (Payment p : payments) {
+            if (p.getValueCents() <= remaining) {
+                remaining -= p.getValueCents();
+                p.setStatus(Payment.PaymentStatus.COMPLETED);
+            } else {
+                p.setValueCents(p.getValueCents() - remaining);
+                remaining = 0;
+            }
+        }
+        paymentRepo.saveAll(payments);
+    }
+}
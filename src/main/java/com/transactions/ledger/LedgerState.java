@@ -0,0 +1,278 @@
+package com.transactions.ledger;
+
+import com.transactions.model.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * One shard's live balances: per account, the PENDING transactions in settlement order
+ * (date, then id, undated first as in the database) and the credit left by payments.
+ * Changed only by the shard's writer thread; {@link #apply} returns how to take a change back
+ * should its database transaction roll back.
+ */
+final class LedgerState {
+
+    private static final int SNAPSHOT_MAGIC = 0x4c444753;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    record Pending(long id, Instant date, long cents) {}
+
+    private static final Comparator<Pending> ORDER = Comparator
+            .comparing(Pending::date, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingLong(Pending::id);
+
+    static final class Account {
+        private final TreeMap<Pending, Pending> queue = new TreeMap<>(ORDER);
+        private final Map<Long, Pending> byId = new HashMap<>();
+        private long pendingCents;
+        private long credit;
+
+        private void add(Pending p) {
+            queue.put(p, p);
+            byId.put(p.id(), p);
+            pendingCents += p.cents();
+        }
+
+        private void remove(Pending p) {
+            queue.remove(p);
+            byId.remove(p.id());
+            pendingCents -= p.cents();
+        }
+
+        int pendingCount() {
+            return queue.size();
+        }
+
+        long pendingCents() {
+            return pendingCents;
+        }
+
+        long credit() {
+            return credit;
+        }
+    }
+
+    // Keyed by account, null being the transactions that don't have one
+    private final Map<String, Account> accounts = new HashMap<>();
+
+    Account account(String account) {
+        return accounts.computeIfAbsent(account, a -> new Account());
+    }
+
+    Map<String, Account> accounts() {
+        return accounts;
+    }
+
+    // Seeding from the tables, the first time a shard starts in ledger mode
+    void seed(String account, Pending p) {
+        account(account).add(p);
+    }
+
+    void seedCredit(String account, long cents) {
+        account(account).credit += cents;
+    }
+
+    /**
+     * The oldest PENDING transactions of the account whose running total never goes above the
+     * amount: what a payment of that amount pays off, the same prefix the SQL settlement finds.
+     */
+    List<Pending> covered(String account, long amount) {
+        Account a = accounts.get(account);
+        List<Pending> covered = new ArrayList<>();
+        if (a == null) {
+            return covered;
+        }
+        long running = 0;
+        for (Pending p : a.queue.keySet()) {
+            running += p.cents();
+            if (running > amount) {
+                break;
+            }
+            covered.add(p);
+        }
+        return covered;
+    }
+
+    // Applies the event and returns its undo; settled transactions are added to {@code settled} when given
+    Runnable apply(LedgerEvent event, List<Pending> settled) {
+        if (event instanceof LedgerEvent.Voided) {
+            return () -> {};
+        }
+        Account a = account(event.account());
+        return switch (event) {
+            case LedgerEvent.Created e -> {
+                Pending added = e.status() == Transaction.TransactionStatus.PENDING ? pending(e.id(), e.date(), e.cents()) : null;
+                if (added != null) {
+                    a.add(added);
+                }
+                a.credit -= e.creditUsed();
+                yield () -> {
+                    if (added != null) {
+                        a.remove(added);
+                    }
+                    a.credit += e.creditUsed();
+                };
+            }
+            case LedgerEvent.Updated e -> {
+                Pending before = a.byId.get(e.id());
+                if (before != null) {
+                    a.remove(before);
+                }
+                Pending after = e.status() == Transaction.TransactionStatus.PENDING ? pending(e.id(), e.date(), e.cents()) : null;
+                if (after != null) {
+                    a.add(after);
+                }
+                yield () -> {
+                    if (after != null) {
+                        a.remove(after);
+                    }
+                    if (before != null) {
+                        a.add(before);
+                    }
+                };
+            }
+            case LedgerEvent.Deleted e -> {
+                Pending before = a.byId.get(e.id());
+                if (before != null) {
+                    a.remove(before);
+                }
+                yield () -> {
+                    if (before != null) {
+                        a.add(before);
+                    }
+                };
+            }
+            case LedgerEvent.Settled e -> {
+                List<Pending> covered = covered(e.account(), e.paymentCents());
+                if (covered.size() != e.covered()) {
+                    throw new IllegalStateException("Ledger diverged: payment of " + e.paymentCents() + " for account "
+                            + e.account() + " settled " + e.covered() + " transactions, replay finds " + covered.size());
+                }
+                covered.forEach(a::remove);
+                a.credit += e.leftover();
+                if (settled != null) {
+                    settled.addAll(covered);
+                }
+                yield () -> {
+                    covered.forEach(a::add);
+                    a.credit -= e.leftover();
+                };
+            }
+            case LedgerEvent.Voided e -> throw new IllegalArgumentException("Voided entries change nothing");
+        };
+    }
+
+    private static Pending pending(long id, Instant date, Long cents) {
+        return new Pending(id, date, cents == null ? 0 : cents);
+    }
+
+    // Written to a temporary file and moved into place, so a snapshot on disk is always complete
+    void writeSnapshot(Path file, long seq) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream raw = Channels.newOutputStream(channel);
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(raw), new CRC32C());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(seq);
+            out.writeInt(accounts.size());
+            for (Map.Entry<String, Account> entry : accounts.entrySet()) {
+                writeString(out, entry.getKey());
+                Account a = entry.getValue();
+                out.writeLong(a.credit);
+                out.writeInt(a.queue.size());
+                for (Pending p : a.queue.keySet()) {
+                    out.writeLong(p.id());
+                    out.writeBoolean(p.date() != null);
+                    if (p.date() != null) {
+                        out.writeLong(p.date().getEpochSecond());
+                        out.writeInt(p.date().getNano());
+                    }
+                    out.writeLong(p.cents());
+                }
+            }
+            out.flush();
+            long crc = checked.getChecksum().getValue();
+            new DataOutputStream(raw).writeLong(crc);
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Replaces this state with the snapshot's and returns the sequence number it was taken at
+    long readSnapshot(Path file) throws IOException {
+        accounts.clear();
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file))) {
+            CheckedInputStream checked = new CheckedInputStream(raw, new CRC32C());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a ledger snapshot: " + file);
+            }
+            long seq = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Account a = account(readString(in));
+                a.credit = in.readLong();
+                int pending = in.readInt();
+                for (int j = 0; j < pending; j++) {
+                    long id = in.readLong();
+                    Instant date = in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+                    a.add(new Pending(id, date, in.readLong()));
+                }
+            }
+            long expected = checked.getChecksum().getValue();
+            if (new DataInputStream(raw).readLong() != expected) {
+                throw new IOException("Ledger snapshot " + file + " fails its checksum");
+            }
+            return seq;
+        } catch (IOException | RuntimeException e) {
+            accounts.clear();
+            throw e;
+        }
+    }
+
+    // Accounts left with nothing pending and no credit take no room in memory or snapshots
+    void prune(Iterable<String> touched) {
+        for (String account : touched) {
+            Account a = accounts.get(account);
+            if (a != null && a.queue.isEmpty() && a.credit == 0) {
+                accounts.remove(account);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,56 @@
+package com.transactions.metrics;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counts the SQL statements Hibernate prepares, per thread. Work the settlement engine and the
+ * shard fan-out do on behalf of a caller is charged to the caller's tally, so a request sees the
+ * statements its commands and shard queries ran even though they ran on other threads.
+ */
+@Component
+public class SqlStatementCounter implements StatementInspector, HibernatePropertiesCustomizer {
+
+    // Written by its owner and, while the owner waits on them, by writers and shard readers working for it
+    public static final class Tally {
+        private final LongAdder statements = new LongAdder();
+
+        public long statements() {
+            return statements.sum();
+        }
+    }
+
+    private static final ThreadLocal<Tally> CURRENT = ThreadLocal.withInitial(Tally::new);
+
+    @Override
+    public String inspect(String sql) {
+        CURRENT.get().statements.increment();
+        return sql;
+    }
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, this);
+    }
+
+    public Tally current() {
+        return CURRENT.get();
+    }
+
+    // Runs action with every statement it prepares on this thread counted against tally
+    public <T> T chargeTo(Tally tally, Supplier<T> action) {
+        Tally own = CURRENT.get();
+        CURRENT.set(tally);
+        try {
+            return action.get();
+        } finally {
+            CURRENT.set(own);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.transactions.metrics;
+
+import com.transactions.model.Money;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Service-level meters: one timer per TransactionService operation, and counters for the
+ * rows each operation read and wrote. Meters are created once per operation and reused.
+ */
+@Component
+public class TransactionMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> scanned = new ConcurrentHashMap<>();
+    private final Map<String, Counter> updated = new ConcurrentHashMap<>();
+    private final Counter paymentsConsumed;
+    private final DistributionSummary leftover;
+
+    public TransactionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.paymentsConsumed = Counter.builder("transactions.payments.consumed")
+                .description("Pending payments used up or reduced by new transactions")
+                .register(registry);
+        this.leftover = DistributionSummary.builder("transactions.payment.leftover")
+                .description("Part of each payment kept as credit")
+                .register(registry);
+    }
+
+    public <T> T time(String operation, Supplier<T> action) {
+        return timers.computeIfAbsent(operation, op -> Timer.builder("transactions.operation")
+                        .description("Time spent in a TransactionService operation")
+                        .tag("operation", op)
+                        .register(registry))
+                .record(action);
+    }
+
+    // Rows read into the application, e.g. a page of results or the payments a create consumed
+    public void scanned(String operation, long rows) {
+        scanned.computeIfAbsent(operation, op -> rowCounter("transactions.rows.scanned", op)).increment(rows);
+    }
+
+    // Rows inserted, changed or deleted
+    public void updated(String operation, long rows) {
+        updated.computeIfAbsent(operation, op -> rowCounter("transactions.rows.updated", op)).increment(rows);
+    }
+
+    public void paymentsConsumed(long payments) {
+        paymentsConsumed.increment(payments);
+    }
+
+    public void leftover(long cents) {
+        leftover.record(Money.fromCents(cents));
+    }
+
+    private Counter rowCounter(String name, String operation) {
+        return Counter.builder(name)
+                .tag("operation", operation)
+                .baseUnit("rows")
+                .register(registry);
+    }
+}
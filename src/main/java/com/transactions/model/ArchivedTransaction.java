@@ -0,0 +1,55 @@
+package com.transactions.model;
+
+import jakarta.persistence.*;
+import com.transactions.spec.MonthPartitions;
+import org.hibernate.annotations.Immutable;
+
+import java.time.ZonedDateTime;
+
+// A PAID transaction moved out of the live table by the archiver; same columns and id, never written again
+@Entity
+@Immutable
+@Table(name="transactions_archive", indexes = {
+        @Index(name = "idx_transactions_archive_date", columnList = "date, id"),
+        @Index(name = "idx_transactions_archive_month_date", columnList = "month_key, date, id"),
+        @Index(name = "idx_transactions_archive_account", columnList = "account, id") // reconciliation's per-account sums
+})
+public class ArchivedTransaction {
+
+    @Id
+    private Long id;
+
+    private String account;
+    private String name;
+    private ZonedDateTime date;
+
+    @Column(name = "value_cents")
+    private Long valueCents;
+
+    @Column(columnDefinition = "VARCHAR(255) CHECK (status = 'PAID')")
+    @Enumerated(EnumType.STRING)
+    private Transaction.TransactionStatus status;
+
+    private Long version;
+
+    @Column(name = "month_key", insertable = false, updatable = false, columnDefinition = MonthPartitions.COLUMN)
+    private Integer monthKey;
+
+    public ArchivedTransaction() {}
+
+    public Long getId() {return id;}
+    public ZonedDateTime getDate() {return date;}
+
+    // Archived rows are listed alongside live ones, as the Transaction they were
+    public Transaction toTransaction() {
+        Transaction t = new Transaction();
+        t.setId(id);
+        t.setAccount(account);
+        t.setName(name);
+        t.setDate(date);
+        t.setValueCents(valueCents);
+        t.setStatus(status);
+        t.setVersion(version);
+        return t;
+    }
+}
@@ -0,0 +1,19 @@
+package com.transactions.model;
+
+import jakarta.persistence.*;
+
+// Sequence number of the last ledger entry the tables reflect; one row, written with every ledger append
+@Entity
+@Table(name="ledger_checkpoint")
+public class LedgerCheckpoint {
+
+    @Id
+    private Integer id;
+
+    private long seq;
+
+    public LedgerCheckpoint() {}
+
+    public Integer getId() {return id;}
+    public long getSeq() {return seq;}
+}
@@ -0,0 +1,27 @@
+package com.transactions.model;
+
+/**
+ * Amounts are stored and settled as whole cents in a {@code long}; decimals only exist at the
+ * edges, where JSON reads and writes them.
+ */
+public final class Money {
+
+    private Money() {}
+
+    // Rounds to the nearest cent, so 0.1 + 0.2 entered as 0.30000000000000004 is still 30
+    public static long toCents(double value) {
+        return Math.round(value * 100);
+    }
+
+    public static Long toCents(Double value) {
+        return value == null ? null : toCents(value.doubleValue());
+    }
+
+    public static double fromCents(long cents) {
+        return cents / 100.0;
+    }
+
+    public static Double fromCents(Long cents) {
+        return cents == null ? null : fromCents(cents.longValue());
+    }
+}
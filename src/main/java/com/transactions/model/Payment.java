@@ -1,19 +1,30 @@
 package com.transactions.model;
 
+import com.transactions.shard.ShardedSequence;
 import jakarta.persistence.*;
 
 import java.time.ZonedDateTime;
 
 @Entity // Indicates this class maps to a db table
-@Table(name="payments")
+@Table(name="payments", indexes = {
+        @Index(name = "idx_payments_account_status_id", columnList = "account, status, id") // credit consumption scan
+})
 public class Payment {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY) // DB assigns primary key
+    @ShardedSequence(name = "payments_seq") // pooled ids keep inserts batchable
     private Long id;
 
-    @Column(name = "payment_value")
-    private Double value;
+    // Credit is only ever spent on transactions of the same account
+    @Column(updatable = false)
+    private String account;
+
+    @Column(name = "value_cents")
+    private long valueCents;
+
+    // The part of the payment that paid transactions off when it was made; null on payments from before it was recorded
+    @Column(name = "settled_cents", updatable = false)
+    private Long settledCents;
 
     @Column(columnDefinition = "VARCHAR(255) CHECK (status IN ('PENDING', 'COMPLETED'))")
     @Enumerated(EnumType.STRING)
@@ -28,8 +39,12 @@ public class Payment {
 
     public void setId(Long id) { this.id = id;}
     public Long getId() {return  id;}
-    public Double getValue() {return value;}
-    public void setValue(Double value) {this.value = value;}
+    public String getAccount() {return account;}
+    public void setAccount(String account) {this.account = account;}
+    public long getValueCents() {return valueCents;}
+    public void setValueCents(long valueCents) {this.valueCents = valueCents;}
+    public Long getSettledCents() {return settledCents;}
+    public void setSettledCents(Long settledCents) {this.settledCents = settledCents;}
     public Payment.PaymentStatus getStatus() {return status;}
     public void setStatus(Payment.PaymentStatus status) {this.status = status;}
 }
@@ -0,0 +1,64 @@
+package com.transactions.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.transactions.shard.ShardedSequence;
+import jakarta.persistence.*;
+
+import java.time.ZonedDateTime;
+
+@Entity // A payment accepted for asynchronous settlement
+@Table(name="payment_jobs", indexes = {
+        @Index(name = "idx_payment_jobs_status_id", columnList = "status, id") // recovery scan on startup
+})
+public class PaymentJob {
+
+    @Id
+    @ShardedSequence(name = "payment_jobs_seq")
+    private Long id;
+
+    private String account;
+    private long amountCents;
+
+    @Column(columnDefinition = "VARCHAR(255) CHECK (status IN ('QUEUED', 'COMPLETED', 'FAILED'))")
+    @Enumerated(EnumType.STRING)
+    private JobStatus status;
+
+    private ZonedDateTime submittedAt;
+    private ZonedDateTime finishedAt;
+
+    // Outcome of the settlement, filled in when the job completes
+    private Long settledTransactions;
+    private Long leftoverCents;
+    private String error;
+
+    public enum JobStatus {
+        QUEUED,
+        COMPLETED,
+        FAILED,
+    }
+
+    public PaymentJob() {}
+
+    public Long getId() {return id;}
+    public void setId(Long id) {this.id = id;}
+    public String getAccount() {return account;}
+    public void setAccount(String account) {this.account = account;}
+    @JsonIgnore
+    public long getAmountCents() {return amountCents;}
+    public void setAmountCents(long amountCents) {this.amountCents = amountCents;}
+    public double getAmount() {return Money.fromCents(amountCents);}
+    public JobStatus getStatus() {return status;}
+    public void setStatus(JobStatus status) {this.status = status;}
+    public ZonedDateTime getSubmittedAt() {return submittedAt;}
+    public void setSubmittedAt(ZonedDateTime submittedAt) {this.submittedAt = submittedAt;}
+    public ZonedDateTime getFinishedAt() {return finishedAt;}
+    public void setFinishedAt(ZonedDateTime finishedAt) {this.finishedAt = finishedAt;}
+    public Long getSettledTransactions() {return settledTransactions;}
+    public void setSettledTransactions(Long settledTransactions) {this.settledTransactions = settledTransactions;}
+    @JsonIgnore
+    public Long getLeftoverCents() {return leftoverCents;}
+    public void setLeftoverCents(Long leftoverCents) {this.leftoverCents = leftoverCents;}
+    public Double getLeftover() {return Money.fromCents(leftoverCents);}
+    public String getError() {return error;}
+    public void setError(String error) {this.error = error;}
+}
@@ -1,26 +1,46 @@
 package com.transactions.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.transactions.search.NameIndexListener;
+import com.transactions.shard.ShardedSequence;
+import com.transactions.spec.MonthPartitions;
 import jakarta.persistence.*;
 import java.time.ZonedDateTime;
 
 @Entity // Indicates this class maps to a db table
-@Table(name="transactions")
+@EntityListeners(NameIndexListener.class)
+@Table(name="transactions", indexes = {
+        @Index(name = "idx_transactions_account_status_date", columnList = "account, status, date, id"), // FIFO settlement scan
+        @Index(name = "idx_transactions_month_status_date", columnList = "month_key, status, date, id") // one range per monthly partition
+})
 public class Transaction {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY) // DB assigns primary key
+    @ShardedSequence(name = "transactions_seq") // pooled ids keep inserts batchable
     private Long id;
 
+    // Owner of the transaction; decides its shard and which payments settle it. Fixed once created
+    @Column(updatable = false)
+    private String account;
+
     private String name;
     private ZonedDateTime date;
 
-    @Column(name = "transaction_value")
-    private Double value;
+    @Column(name = "value_cents")
+    private Long valueCents;
 
     @Column(columnDefinition = "VARCHAR(255) CHECK (status IN ('PENDING', 'PAID', 'REJECTED'))")
     @Enumerated(EnumType.STRING)
     private TransactionStatus status;
 
+    // Monthly partition of the row, yyyymm of its UTC date; the database derives it, null when undated
+    @Column(name = "month_key", insertable = false, updatable = false, columnDefinition = MonthPartitions.COLUMN)
+    private Integer monthKey;
+
+    // Bumped by every write; send it back on update to have a concurrent edit rejected
+    @Version
+    private Long version;
+
     public enum TransactionStatus {
         PENDING,
         PAID,
@@ -29,14 +49,34 @@ public class Transaction {
 
     public Transaction() {}
 
+    // For queries that select a row's columns instead of loading the entity
+    public Transaction(Long id, String account, String name, ZonedDateTime date, Long valueCents,
+                       TransactionStatus status, Long version) {
+        this.id = id;
+        this.account = account;
+        this.name = name;
+        this.date = date;
+        this.valueCents = valueCents;
+        this.status = status;
+        this.version = version;
+    }
+
     public void setId(Long id) { this.id = id;}
     public Long getId() {return  id;}
+    public String getAccount() {return account;}
+    public void setAccount(String account) {this.account = account;}
     public String getName() {return name;}
     public void setName(String name) { this.name = name;}
     public ZonedDateTime getDate() {return date;}
     public void setDate(ZonedDateTime date) { this.date = date;}
-    public Double getValue() {return value;}
-    public void setValue(Double value) {this.value = value;}
+    @JsonIgnore
+    public Long getValueCents() {return valueCents;}
+    public void setValueCents(Long valueCents) {this.valueCents = valueCents;}
+    // JSON keeps the decimal "value" it always had
+    public Double getValue() {return Money.fromCents(valueCents);}
+    public void setValue(Double value) {this.valueCents = Money.toCents(value);}
     public TransactionStatus getStatus() {return status;}
     public void setStatus(TransactionStatus status) {this.status = status;}
+    public Long getVersion() {return version;}
+    public void setVersion(Long version) {this.version = version;}
 }
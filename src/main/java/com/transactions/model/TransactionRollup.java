@@ -0,0 +1,53 @@
+package com.transactions.model;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.Objects;
+
+// Count and value of the transactions in one status on one UTC day, maintained on every write
+@Entity
+@Table(name="transaction_rollups")
+@IdClass(TransactionRollup.Key.class)
+public class TransactionRollup {
+
+    @Id
+    @Column(name = "bucket_day")
+    private LocalDate day;
+
+    @Id
+    @Column(columnDefinition = "VARCHAR(255) CHECK (status IN ('PENDING', 'PAID', 'REJECTED'))")
+    @Enumerated(EnumType.STRING)
+    private Transaction.TransactionStatus status;
+
+    @Column(name = "tx_count")
+    private long count;
+
+    @Column(name = "total_cents")
+    private long totalCents;
+
+    public TransactionRollup() {}
+
+    public LocalDate getDay() {return day;}
+    public Transaction.TransactionStatus getStatus() {return status;}
+    public long getCount() {return count;}
+    public long getTotalCents() {return totalCents;}
+
+    public static class Key implements Serializable {
+        private LocalDate day;
+        private Transaction.TransactionStatus status;
+
+        public Key() {}
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && Objects.equals(day, other.day) && status == other.status;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(day, status);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.transactions.repository;
+
+import com.transactions.model.LedgerCheckpoint;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+import static org.hibernate.jpa.HibernateHints.HINT_NATIVE_SPACES;
+
+@Repository
+public interface LedgerCheckpointRepository extends JpaRepository<LedgerCheckpoint, Integer> {
+
+    @Modifying
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "ledger_checkpoint"))
+    @Query(value = "MERGE INTO ledger_checkpoint KEY (id) VALUES (1, :seq)", nativeQuery = true)
+    void advance(@Param("seq") long seq);
+
+    @Query(value = "SELECT seq FROM ledger_checkpoint WHERE id = 1", nativeQuery = true)
+    Optional<Long> findSeq();
+}
@@ -0,0 +1,15 @@
+package com.transactions.repository;
+
+import com.transactions.model.PaymentJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface PaymentJobRepository extends JpaRepository<PaymentJob, Long> {
+
+    @Query("select j.id from PaymentJob j where j.status = com.transactions.model.PaymentJob.JobStatus.QUEUED order by j.id")
+    List<Long> findQueuedIds();
+}
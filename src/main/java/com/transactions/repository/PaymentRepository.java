@@ -1,11 +1,63 @@
 package com.transactions.repository;
 
 import com.transactions.model.Payment;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
 @Repository
 public interface PaymentRepository extends JpaRepository<Payment, Long>,
         JpaSpecificationExecutor<Payment> {
-}
\ No newline at end of file
+
+    interface AccountCredit {
+        String getAccount();
+        long getCents();
+    }
+
+    @Query("select p.account as account, sum(p.valueCents) as cents from Payment p "
+            + "where p.status = com.transactions.model.Payment.PaymentStatus.PENDING group by p.account")
+    List<AccountCredit> sumPendingCreditByAccount();
+
+    // The account's oldest PENDING payments up to and including the one that finishes off the amount
+    @Query(value = """
+            SELECT id, account, value_cents, settled_cents, status FROM (
+                SELECT id, account, value_cents, settled_cents, status,
+                       SUM(value_cents) OVER (ORDER BY id) - value_cents AS consumed_before
+                FROM payments
+                WHERE account IS NOT DISTINCT FROM CAST(:account AS VARCHAR) AND status = 'PENDING'
+            ) c
+            WHERE consumed_before < :amount
+            ORDER BY id
+            """, nativeQuery = true)
+    List<Payment> findConsumedBy(@Param("account") String account, @Param("amount") long amountCents);
+
+    @Query("select min(p.id) as lowest, max(p.id) as highest from Payment p")
+    TransactionRepository.IdRange findIdRange();
+
+    record SettledRow(String account, Long settledCents) {}
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query("select new com.transactions.repository.PaymentRepository$SettledRow(p.account, p.settledCents) "
+            + "from Payment p where p.id >= :from and p.id < :to")
+    Stream<SettledRow> streamIdRange(@Param("from") long from, @Param("to") long to);
+
+    // unrecorded counts the account's payments from before settled amounts were kept
+    interface SettledTotal {
+        long getCents();
+        long getUnrecorded();
+    }
+
+    @Query(value = "SELECT COALESCE(SUM(settled_cents), 0) AS \"cents\", COUNT(*) - COUNT(settled_cents) AS \"unrecorded\" "
+            + "FROM payments WHERE account IS NOT DISTINCT FROM CAST(:account AS VARCHAR)", nativeQuery = true)
+    SettledTotal sumSettled(@Param("account") String account);
+}
@@ -0,0 +1,56 @@
+package com.transactions.repository;
+
+import com.transactions.model.ArchivedTransaction;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.ZonedDateTime;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
+@Repository
+public interface TransactionArchiveRepository extends JpaRepository<ArchivedTransaction, Long>,
+        JpaSpecificationExecutor<ArchivedTransaction> {
+
+    // Moves up to :limit PAID rows dated before the cutoff in one statement: the DELETE's
+    // row image is what gets inserted, so a row is never in both tables or in neither
+    @Modifying
+    @Query(value = "INSERT INTO transactions_archive (id, account, name, date, value_cents, status, version) "
+            + "SELECT id, account, name, date, value_cents, status, version FROM OLD TABLE ("
+            + "DELETE FROM transactions WHERE status = 'PAID' AND date < :cutoff FETCH FIRST :limit ROWS ONLY)",
+            nativeQuery = true)
+    int moveFromLiveTable(@Param("cutoff") ZonedDateTime cutoff, @Param("limit") int limit);
+
+    interface Extent {
+        ZonedDateTime getOldest();
+        ZonedDateTime getNewest();
+    }
+
+    @Query("select min(a.date) as oldest, max(a.date) as newest from ArchivedTransaction a")
+    Extent findExtent();
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query("select a.id as id, a.name as name from ArchivedTransaction a")
+    Stream<TransactionRepository.NameRow> streamNames();
+
+    @Query("select min(a.id) as lowest, max(a.id) as highest from ArchivedTransaction a")
+    TransactionRepository.IdRange findIdRange();
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query("select new com.transactions.repository.TransactionRepository$ReconcileRow(a.account, a.date, a.status, a.valueCents) "
+            + "from ArchivedTransaction a where a.id >= :from and a.id < :to")
+    Stream<TransactionRepository.ReconcileRow> streamIdRange(@Param("from") long from, @Param("to") long to);
+
+    // Everything in the archive is PAID
+    @Query(value = "SELECT COALESCE(SUM(value_cents), 0) FROM transactions_archive "
+            + "WHERE account IS NOT DISTINCT FROM CAST(:account AS VARCHAR)", nativeQuery = true)
+    long sumPaid(@Param("account") String account);
+}
@@ -1,12 +1,193 @@
 package com.transactions.repository;
 
 import com.transactions.model.Transaction;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_NATIVE_SPACES;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
 // JpaRepository makes crud methods available
 @Repository
 public interface TransactionRepository extends JpaRepository<Transaction, Long>,
-        JpaSpecificationExecutor<Transaction> {
-}
\ No newline at end of file
+        JpaSpecificationExecutor<Transaction>, TransactionRepositoryCustom {
+
+    // Oldest-first PENDING transactions of the account whose running total never exceeds the
+    // payment, i.e. the prefix of the account's queue that the payment pays off completely.
+    String COVERED_PENDING = """
+            SELECT id, date, value_cents, peak FROM (
+                SELECT id, date, value_cents, MAX(running) OVER (ORDER BY date, id) AS peak FROM (
+                    SELECT id, date, value_cents,
+                           SUM(value_cents) OVER (ORDER BY date, id) AS running
+                    FROM transactions
+                    WHERE account IS NOT DISTINCT FROM CAST(:account AS VARCHAR) AND status = 'PENDING'
+                ) r
+            ) p
+            """;
+
+    // What a payment would settle, per UTC day so the rollups can be moved along with it
+    interface DaySettlement {
+        LocalDate getDay();
+        long getCovered();
+        long getCoveredCents();
+    }
+
+    @Query(value = "SELECT " + TransactionRollupRepository.BUCKET_DAY + " AS \"day\", "
+            + "COUNT(*) AS \"covered\", "
+            + "COALESCE(SUM(value_cents), 0) AS \"coveredCents\" "
+            + "FROM (" + COVERED_PENDING + ") c WHERE peak <= :amount "
+            + "GROUP BY " + TransactionRollupRepository.BUCKET_DAY, nativeQuery = true)
+    List<DaySettlement> settlementByDay(@Param("account") String account, @Param("amount") long amountCents);
+
+    // Returns the ids it paid, read from the UPDATE itself
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "transactions"))
+    @Query(value = "SELECT id FROM FINAL TABLE (UPDATE transactions SET status = 'PAID', version = COALESCE(version, 0) + 1 "
+            + "WHERE id IN (SELECT id FROM (" + COVERED_PENDING + ") c WHERE peak <= :amount))", nativeQuery = true)
+    List<Long> markCoveredAsPaid(@Param("account") String account, @Param("amount") long amountCents);
+
+    // For when the covered transactions are already known, as they are in ledger mode
+    @Modifying
+    @Query(value = "UPDATE transactions SET status = 'PAID', version = COALESCE(version, 0) + 1 "
+            + "WHERE id IN (:ids) AND status = 'PENDING'", nativeQuery = true)
+    int markPaidIn(@Param("ids") Collection<Long> ids);
+
+    default int markPaid(List<Long> ids) {
+        int updated = 0;
+        for (int from = 0; from < ids.size(); from += 1000) {
+            updated += markPaidIn(ids.subList(from, Math.min(ids.size(), from + 1000)));
+        }
+        return updated;
+    }
+
+    // Writes a row with a known id, as the ledger projector does when it brings the table up to date
+    @Modifying
+    @Query(value = "MERGE INTO transactions (id, account, name, date, value_cents, status, version) KEY (id) "
+            + "VALUES (:id, CAST(:account AS VARCHAR), CAST(:name AS VARCHAR), CAST(:date AS TIMESTAMP WITH TIME ZONE), "
+            + "CAST(:valueCents AS BIGINT), CAST(:status AS VARCHAR), 0)", nativeQuery = true)
+    void insertRow(@Param("id") long id,
+                   @Param("account") String account,
+                   @Param("name") String name,
+                   @Param("date") ZonedDateTime date,
+                   @Param("valueCents") Long valueCents,
+                   @Param("status") String status);
+
+    interface PendingRow {
+        Long getId();
+        String getAccount();
+        ZonedDateTime getDate();
+        Long getValueCents();
+    }
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query("select t.id as id, t.account as account, t.date as date, t.valueCents as valueCents from Transaction t "
+            + "where t.status = com.transactions.model.Transaction.TransactionStatus.PENDING")
+    Stream<PendingRow> streamPending();
+
+    interface PendingTotal {
+        long getCount();
+        long getCents();
+    }
+
+    @Query(value = "SELECT COUNT(*) AS \"count\", COALESCE(SUM(value_cents), 0) AS \"cents\" FROM transactions "
+            + "WHERE account IS NOT DISTINCT FROM CAST(:account AS VARCHAR) AND status = 'PENDING'", nativeQuery = true)
+    PendingTotal pendingTotal(@Param("account") String account);
+
+    // A row as it was just before a guarded write changed or removed it
+    interface RowImage {
+        Long getId();
+        String getAccount();
+        String getName();
+        OffsetDateTime getDate();
+        Long getValueCents();
+        String getStatus();
+        Long getVersion();
+    }
+
+    String ROW_IMAGE = "SELECT id AS \"id\", account AS \"account\", name AS \"name\", date AS \"date\", value_cents AS \"valueCents\", "
+            + "status AS \"status\", version AS \"version\" FROM OLD TABLE ";
+
+    String NOT_PAID = "(status IS NULL OR status <> 'PAID')";
+
+    // Guarded writes: the PAID check (and the version check, when one is given) is part of the
+    // statement, so nothing can pay the row between the check and the write. Empty when no row matched.
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "transactions"))
+    @Query(value = ROW_IMAGE + "(UPDATE transactions SET name = CAST(:name AS VARCHAR), "
+            + "date = CAST(:date AS TIMESTAMP WITH TIME ZONE), value_cents = CAST(:valueCents AS BIGINT), "
+            + "status = CAST(:status AS VARCHAR), version = COALESCE(version, 0) + 1 "
+            + "WHERE id = :id AND " + NOT_PAID + " AND (CAST(:version AS BIGINT) IS NULL OR version = :version))",
+            nativeQuery = true)
+    Optional<RowImage> updateUnlessPaid(@Param("id") Long id,
+                                        @Param("name") String name,
+                                        @Param("date") ZonedDateTime date,
+                                        @Param("valueCents") Long valueCents,
+                                        @Param("status") String status,
+                                        @Param("version") Long version);
+
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "transactions"))
+    @Query(value = ROW_IMAGE + "(DELETE FROM transactions WHERE id = :id AND " + NOT_PAID + ")", nativeQuery = true)
+    Optional<RowImage> deleteUnlessPaid(@Param("id") Long id);
+
+    // The same guards over a chunk of ids at once, for bulk writes; returns the rows it changed or removed
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "transactions"))
+    @Query(value = ROW_IMAGE + "(UPDATE transactions SET status = CAST(:status AS VARCHAR), version = COALESCE(version, 0) + 1 "
+            + "WHERE id IN (:ids) AND " + NOT_PAID + ")", nativeQuery = true)
+    List<RowImage> updateStatusUnlessPaid(@Param("ids") Collection<Long> ids, @Param("status") String status);
+
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "transactions"))
+    @Query(value = ROW_IMAGE + "(DELETE FROM transactions WHERE id IN (:ids) AND " + NOT_PAID + ")", nativeQuery = true)
+    List<RowImage> deleteAllUnlessPaid(@Param("ids") Collection<Long> ids);
+
+    // Only asked after a guarded write matched nothing, to say why
+    interface StatusRow {
+        Transaction.TransactionStatus getStatus();
+    }
+
+    @Query("select t.status as status from Transaction t where t.id = :id")
+    Optional<StatusRow> findStatusById(@Param("id") Long id);
+
+    interface NameRow {
+        Long getId();
+        String getName();
+    }
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query("select t.id as id, t.name as name from Transaction t")
+    Stream<NameRow> streamNames();
+
+    // Bounds for splitting a table into id ranges; both null when it is empty
+    interface IdRange {
+        Long getLowest();
+        Long getHighest();
+    }
+
+    @Query("select min(t.id) as lowest, max(t.id) as highest from Transaction t")
+    IdRange findIdRange();
+
+    // A record rather than an interface: millions of them are read, and a record skips the per-row proxy
+    record ReconcileRow(String account, ZonedDateTime date, Transaction.TransactionStatus status, Long valueCents) {}
+
+    // The rows with from <= id < to, read forward-only off the primary key
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "1000"), @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query("select new com.transactions.repository.TransactionRepository$ReconcileRow(t.account, t.date, t.status, t.valueCents) "
+            + "from Transaction t where t.id >= :from and t.id < :to")
+    Stream<ReconcileRow> streamIdRange(@Param("from") long from, @Param("to") long to);
+
+    @Query(value = "SELECT COALESCE(SUM(value_cents), 0) FROM transactions "
+            + "WHERE account IS NOT DISTINCT FROM CAST(:account AS VARCHAR) AND status = 'PAID'", nativeQuery = true)
+    long sumPaid(@Param("account") String account);
+}
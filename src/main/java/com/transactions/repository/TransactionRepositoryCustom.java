@@ -0,0 +1,41 @@
+package com.transactions.repository;
+
+import com.transactions.model.ArchivedTransaction;
+import com.transactions.model.Transaction;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface TransactionRepositoryCustom {
+
+    /**
+     * Forward-only stream of the matching rows. Each row is detached as it is read, so memory
+     * stays flat however many rows there are. Must be consumed inside a transaction and closed.
+     */
+    Stream<Transaction> streamAll(Specification<Transaction> spec, Sort sort);
+
+    // The same over the archive table, rows read back as the transactions they were
+    Stream<Transaction> streamArchived(Specification<ArchivedTransaction> spec, Sort sort);
+
+    /**
+     * A page of the matching rows for read-only listings, in a read-only transaction. Columns
+     * are selected straight into plain {@link Transaction} objects rather than loaded as
+     * entities, so there is no hydration, snapshot or dirty check per row.
+     */
+    Page<Transaction> findRows(Specification<Transaction> spec, Pageable pageable);
+
+    // The same without the count query
+    Slice<Transaction> sliceRows(Specification<Transaction> spec, Pageable pageable);
+
+    Page<Transaction> findArchivedRows(Specification<ArchivedTransaction> spec, Pageable pageable);
+
+    Slice<Transaction> sliceArchivedRows(Specification<ArchivedTransaction> spec, Pageable pageable);
+
+    // The next ids above afterId that match, in id order: one chunk of a bulk write, in the caller's transaction
+    List<Long> findIdsAfter(Specification<Transaction> spec, long afterId, int limit);
+}
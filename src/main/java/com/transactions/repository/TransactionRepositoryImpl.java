@@ -0,0 +1,150 @@
+package com.transactions.repository;
+
+import com.transactions.model.ArchivedTransaction;
+import com.transactions.model.Transaction;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.TypedQuery;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
+
+// Picked up by Spring Data as the implementation of TransactionRepositoryCustom
+class TransactionRepositoryImpl implements TransactionRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Value("${transactions.export.fetch-size:1000}")
+    private int fetchSize;
+
+    @Override
+    public Stream<Transaction> streamAll(Specification<Transaction> spec, Sort sort) {
+        return stream(Transaction.class, spec, sort);
+    }
+
+    @Override
+    public Stream<Transaction> streamArchived(Specification<ArchivedTransaction> spec, Sort sort) {
+        return stream(ArchivedTransaction.class, spec, sort).map(ArchivedTransaction::toTransaction);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Page<Transaction> findRows(Specification<Transaction> spec, Pageable pageable) {
+        return page(Transaction.class, spec, pageable);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<Transaction> sliceRows(Specification<Transaction> spec, Pageable pageable) {
+        return slice(Transaction.class, spec, pageable);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Page<Transaction> findArchivedRows(Specification<ArchivedTransaction> spec, Pageable pageable) {
+        return page(ArchivedTransaction.class, spec, pageable);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<Transaction> sliceArchivedRows(Specification<ArchivedTransaction> spec, Pageable pageable) {
+        return slice(ArchivedTransaction.class, spec, pageable);
+    }
+
+    @Override
+    public List<Long> findIdsAfter(Specification<Transaction> spec, long afterId, int limit) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Transaction> root = query.from(Transaction.class);
+        query.select(root.get("id"));
+        Predicate after = cb.greaterThan(root.get("id"), afterId);
+        Predicate predicate = spec.toPredicate(root, query, cb);
+        query.where(predicate == null ? after : cb.and(after, predicate));
+        query.orderBy(cb.asc(root.get("id")));
+        return em.createQuery(query).setMaxResults(limit).getResultList();
+    }
+
+    // Like findAll(spec, pageable): no count query when the rows read already tell the total
+    private <T> Page<Transaction> page(Class<T> type, Specification<T> spec, Pageable pageable) {
+        List<Transaction> rows = rows(type, spec, pageable, 0);
+        return PageableExecutionUtils.getPage(rows, pageable, () -> count(type, spec));
+    }
+
+    // One row past the page says whether there is a next one
+    private <T> Slice<Transaction> slice(Class<T> type, Specification<T> spec, Pageable pageable) {
+        List<Transaction> rows = rows(type, spec, pageable, 1);
+        boolean more = pageable.isPaged() && rows.size() > pageable.getPageSize();
+        return new SliceImpl<>(more ? rows.subList(0, pageable.getPageSize()) : rows, pageable, more);
+    }
+
+    // Selects the columns into new Transaction objects, which Hibernate neither hydrates as entities nor tracks
+    private <T> List<Transaction> rows(Class<T> type, Specification<T> spec, Pageable pageable, int extra) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Transaction> query = cb.createQuery(Transaction.class);
+        Root<T> root = query.from(type);
+        query.select(cb.construct(Transaction.class, root.get("id"), root.get("account"), root.get("name"),
+                root.get("date"), root.get("valueCents"), root.get("status"), root.get("version")));
+        Predicate predicate = spec.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.orderBy(QueryUtils.toOrders(pageable.getSort(), root, cb));
+
+        TypedQuery<Transaction> typed = em.createQuery(query);
+        if (pageable.isPaged()) {
+            typed.setFirstResult(Math.toIntExact(pageable.getOffset()));
+            typed.setMaxResults(pageable.getPageSize() + extra);
+        }
+        return typed.getResultList();
+    }
+
+    private <T> long count(Class<T> type, Specification<T> spec) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<T> root = query.from(type);
+        query.select(cb.count(root));
+        Predicate predicate = spec.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        return em.createQuery(query).getSingleResult();
+    }
+
+    private <T> Stream<T> stream(Class<T> type, Specification<T> spec, Sort sort) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(type);
+        Root<T> root = query.from(type);
+        Predicate predicate = spec.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.orderBy(QueryUtils.toOrders(sort, root, cb));
+
+        return em.createQuery(query)
+                .setHint(HINT_FETCH_SIZE, fetchSize)
+                .setHint(HINT_READ_ONLY, true)
+                .getResultStream()
+                .map(t -> {
+                    em.detach(t);
+                    return t;
+                });
+    }
+}
@@ -0,0 +1,72 @@
+package com.transactions.repository;
+
+import com.transactions.model.TransactionRollup;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.hibernate.jpa.HibernateHints.HINT_NATIVE_SPACES;
+
+@Repository
+public interface TransactionRollupRepository extends JpaRepository<TransactionRollup, TransactionRollup.Key> {
+
+    // UTC day of a transaction, undated ones are kept under the first day of year 1
+    String BUCKET_DAY = "COALESCE(CAST(date AT TIME ZONE 'UTC' AS DATE), DATE '0001-01-01')";
+
+    // Every transaction, live or archived
+    String ALL_ROWS = "(SELECT date, status, value_cents FROM transactions "
+            + "UNION ALL SELECT date, status, value_cents FROM transactions_archive) t";
+
+    interface Bucket {
+        LocalDate getDay();
+        String getStatus();
+        long getCount();
+        long getTotalCents();
+    }
+
+    @Modifying
+    @QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "transaction_rollups")) // don't flush unrelated writes first
+    @Query(value = """
+            MERGE INTO transaction_rollups r
+            USING (VALUES (CAST(:day AS DATE), CAST(:status AS VARCHAR), CAST(:count AS BIGINT), CAST(:total AS BIGINT)))
+                AS d(bucket_day, status, tx_count, total_cents)
+            ON r.bucket_day = d.bucket_day AND r.status = d.status
+            WHEN MATCHED THEN UPDATE SET tx_count = r.tx_count + d.tx_count, total_cents = r.total_cents + d.total_cents
+            WHEN NOT MATCHED THEN INSERT (bucket_day, status, tx_count, total_cents)
+                VALUES (d.bucket_day, d.status, d.tx_count, d.total_cents)
+            """, nativeQuery = true)
+    void add(@Param("day") LocalDate day, @Param("status") String status,
+             @Param("count") long count, @Param("total") long totalCents);
+
+    @Query(value = "SELECT bucket_day AS \"day\", status AS \"status\", tx_count AS \"count\", total_cents AS \"totalCents\" "
+            + "FROM transaction_rollups WHERE tx_count <> 0 AND bucket_day BETWEEN :from AND :to "
+            + "ORDER BY bucket_day, status", nativeQuery = true)
+    List<Bucket> findBuckets(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    @Query(value = "SELECT NULL AS \"day\", status AS \"status\", SUM(tx_count) AS \"count\", SUM(total_cents) AS \"totalCents\" "
+            + "FROM transaction_rollups WHERE bucket_day BETWEEN :from AND :to GROUP BY status ORDER BY status", nativeQuery = true)
+    List<Bucket> totalsByStatus(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    // The same buckets computed from the base table, for rebuilds and consistency checks only
+    @Query(value = "SELECT " + BUCKET_DAY + " AS \"day\", status AS \"status\", COUNT(*) AS \"count\", "
+            + "COALESCE(SUM(value_cents), 0) AS \"totalCents\" "
+            + "FROM " + ALL_ROWS + " WHERE status IS NOT NULL GROUP BY " + BUCKET_DAY + ", status ORDER BY 1, 2", nativeQuery = true)
+    List<Bucket> scanBaseTable();
+
+    @Modifying
+    @Query(value = "DELETE FROM transaction_rollups", nativeQuery = true)
+    void clear();
+
+    @Modifying
+    @Query(value = "INSERT INTO transaction_rollups (bucket_day, status, tx_count, total_cents) "
+            + "SELECT " + BUCKET_DAY + ", status, COUNT(*), COALESCE(SUM(value_cents), 0) "
+            + "FROM " + ALL_ROWS + " WHERE status IS NOT NULL GROUP BY " + BUCKET_DAY + ", status", nativeQuery = true)
+    int rebuildFromBaseTable();
+}
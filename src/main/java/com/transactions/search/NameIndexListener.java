@@ -0,0 +1,35 @@
+package com.transactions.search;
+
+import com.transactions.model.Transaction;
+import com.transactions.service.AfterCommit;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+// Keeps NameSearchIndex in step with every entity write, whether it came through the service or a repository
+@Component
+public class NameIndexListener {
+
+    private final NameSearchIndex index;
+
+    // Lazy: Hibernate builds this listener while the EntityManagerFactory the index depends on is still being created
+    public NameIndexListener(@Lazy NameSearchIndex index) {
+        this.index = index;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void onSave(Transaction t) {
+        Long id = t.getId();
+        String name = t.getName();
+        AfterCommit.run(() -> index.put(id, name));
+    }
+
+    @PostRemove
+    public void onDelete(Transaction t) {
+        Long id = t.getId();
+        AfterCommit.run(() -> index.delete(id));
+    }
+}
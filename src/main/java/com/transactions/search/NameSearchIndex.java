@@ -0,0 +1,187 @@
+package com.transactions.search;
+
+import com.transactions.repository.TransactionArchiveRepository;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.shard.Shards;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Trigram inverted index over transaction names. Answers the substring part of the
+ * {@code name} filter with a set of candidate ids so the database never has to run
+ * {@code lower(name) LIKE '%x%'} over the whole table.
+ * Every candidate is checked against the full lowercased name, so results are exactly
+ * what the LIKE filter would return. Archived transactions keep their ids, so they stay indexed.
+ */
+@Component
+public class NameSearchIndex implements SmartInitializingSingleton {
+
+    private static final int GRAM = 3;
+
+    private final TransactionRepository repo;
+    private final TransactionArchiveRepository archiveRepo;
+    private final Shards shards;
+    private final TransactionTemplate readTx;
+    private final int maxCandidates;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, String> names = new HashMap<>();
+    private final Map<String, Set<Long>> postings = new HashMap<>();
+    private volatile boolean ready;
+
+    public NameSearchIndex(TransactionRepository repo,
+                           TransactionArchiveRepository archiveRepo,
+                           Shards shards,
+                           PlatformTransactionManager txManager,
+                           @Value("${transactions.name-index.max-candidates:5000}") int maxCandidates) {
+        this.repo = repo;
+        this.archiveRepo = archiveRepo;
+        this.shards = shards;
+        this.readTx = new TransactionTemplate(txManager);
+        this.readTx.setReadOnly(true);
+        this.maxCandidates = maxCandidates;
+    }
+
+    // Runs before the web server starts, so no request sees a half-built index
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            ready = false;
+            names.clear();
+            postings.clear();
+            // One shard after the other: the index isn't safe for concurrent adds
+            for (int shard = 0; shard < shards.count(); shard++) {
+                shards.on(shard, () -> readTx.execute(status -> {
+                    try (var rows = repo.streamNames()) {
+                        rows.forEach(row -> add(row.getId(), row.getName()));
+                    }
+                    try (var rows = archiveRepo.streamNames()) {
+                        rows.forEach(row -> add(row.getId(), row.getName()));
+                    }
+                    return null;
+                }));
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void put(Long id, String name) {
+        lock.writeLock().lock();
+        try {
+            remove(id);
+            add(id, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void delete(Long id) {
+        lock.writeLock().lock();
+        try {
+            remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ids of the transactions whose name contains {@code query}, ignoring case.
+     * Empty when the index can't answer (still loading, LIKE wildcards in the query,
+     * or too many matches to be worth an IN list) and the caller should use LIKE instead.
+     */
+    public Optional<Set<Long>> candidates(String query) {
+        if (!ready || query.isEmpty() || query.indexOf('%') >= 0 || query.indexOf('_') >= 0 || query.indexOf('\\') >= 0) {
+            return Optional.empty();
+        }
+        String needle = query.toLowerCase(Locale.ROOT);
+
+        lock.readLock().lock();
+        try {
+            Set<Long> matches = new HashSet<>();
+            for (Long id : seeds(needle)) {
+                String name = names.get(id);
+                if (name != null && name.contains(needle)) {
+                    if (matches.size() == maxCandidates) {
+                        return Optional.empty();
+                    }
+                    matches.add(id);
+                }
+            }
+            return Optional.of(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Smallest posting list of the needle's trigrams, or every name when the needle is too short to have one
+    private Set<Long> seeds(String needle) {
+        if (needle.length() < GRAM) {
+            return names.keySet();
+        }
+        Set<Long> smallest = null;
+        for (String gram : grams(needle)) {
+            Set<Long> posting = postings.get(gram);
+            if (posting == null) {
+                return Collections.emptySet();
+            }
+            if (smallest == null || posting.size() < smallest.size()) {
+                smallest = posting;
+            }
+        }
+        return smallest;
+    }
+
+    private void add(Long id, String name) {
+        if (id == null || name == null) {
+            return;
+        }
+        String lower = name.toLowerCase(Locale.ROOT);
+        names.put(id, lower);
+        for (String gram : grams(lower)) {
+            postings.computeIfAbsent(gram, g -> new HashSet<>()).add(id);
+        }
+    }
+
+    private void remove(Long id) {
+        String lower = names.remove(id);
+        if (lower == null) {
+            return;
+        }
+        for (String gram : grams(lower)) {
+            Set<Long> posting = postings.get(gram);
+            if (posting != null && posting.remove(id) && posting.isEmpty()) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    private static List<String> grams(String text) {
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+}
@@ -0,0 +1,7 @@
+package com.transactions.service;
+
+/**
+ * What an account owes and holds: its PENDING transactions, their total and the credit
+ * left over from payments that the next transactions will consume.
+ */
+public record AccountBalance(String account, long pendingTransactions, double pendingTotal, double credit) {}
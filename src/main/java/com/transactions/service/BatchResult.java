@@ -0,0 +1,24 @@
+package com.transactions.service;
+
+import com.transactions.model.Transaction;
+
+import java.util.List;
+
+public record BatchResult(int received, int created, int failed, List<Item> items) {
+
+    public record Item(int index, Long id, Transaction.TransactionStatus status, String error) {
+
+        static Item created(int index, Transaction t) {
+            return new Item(index, t.getId(), t.getStatus(), null);
+        }
+
+        static Item failed(int index, String error) {
+            return new Item(index, null, null, error);
+        }
+    }
+
+    static BatchResult of(List<Item> items) {
+        int failed = (int) items.stream().filter(item -> item.error() != null).count();
+        return new BatchResult(items.size(), items.size() - failed, failed, items);
+    }
+}
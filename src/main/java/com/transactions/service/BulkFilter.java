@@ -0,0 +1,11 @@
+package com.transactions.service;
+
+import java.time.LocalDate;
+
+// The list filters, for picking the rows of a bulk write; from and to may each be left open here
+public record BulkFilter(String name, LocalDate from, LocalDate to, String status) {
+
+    boolean isEmpty() {
+        return name == null && from == null && to == null && status == null;
+    }
+}
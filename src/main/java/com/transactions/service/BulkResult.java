@@ -0,0 +1,18 @@
+package com.transactions.service;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk status change or delete. Each chunk was its own statement and transaction;
+ * {@code matched} is what the chunk asked for and {@code affected} what it changed, the
+ * difference being PAID rows (and, for id lists, ids that don't exist).
+ */
+public record BulkResult(long matched, long affected, List<Chunk> chunks) {
+
+    public record Chunk(int shard, long firstId, long lastId, int matched, int affected) {}
+
+    static BulkResult of(List<Chunk> chunks) {
+        return new BulkResult(chunks.stream().mapToLong(Chunk::matched).sum(),
+                chunks.stream().mapToLong(Chunk::affected).sum(), chunks);
+    }
+}
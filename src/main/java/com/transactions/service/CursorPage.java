@@ -0,0 +1,10 @@
+package com.transactions.service;
+
+import java.util.List;
+
+/**
+ * One window of a keyset-paginated listing. {@code nextCursor} is an opaque token to pass
+ * back as {@code cursor} for the following window, or null when there is nothing left.
+ */
+public record CursorPage<T>(List<T> content, int size, String nextCursor) {
+}
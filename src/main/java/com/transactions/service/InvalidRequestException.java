@@ -0,0 +1,13 @@
+package com.transactions.service;
+
+// Input from the client the service can't act on, such as a cursor it didn't hand out; answered with 400
+public class InvalidRequestException extends IllegalArgumentException {
+
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+
+    public InvalidRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
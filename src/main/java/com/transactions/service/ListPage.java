@@ -0,0 +1,24 @@
+package com.transactions.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+
+import java.util.List;
+
+/**
+ * One page of a listing as the API returns it. Only what clients page with is written, not
+ * the pageable and sort objects {@code PageImpl} carries; the totals are left out when the
+ * listing was read without a count.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ListPage<T>(List<T> content, int page, int size, boolean last, Long totalElements, Integer totalPages) {
+
+    public static <T> ListPage<T> of(Slice<T> slice) {
+        if (slice instanceof Page<T> page) {
+            return new ListPage<>(page.getContent(), page.getNumber(), page.getSize(), page.isLast(),
+                    page.getTotalElements(), page.getTotalPages());
+        }
+        return new ListPage<>(slice.getContent(), slice.getNumber(), slice.getSize(), slice.isLast(), null, null);
+    }
+}
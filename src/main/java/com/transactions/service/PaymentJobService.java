@@ -0,0 +1,244 @@
+package com.transactions.service;
+
+import com.transactions.model.PaymentJob;
+import com.transactions.repository.PaymentJobRepository;
+import com.transactions.shard.Shards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous payments. A submitted payment is written to the payment_jobs table before
+ * the caller gets its job id, then settled by a small pool of workers. Each job is settled
+ * and marked COMPLETED in the same settlement command, so a job is either still QUEUED or
+ * fully applied; whatever is QUEUED when the application starts is picked up again.
+ * A job lives on the shard of its account, next to the transactions it settles.
+ * <p>
+ * Lock and query timeouts, version conflicts and an exhausted connection pool are retried up
+ * to {@code max-attempts} times, waiting {@code retry-backoff} and then twice as long each time.
+ * Any other error, or one that is still there after the last attempt, marks the job FAILED.
+ */
+@Service
+public class PaymentJobService implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentJobService.class);
+
+    private final PaymentJobRepository jobRepo;
+    private final TransactionService transactions;
+    private final SettlementEngine engine;
+    private final Shards shards;
+    private final int workers;
+    private final int capacity;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    // QUEUED jobs that were accepted and haven't finished yet
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private volatile boolean running;
+    private ExecutorService pool;
+
+    public PaymentJobService(PaymentJobRepository jobRepo,
+                             TransactionService transactions,
+                             SettlementEngine engine,
+                             Shards shards,
+                             @Value("${transactions.payment-jobs.workers:2}") int workers,
+                             @Value("${transactions.payment-jobs.capacity:1000}") int capacity,
+                             @Value("${transactions.payment-jobs.max-attempts:5}") int maxAttempts,
+                             @Value("${transactions.payment-jobs.retry-backoff:100ms}") Duration retryBackoff) {
+        this.jobRepo = jobRepo;
+        this.transactions = transactions;
+        this.engine = engine;
+        this.shards = shards;
+        this.workers = workers;
+        this.capacity = capacity;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = retryBackoff.toMillis();
+    }
+
+    /**
+     * Persists the payment as a QUEUED job and hands it to the workers.
+     * Returns empty when {@code capacity} jobs are already waiting.
+     */
+    public Optional<PaymentJob> submit(long amountCents, String account) {
+        if (!running) {
+            throw new IllegalStateException("Payment jobs are not being accepted");
+        }
+        if (outstanding.incrementAndGet() > capacity) {
+            outstanding.decrementAndGet();
+            return Optional.empty();
+        }
+
+        PaymentJob job = new PaymentJob();
+        job.setAccount(account);
+        job.setAmountCents(amountCents);
+        job.setStatus(PaymentJob.JobStatus.QUEUED);
+        job.setSubmittedAt(ZonedDateTime.now(ZoneOffset.UTC));
+        try {
+            PaymentJob queued = job;
+            job = shards.on(shards.shardOf(account), () -> jobRepo.save(queued));
+        } catch (RuntimeException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+        dispatch(job.getId());
+        return Optional.of(job);
+    }
+
+    public Optional<PaymentJob> find(Long id) {
+        if (!shards.holds(id)) {
+            return Optional.empty();
+        }
+        return shards.on(shards.shardOfId(id), () -> jobRepo.findById(id));
+    }
+
+    public int outstanding() {
+        return outstanding.get();
+    }
+
+    // Re-queues every job a previous run accepted but didn't get to finish
+    public int recover() {
+        List<Long> queued = shards.onEach(shard -> jobRepo.findQueuedIds()).stream().flatMap(List::stream).toList();
+        outstanding.addAndGet(queued.size());
+        queued.forEach(this::dispatch);
+        if (!queued.isEmpty()) {
+            log.info("Recovered {} queued payment jobs", queued.size());
+        }
+        return queued.size();
+    }
+
+    private void dispatch(Long jobId) {
+        pool.execute(() -> {
+            // Left QUEUED on shutdown; the next start picks it up
+            if (running) {
+                process(jobId);
+            }
+        });
+    }
+
+    private void process(Long jobId) {
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    settle(jobId);
+                    return;
+                } catch (RuntimeException e) {
+                    if (attempt >= maxAttempts || !isTransient(e)) {
+                        log.warn("Payment job {} failed after {} attempt(s)", jobId, attempt, e);
+                        fail(jobId, e);
+                        return;
+                    }
+                    log.info("Payment job {} hit {} on attempt {}, retrying", jobId, e.getClass().getSimpleName(), attempt);
+                    // Left QUEUED when stopping; the next start picks it up
+                    if (!backOff(attempt)) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            outstanding.decrementAndGet();
+        }
+    }
+
+    private void settle(Long jobId) {
+        engine.execute(shards.shardOfId(jobId), () -> {
+            PaymentJob job = jobRepo.findById(jobId).orElse(null);
+            if (job == null || job.getStatus() != PaymentJob.JobStatus.QUEUED) {
+                return null;
+            }
+            Settlement settlement = transactions.settle(job.getAccount(), job.getAmountCents());
+            job.setStatus(PaymentJob.JobStatus.COMPLETED);
+            job.setSettledTransactions(settlement.settledTransactions());
+            job.setLeftoverCents(settlement.leftoverCents());
+            job.setFinishedAt(ZonedDateTime.now(ZoneOffset.UTC));
+            return jobRepo.save(job);
+        });
+    }
+
+    // Errors that say nothing about the payment itself, so the same command may well succeed later
+    static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException
+                    || cause instanceof RecoverableDataAccessException
+                    || cause instanceof CannotCreateTransactionException
+                    || cause instanceof CannotGetJdbcConnectionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean backOff(int attempt) {
+        long delay = backoffMillis << Math.min(attempt - 1, 10);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return running;
+    }
+
+    // The settlement was rolled back, so the job itself is the only thing left to record
+    private void fail(Long jobId, RuntimeException cause) {
+        try {
+            shards.on(shards.shardOfId(jobId), () -> jobRepo.findById(jobId).map(job -> {
+                job.setStatus(PaymentJob.JobStatus.FAILED);
+                job.setError(cause.getMessage());
+                job.setFinishedAt(ZonedDateTime.now(ZoneOffset.UTC));
+                return jobRepo.save(job);
+            }));
+        } catch (RuntimeException e) {
+            log.error("Could not mark payment job {} as failed", jobId, e);
+        }
+    }
+
+    @Override
+    public void start() {
+        pool = Executors.newFixedThreadPool(workers, Thread.ofPlatform().name("payment-job-", 0).factory());
+        running = true;
+        recover();
+    }
+
+    @Override
+    public void stop() {
+        // Jobs already handed to the engine finish; the rest stay QUEUED in the table
+        running = false;
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Payment job workers did not finish within 30s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Between the settlement engine and the web server: the engine is up before jobs run,
+    // and requests have stopped before jobs stop being accepted
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 3072;
+    }
+}
@@ -0,0 +1,95 @@
+package com.transactions.service;
+
+import com.transactions.repository.PaymentRepository;
+import com.transactions.shard.Shards;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Running total of the credit held by PENDING payments, per account, so creating a
+ * transaction only touches the payments table when its account has something to consume.
+ * Changes made inside a transaction are visible to that transaction right away
+ * and published to everybody else once it commits.
+ */
+@Component
+public class PendingCreditPool {
+
+    private final PaymentRepository paymentRepo;
+    private final Shards shards;
+    // Keyed by account, null being the payments that don't belong to one; accounts whose
+    // credit is used up are dropped, so it holds no more than the accounts with credit pending
+    private final Map<String, Long> committed = new HashMap<>();
+
+    public PendingCreditPool(PaymentRepository paymentRepo, Shards shards) {
+        this.paymentRepo = paymentRepo;
+        this.shards = shards;
+    }
+
+    @PostConstruct
+    public void reload() {
+        List<List<PaymentRepository.AccountCredit>> credit = shards.onEach(shard -> paymentRepo.sumPendingCreditByAccount());
+        synchronized (this) {
+            committed.clear();
+            credit.forEach(accounts -> accounts.forEach(a -> add(a.getAccount(), a.getCents())));
+        }
+    }
+
+    // In cents
+    public long available(String account) {
+        long local = 0;
+        if (TransactionSynchronizationManager.getResource(this) instanceof LocalDelta delta) {
+            local = delta.values.getOrDefault(account, 0L);
+        }
+        synchronized (this) {
+            return committed.getOrDefault(account, 0L) + local;
+        }
+    }
+
+    public void adjust(String account, long delta) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            synchronized (this) {
+                add(account, delta);
+            }
+            return;
+        }
+        LocalDelta local = (LocalDelta) TransactionSynchronizationManager.getResource(this);
+        if (local == null) {
+            LocalDelta created = new LocalDelta();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(created.values);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PendingCreditPool.this);
+                }
+            });
+            local = created;
+        }
+        local.values.merge(account, delta, Long::sum);
+    }
+
+    private synchronized void apply(Map<String, Long> deltas) {
+        deltas.forEach(this::add);
+    }
+
+    // Callers hold the lock
+    private void add(String account, long delta) {
+        if (delta != 0) {
+            committed.merge(account, delta, (total, change) -> total + change == 0 ? null : total + change);
+        }
+    }
+
+    private static final class LocalDelta {
+        private final Map<String, Long> values = new HashMap<>();
+    }
+}
@@ -0,0 +1,33 @@
+package com.transactions.service;
+
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@code java -jar app.jar --reconcile} runs one reconciliation, writes its report and exits:
+ * with 0 when every account matched and 1 otherwise, so a scheduler can alert on it. Add
+ * {@code --spring.main.web-application-type=none} to not start the web server for it.
+ */
+@Component
+public class ReconcileCommand implements ApplicationRunner {
+
+    private final Reconciler reconciler;
+    private final ConfigurableApplicationContext context;
+
+    public ReconcileCommand(Reconciler reconciler, ConfigurableApplicationContext context) {
+        this.reconciler = reconciler;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!args.containsOption("reconcile")) {
+            return;
+        }
+        ReconciliationReport report = reconciler.run();
+        System.exit(SpringApplication.exit(context, () -> report.mismatches().isEmpty() ? 0 : 1));
+    }
+}
@@ -0,0 +1,317 @@
+package com.transactions.service;
+
+import com.transactions.metrics.TransactionMetrics;
+import com.transactions.model.Money;
+import com.transactions.model.Transaction;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionArchiveRepository;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.shard.Shards;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * End-of-day reconciliation. Recounts every transaction, live and archived, into per-day and
+ * per-status totals, and checks that each account's PAID transactions add up to what its
+ * payments settled. The tables are read in id ranges of {@code transactions.reconcile.chunk-size}
+ * ids, each streamed in a read-only transaction of its own, and the ranges are counted in
+ * parallel on a fork-join pool of {@code transactions.reconcile.parallelism} threads. Memory
+ * grows with the number of days and accounts, not with the number of rows.
+ */
+@Component
+public class Reconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(Reconciler.class);
+
+    // Accounts double-checked per settlement command, so writers on the shard wait for a few at a time
+    private static final int CONFIRM_BATCH = 100;
+
+    private static final DateTimeFormatter FILE_STAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private enum Table { TRANSACTIONS, ARCHIVE, PAYMENTS }
+
+    // from <= id < to of one table on one shard
+    private record Chunk(int shard, Table table, long from, long to) {}
+
+    private record DayStatus(LocalDate day, Transaction.TransactionStatus status) {}
+
+    // What one or more chunks counted; merged up the fork-join tree
+    private static final class Totals {
+        private final Map<DayStatus, long[]> byDay = new HashMap<>();
+        // Per account: cents of PAID transactions, cents settled by payments, payments without a settled amount
+        private final Map<String, long[]> byAccount = new HashMap<>();
+        private long transactions;
+        private long payments;
+
+        private void transaction(TransactionRepository.ReconcileRow row) {
+            long cents = row.valueCents() == null ? 0 : row.valueCents();
+            long[] day = byDay.computeIfAbsent(new DayStatus(RollupService.dayOf(row.date()), row.status()), k -> new long[2]);
+            day[0]++;
+            day[1] += cents;
+            if (row.status() == Transaction.TransactionStatus.PAID) {
+                byAccount.computeIfAbsent(row.account(), k -> new long[3])[0] += cents;
+            }
+            transactions++;
+        }
+
+        private void payment(PaymentRepository.SettledRow row) {
+            long[] account = byAccount.computeIfAbsent(row.account(), k -> new long[3]);
+            if (row.settledCents() == null) {
+                account[2]++;
+            } else {
+                account[1] += row.settledCents();
+            }
+            payments++;
+        }
+
+        private Totals merge(Totals other) {
+            other.byDay.forEach((key, v) -> add(byDay.computeIfAbsent(key, k -> new long[2]), v));
+            other.byAccount.forEach((key, v) -> add(byAccount.computeIfAbsent(key, k -> new long[3]), v));
+            transactions += other.transactions;
+            payments += other.payments;
+            return this;
+        }
+
+        private static void add(long[] into, long[] values) {
+            for (int i = 0; i < into.length; i++) {
+                into[i] += values[i];
+            }
+        }
+    }
+
+    // Splits the chunks in halves until each task has one to read
+    private final class Count extends RecursiveTask<Totals> {
+        private final List<Chunk> chunks;
+
+        private Count(List<Chunk> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (chunks.size() == 1) {
+                return read(chunks.getFirst());
+            }
+            int mid = chunks.size() / 2;
+            Count right = new Count(chunks.subList(mid, chunks.size()));
+            right.fork();
+            return new Count(chunks.subList(0, mid)).compute().merge(right.join());
+        }
+    }
+
+    private final TransactionRepository repo;
+    private final TransactionArchiveRepository archiveRepo;
+    private final PaymentRepository paymentRepo;
+    private final TransactionArchiver archiver;
+    private final SettlementEngine engine;
+    private final Shards shards;
+    private final TransactionMetrics metrics;
+    private final TransactionTemplate readTx;
+    private final ForkJoinPool pool;
+    private final long chunkSize;
+    private final Path dir;
+
+    public Reconciler(TransactionRepository repo,
+                      TransactionArchiveRepository archiveRepo,
+                      PaymentRepository paymentRepo,
+                      TransactionArchiver archiver,
+                      SettlementEngine engine,
+                      Shards shards,
+                      TransactionMetrics metrics,
+                      PlatformTransactionManager txManager,
+                      @Value("${transactions.reconcile.chunk-size:100000}") long chunkSize,
+                      @Value("${transactions.reconcile.parallelism:4}") int parallelism,
+                      @Value("${transactions.reconcile.dir:./data/reconciliation}") Path dir) {
+        this.repo = repo;
+        this.archiveRepo = archiveRepo;
+        this.paymentRepo = paymentRepo;
+        this.archiver = archiver;
+        this.engine = engine;
+        this.shards = shards;
+        this.metrics = metrics;
+        this.readTx = new TransactionTemplate(txManager);
+        this.readTx.setReadOnly(true);
+        this.pool = new ForkJoinPool(parallelism);
+        this.chunkSize = chunkSize;
+        this.dir = dir;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Runs a reconciliation and writes its report to {@code transactions.reconcile.dir}. Archiving
+     * waits until it is done, so every row is counted once; runs don't overlap.
+     */
+    public synchronized ReconciliationReport run() {
+        return metrics.time("reconcile", () -> archiver.holdingOff(() -> {
+            Instant started = Instant.now();
+            List<Chunk> chunks = chunks();
+            Totals totals = chunks.isEmpty() ? new Totals() : pool.invoke(new Count(chunks));
+
+            Map<Integer, List<String>> suspects = new TreeMap<>();
+            long unchecked = 0;
+            for (Map.Entry<String, long[]> account : totals.byAccount.entrySet()) {
+                long[] v = account.getValue();
+                if (v[2] > 0) {
+                    unchecked++;
+                } else if (v[0] != v[1]) {
+                    suspects.computeIfAbsent(shards.shardOf(account.getKey()), s -> new ArrayList<>()).add(account.getKey());
+                }
+            }
+            List<ReconciliationReport.AccountMismatch> mismatches = new ArrayList<>();
+            suspects.forEach((shard, accounts) -> {
+                for (int from = 0; from < accounts.size(); from += CONFIRM_BATCH) {
+                    mismatches.addAll(confirm(shard, accounts.subList(from, Math.min(accounts.size(), from + CONFIRM_BATCH))));
+                }
+            });
+            mismatches.sort(Comparator.comparing(ReconciliationReport.AccountMismatch::account, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+            ReconciliationReport report = new ReconciliationReport(started.truncatedTo(ChronoUnit.SECONDS),
+                    ChronoUnit.MILLIS.between(started, Instant.now()), chunks.size(), totals.transactions, totals.payments,
+                    byStatus(totals), byDay(totals), mismatches, unchecked,
+                    dir.resolve("reconciliation-" + FILE_STAMP.format(started) + ".txt").toString());
+            write(report);
+            metrics.scanned("reconcile", totals.transactions + totals.payments);
+            log.info("Reconciled {} transactions and {} payments in {} ms, {} mismatched accounts, report in {}",
+                    report.transactions(), report.payments(), report.tookMillis(), mismatches.size(), report.file());
+            return report;
+        }));
+    }
+
+    // Every table of every shard cut into id ranges
+    private List<Chunk> chunks() {
+        List<Chunk> chunks = new ArrayList<>();
+        List<List<TransactionRepository.IdRange>> ranges = shards.onEach(shard ->
+                List.of(repo.findIdRange(), archiveRepo.findIdRange(), paymentRepo.findIdRange()));
+        for (int shard = 0; shard < ranges.size(); shard++) {
+            for (Table table : Table.values()) {
+                TransactionRepository.IdRange range = ranges.get(shard).get(table.ordinal());
+                if (range.getLowest() == null) {
+                    continue;
+                }
+                for (long from = range.getLowest(); from <= range.getHighest(); from += chunkSize) {
+                    chunks.add(new Chunk(shard, table, from, Math.min(from + chunkSize, range.getHighest() + 1)));
+                }
+            }
+        }
+        return chunks;
+    }
+
+    private Totals read(Chunk chunk) {
+        return shards.on(chunk.shard(), () -> readTx.execute(status -> {
+            Totals totals = new Totals();
+            switch (chunk.table()) {
+                case TRANSACTIONS -> {
+                    try (Stream<TransactionRepository.ReconcileRow> rows = repo.streamIdRange(chunk.from(), chunk.to())) {
+                        rows.forEach(totals::transaction);
+                    }
+                }
+                case ARCHIVE -> {
+                    try (Stream<TransactionRepository.ReconcileRow> rows = archiveRepo.streamIdRange(chunk.from(), chunk.to())) {
+                        rows.forEach(totals::transaction);
+                    }
+                }
+                case PAYMENTS -> {
+                    try (Stream<PaymentRepository.SettledRow> rows = paymentRepo.streamIdRange(chunk.from(), chunk.to())) {
+                        rows.forEach(totals::payment);
+                    }
+                }
+            }
+            return totals;
+        }));
+    }
+
+    // The chunks were read at different moments; counted again as one command on the accounts'
+    // shard, so no payment lands in between, a difference that was only a payment in flight goes away
+    private List<ReconciliationReport.AccountMismatch> confirm(int shard, List<String> accounts) {
+        return engine.execute(shard, () -> {
+            List<ReconciliationReport.AccountMismatch> confirmed = new ArrayList<>();
+            for (String account : accounts) {
+                long paid = repo.sumPaid(account) + archiveRepo.sumPaid(account);
+                PaymentRepository.SettledTotal settled = paymentRepo.sumSettled(account);
+                if (settled.getUnrecorded() == 0 && paid != settled.getCents()) {
+                    confirmed.add(new ReconciliationReport.AccountMismatch(account,
+                            Money.fromCents(paid), Money.fromCents(settled.getCents())));
+                }
+            }
+            return confirmed;
+        });
+    }
+
+    private static List<RollupService.StatusTotal> byStatus(Totals totals) {
+        Map<Transaction.TransactionStatus, long[]> byStatus = new HashMap<>();
+        totals.byDay.forEach((key, v) -> Totals.add(byStatus.computeIfAbsent(key.status(), k -> new long[2]), v));
+        return byStatus.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(Comparator.nullsFirst(Comparator.naturalOrder())))
+                .map(e -> new RollupService.StatusTotal(e.getKey(), e.getValue()[0], Money.fromCents(e.getValue()[1])))
+                .toList();
+    }
+
+    private static List<RollupService.DayTotal> byDay(Totals totals) {
+        return totals.byDay.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(Comparator.comparing(DayStatus::day)
+                        .thenComparing(DayStatus::status, Comparator.nullsFirst(Comparator.naturalOrder()))))
+                .map(e -> new RollupService.DayTotal(e.getKey().day(), e.getKey().status(),
+                        e.getValue()[0], Money.fromCents(e.getValue()[1])))
+                .toList();
+    }
+
+    // Fixed columns, one line per row, so two days' reports diff line by line
+    private void write(ReconciliationReport report) {
+        try {
+            Files.createDirectories(dir);
+            try (BufferedWriter out = Files.newBufferedWriter(Path.of(report.file()))) {
+                out.write("# transactions reconciliation\n");
+                out.write("# started=" + report.startedAt() + "\n");
+                out.write("# took-ms=" + report.tookMillis() + "\n");
+                out.write("# chunks=" + report.chunks() + "\n");
+                out.write("# transactions=" + report.transactions() + "\n");
+                out.write("# payments=" + report.payments() + "\n");
+                out.write("# unchecked-accounts=" + report.uncheckedAccounts() + "\n");
+                out.write(String.format(Locale.ROOT, "%n%-10s %12s %18s%n", "status", "count", "total"));
+                for (RollupService.StatusTotal s : report.byStatus()) {
+                    out.write(String.format(Locale.ROOT, "%-10s %12d %18.2f%n", s.status(), s.count(), s.total()));
+                }
+                out.write(String.format(Locale.ROOT, "%n%-10s %-10s %12s %18s%n", "day", "status", "count", "total"));
+                for (RollupService.DayTotal d : report.byDay()) {
+                    out.write(String.format(Locale.ROOT, "%-10s %-10s %12d %18.2f%n", d.day(), d.status(), d.count(), d.total()));
+                }
+                out.write(String.format(Locale.ROOT, "%n%-24s %18s %18s%n", "mismatched account", "paid", "settled"));
+                for (ReconciliationReport.AccountMismatch m : report.mismatches()) {
+                    out.write(String.format(Locale.ROOT, "%-24s %18.2f %18.2f%n", m.account(), m.paidTransactions(), m.settledByPayments()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.transactions.service;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Outcome of a reconciliation run: totals recounted from every transaction, live and archived,
+ * and the accounts whose PAID transactions don't add up to what their payments settled.
+ * {@code uncheckedAccounts} have payments from before settled amounts were recorded, so they
+ * can't be checked. {@code file} is where the full report was written.
+ */
+public record ReconciliationReport(Instant startedAt,
+                                   long tookMillis,
+                                   int chunks,
+                                   long transactions,
+                                   long payments,
+                                   List<RollupService.StatusTotal> byStatus,
+                                   List<RollupService.DayTotal> byDay,
+                                   List<AccountMismatch> mismatches,
+                                   long uncheckedAccounts,
+                                   String file) {
+
+    public record AccountMismatch(String account, double paidTransactions, double settledByPayments) {}
+}
@@ -0,0 +1,206 @@
+package com.transactions.service;
+
+import com.transactions.model.Money;
+import com.transactions.model.Transaction;
+import com.transactions.model.TransactionRollup;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.repository.TransactionRollupRepository;
+import com.transactions.shard.Shards;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per status, per UTC day counts and totals. Every write adjusts the affected buckets in
+ * the same database transaction, so reads never aggregate the transactions table.
+ * Each shard keeps the buckets of its own rows; reads add them up.
+ */
+@Service
+public class RollupService {
+
+    // Bucket of transactions without a date; counted in the status totals but not listed as a day
+    public static final LocalDate UNDATED = LocalDate.of(1, 1, 1);
+    private static final LocalDate LAST_DAY = LocalDate.of(9999, 12, 31);
+
+    public record StatusTotal(Transaction.TransactionStatus status, long count, double total) {}
+
+    public record DayTotal(LocalDate day, Transaction.TransactionStatus status, long count, double total) {}
+
+    public record Summary(List<StatusTotal> byStatus, List<DayTotal> byDay) {}
+
+    public record Mismatch(LocalDate day, Transaction.TransactionStatus status,
+                           long expectedCount, long actualCount,
+                           double expectedTotal, double actualTotal) {}
+
+    private final TransactionRollupRepository rollupRepo;
+    private final Shards shards;
+    private final SettlementEngine engine;
+    private final TransactionTemplate readTx;
+
+    public RollupService(TransactionRollupRepository rollupRepo, Shards shards, SettlementEngine engine,
+                         PlatformTransactionManager txManager) {
+        this.rollupRepo = rollupRepo;
+        this.shards = shards;
+        this.engine = engine;
+        this.readTx = new TransactionTemplate(txManager);
+        this.readTx.setReadOnly(true);
+    }
+
+    // sign is +1 when the row starts counting (created, new state of an update) and -1 when it stops
+    public void record(Transaction t, int sign) {
+        if (t.getStatus() == null) {
+            return;
+        }
+        long cents = t.getValueCents() == null ? 0 : t.getValueCents();
+        add(dayOf(t.getDate()), t.getStatus(), sign, sign * cents);
+    }
+
+    public void recordSettled(List<TransactionRepository.DaySettlement> days) {
+        for (TransactionRepository.DaySettlement day : days) {
+            if (day.getCovered() == 0) {
+                continue;
+            }
+            add(day.getDay(), Transaction.TransactionStatus.PENDING, -day.getCovered(), -day.getCoveredCents());
+            add(day.getDay(), Transaction.TransactionStatus.PAID, day.getCovered(), day.getCoveredCents());
+        }
+    }
+
+    // Deltas are summed per bucket and written once, just before the transaction commits,
+    // so a batch of a thousand creates costs one MERGE per touched bucket
+    private void add(LocalDate day, Transaction.TransactionStatus status, long count, long totalCents) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            rollupRepo.add(day, status.name(), count, totalCents);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Map<Bucket, long[]> pending = (Map<Bucket, long[]>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            Map<Bucket, long[]> created = new LinkedHashMap<>();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    created.forEach((bucket, delta) -> {
+                        if (delta[0] != 0 || delta[1] != 0) {
+                            rollupRepo.add(bucket.day(), bucket.status().name(), delta[0], delta[1]);
+                        }
+                    });
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(RollupService.this);
+                }
+            });
+            pending = created;
+        }
+        long[] delta = pending.computeIfAbsent(new Bucket(day, status), b -> new long[2]);
+        delta[0] += count;
+        delta[1] += totalCents;
+    }
+
+    private record Bucket(LocalDate day, Transaction.TransactionStatus status) {}
+
+    public Summary summary(LocalDate from, LocalDate to) {
+        boolean bounded = from != null && to != null;
+        LocalDate first = bounded ? from : UNDATED;
+        LocalDate last = bounded ? to : LAST_DAY;
+
+        List<Summary> perShard = shards.onEach(shard -> readTx.execute(status -> {
+            List<StatusTotal> byStatus = rollupRepo.totalsByStatus(first, last).stream()
+                    .map(b -> new StatusTotal(Transaction.TransactionStatus.valueOf(b.getStatus()), b.getCount(), Money.fromCents(b.getTotalCents())))
+                    .toList();
+            List<DayTotal> byDay = rollupRepo.findBuckets(first, last).stream()
+                    .filter(b -> !UNDATED.equals(b.getDay()))
+                    .map(b -> new DayTotal(b.getDay(), Transaction.TransactionStatus.valueOf(b.getStatus()), b.getCount(), Money.fromCents(b.getTotalCents())))
+                    .toList();
+            return new Summary(byStatus, byDay);
+        }));
+        return perShard.size() == 1 ? perShard.getFirst() : combine(perShard);
+    }
+
+    // Adds up the shards' summaries, keeping the order each of them is in
+    private static Summary combine(List<Summary> perShard) {
+        Map<Transaction.TransactionStatus, StatusTotal> byStatus = new TreeMap<>(Comparator.comparing(Enum::name));
+        Map<Bucket, DayTotal> byDay = new TreeMap<>(Comparator.comparing(Bucket::day).thenComparing(b -> b.status().name()));
+        for (Summary shard : perShard) {
+            shard.byStatus().forEach(t -> byStatus.merge(t.status(), t, (x, y) ->
+                    new StatusTotal(x.status(), x.count() + y.count(), Money.fromCents(Money.toCents(x.total()) + Money.toCents(y.total())))));
+            shard.byDay().forEach(t -> byDay.merge(new Bucket(t.day(), t.status()), t, (x, y) ->
+                    new DayTotal(x.day(), x.status(), x.count() + y.count(), Money.fromCents(Money.toCents(x.total()) + Money.toCents(y.total())))));
+        }
+        return new Summary(List.copyOf(byStatus.values()), List.copyOf(byDay.values()));
+    }
+
+    // Recomputes every bucket from the base table; for recovery, not for the request path.
+    // Runs as a command on each shard's writer, so no write lands between the scan and its commit
+    public int rebuild() {
+        return shards.onEach(shard -> engine.execute(shard, () -> {
+            rollupRepo.flush();
+            rollupRepo.clear();
+            int buckets = rollupRepo.rebuildFromBaseTable();
+            // Earlier commands of the batch are in the scan already; only later ones still count
+            discardPending();
+            return buckets;
+        })).stream().mapToInt(Integer::intValue).sum();
+    }
+
+    private void discardPending() {
+        @SuppressWarnings("unchecked")
+        Map<Bucket, long[]> pending = (Map<Bucket, long[]>) TransactionSynchronizationManager.getResource(this);
+        if (pending != null) {
+            pending.clear();
+        }
+    }
+
+    // Compares the rollups with a full-scan aggregate and returns the buckets that disagree
+    public List<Mismatch> check() {
+        return shards.onEach(shard -> readTx.execute(status -> checkShard())).stream()
+                .flatMap(List::stream)
+                .toList();
+    }
+
+    private List<Mismatch> checkShard() {
+        Map<String, TransactionRollup> byKey = new HashMap<>();
+        for (TransactionRollup rollup : rollupRepo.findAll()) {
+            byKey.put(rollup.getDay() + "|" + rollup.getStatus(), rollup);
+        }
+
+        List<Mismatch> mismatches = new ArrayList<>();
+        for (TransactionRollupRepository.Bucket expected : rollupRepo.scanBaseTable()) {
+            TransactionRollup actual = byKey.remove(expected.getDay() + "|" + expected.getStatus());
+            long actualCount = actual == null ? 0 : actual.getCount();
+            long actualCents = actual == null ? 0 : actual.getTotalCents();
+            if (actualCount != expected.getCount() || actualCents != expected.getTotalCents()) {
+                mismatches.add(new Mismatch(expected.getDay(), Transaction.TransactionStatus.valueOf(expected.getStatus()),
+                        expected.getCount(), actualCount,
+                        Money.fromCents(expected.getTotalCents()), Money.fromCents(actualCents)));
+            }
+        }
+        // Buckets the base table no longer has must have drained to zero
+        for (TransactionRollup leftover : byKey.values()) {
+            if (leftover.getCount() != 0 || leftover.getTotalCents() != 0) {
+                mismatches.add(new Mismatch(leftover.getDay(), leftover.getStatus(),
+                        0, leftover.getCount(), 0, Money.fromCents(leftover.getTotalCents())));
+            }
+        }
+        return mismatches;
+    }
+
+    static LocalDate dayOf(ZonedDateTime date) {
+        return date == null ? UNDATED : date.withZoneSameInstant(ZoneOffset.UTC).toLocalDate();
+    }
+}
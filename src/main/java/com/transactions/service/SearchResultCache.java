@@ -0,0 +1,170 @@
+package com.transactions.service;
+
+import com.transactions.model.Transaction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of list results keyed by the normalized filter, page and sort.
+ * Writes evict only the entries whose filter could include the row before or after the
+ * change, and a generation counter stops a read that raced a write from caching what it saw.
+ */
+@Component
+public class SearchResultCache {
+
+    public record Key(String name, LocalDate from, LocalDate to, String status,
+                      int page, int size, Sort sort, boolean counted) {
+
+        public static Key of(String name, LocalDate from, LocalDate to, String status, Pageable pageable, boolean counted) {
+            boolean bounded = from != null && to != null;
+            return new Key(name == null ? null : name.toLowerCase(Locale.ROOT),
+                    bounded ? from : null,
+                    bounded ? to : null,
+                    status,
+                    pageable.isPaged() ? pageable.getPageNumber() : -1,
+                    pageable.isPaged() ? pageable.getPageSize() : -1,
+                    pageable.getSort(),
+                    counted);
+        }
+
+        // Conservative: true whenever a row in this state might be part of the result
+        boolean mayContain(RowState row) {
+            if (status != null && (row.status() == null || !status.equals(row.status().name()))) {
+                return false;
+            }
+            if (from != null) {
+                if (row.date() == null) {
+                    return false;
+                }
+                // A day of slack on each side, the range is compared against the stored timestamp
+                LocalDate day = row.date().withZoneSameInstant(ZoneOffset.UTC).toLocalDate();
+                if (day.isBefore(from.minusDays(1)) || day.isAfter(to.plusDays(1))) {
+                    return false;
+                }
+            }
+            if (name != null && name.indexOf('%') < 0 && name.indexOf('_') < 0) {
+                return row.name() != null && row.name().toLowerCase(Locale.ROOT).contains(name);
+            }
+            return true;
+        }
+    }
+
+    public record RowState(String name, ZonedDateTime date, Transaction.TransactionStatus status) {
+        public static RowState of(Transaction t) {
+            return new RowState(t.getName(), t.getDate(), t.getStatus());
+        }
+    }
+
+    public record Stats(long hits, long misses, long evictions, int size) {}
+
+    private record Entry(Slice<Transaction> value, long expiresAt) {}
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<Key, Entry> entries;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public SearchResultCache(@Value("${transactions.search-cache.enabled:true}") boolean enabled,
+                             @Value("${transactions.search-cache.max-entries:1000}") int maxEntries,
+                             @Value("${transactions.search-cache.ttl:5s}") Duration ttl) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > SearchResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Slice<Transaction>> T get(Key key, Supplier<T> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        long seenGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt() - System.nanoTime() > 0) {
+                hits++;
+                return (T) entry.value();
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+            misses++;
+            seenGeneration = generation;
+        }
+
+        T value = loader.get();
+
+        synchronized (this) {
+            if (generation == seenGeneration) {
+                entries.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+            }
+        }
+        return value;
+    }
+
+    // Evicts, once the current transaction commits, every entry that could list the row before or after a write.
+    // Runs after the name index has taken the write, so a search in between can't cache what the old index said
+    public void invalidate(RowState before, RowState after) {
+        AfterCommit.runLast(() -> evictIf(key -> (before != null && key.mayContain(before))
+                || (after != null && key.mayContain(after))));
+    }
+
+    // For bulk status changes where the individual rows aren't known
+    public void invalidateStatuses(Transaction.TransactionStatus... statuses) {
+        AfterCommit.runLast(() -> evictIf(key -> {
+            if (key.status() == null) {
+                return true;
+            }
+            for (Transaction.TransactionStatus status : statuses) {
+                if (status.name().equals(key.status())) {
+                    return true;
+                }
+            }
+            return false;
+        }));
+    }
+
+    public synchronized void clear() {
+        generation++;
+        evictions += entries.size();
+        entries.clear();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size());
+    }
+
+    private synchronized void evictIf(Predicate<Key> stale) {
+        generation++;
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (stale.test(keys.next())) {
+                keys.remove();
+                evictions++;
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.transactions.service;
+
+/**
+ * Outcome of applying one payment: how many pending transactions it paid off
+ * and how many cents of it were kept as credit.
+ */
+public record Settlement(long settledTransactions, long leftoverCents) {}
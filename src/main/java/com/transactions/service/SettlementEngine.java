@@ -0,0 +1,289 @@
+package com.transactions.service;
+
+import com.transactions.metrics.SqlStatementCounter;
+import com.transactions.shard.Shards;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Single writer for everything that moves money: creates, updates, deletes and payments are
+ * queued in arrival order and applied by one thread, a batch of commands per database
+ * transaction. Nothing else writes transactions or payments concurrently, so the
+ * read-modify-write steps of settlement can't lose updates, and reads never wait on it.
+ * With several shards each shard has a writer of its own, and commands for different
+ * shards are applied in parallel.
+ * <p>
+ * A batch is whatever has queued up by the time the writer gets to it. With a linger time set
+ * the writer also waits up to that long after the first command for more to arrive, so
+ * concurrent writers share one commit (group commit) even when they don't queue up on their own.
+ */
+@Component
+public class SettlementEngine implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(SettlementEngine.class);
+
+    public record Stats(long commands, long batches, long retriedBatches) {}
+
+    private final class Command<T> {
+        private final Supplier<T> action;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        // Statements the command prepares are counted for whoever submitted it
+        private final SqlStatementCounter.Tally caller = statementCounter.current();
+        private T value;
+
+        private Command(Supplier<T> action) {
+            this.action = action;
+        }
+
+        void run() {
+            value = statementCounter.chargeTo(caller, action);
+        }
+
+        // Only called once the transaction the command ran in has committed
+        void complete() {
+            result.complete(value);
+        }
+    }
+
+    // The queue and writer thread of one shard
+    private final class Lane {
+        private final int shard;
+        private final BlockingQueue<Command<?>> queue;
+        private volatile Thread writer;
+
+        private Lane(int shard, int queueCapacity) {
+            this.shard = shard;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        // Polls instead of being interrupted: an interrupt in the middle of a write closes H2's file channel
+        private void drain() {
+            List<Command<?>> batch = new ArrayList<>(maxBatch);
+            while (true) {
+                Command<?> first;
+                try {
+                    first = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (first == null) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                if (lingerNanos > 0) {
+                    linger(batch);
+                }
+                apply(batch);
+                batch.clear();
+            }
+        }
+
+        // Tops the batch up until it is full or the linger time since its first command has passed
+        private void linger(List<Command<?>> batch) {
+            long deadline = System.nanoTime() + lingerNanos;
+            while (batch.size() < maxBatch) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return;
+                }
+                Command<?> next;
+                try {
+                    next = queue.poll(left, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (next == null) {
+                    return;
+                }
+                batch.add(next);
+                queue.drainTo(batch, maxBatch - batch.size());
+            }
+        }
+    }
+
+    private final TransactionTemplate writeTx;
+    private final SqlStatementCounter statementCounter;
+    private final Shards shards;
+    private final DistributionSummary batchSizes;
+    private final DistributionSummary batchStatements;
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final List<Lane> lanes;
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong retriedBatches = new AtomicLong();
+
+    private volatile boolean running;
+
+    public SettlementEngine(PlatformTransactionManager txManager,
+                            SqlStatementCounter statementCounter,
+                            Shards shards,
+                            MeterRegistry registry,
+                            @Value("${transactions.settlement.max-batch:256}") int maxBatch,
+                            @Value("${transactions.settlement.queue-capacity:10000}") int queueCapacity,
+                            @Value("${transactions.settlement.linger:0ms}") Duration linger) {
+        this.writeTx = new TransactionTemplate(txManager);
+        this.statementCounter = statementCounter;
+        this.shards = shards;
+        this.batchSizes = DistributionSummary.builder("transactions.settlement.batch.size")
+                .description("Commands applied per settlement transaction")
+                .register(registry);
+        // What the batch itself runs at commit: the JDBC-batched flush and the rollup merges
+        this.batchStatements = DistributionSummary.builder("transactions.settlement.batch.statements")
+                .description("SQL statements run at commit, shared by every command in the batch")
+                .register(registry);
+        this.maxBatch = maxBatch;
+        this.lingerNanos = linger.toNanos();
+        this.lanes = IntStream.range(0, shards.count()).mapToObj(shard -> new Lane(shard, queueCapacity)).toList();
+    }
+
+    /**
+     * Runs {@code action} on the writer of {@code shard} and waits until the batch it landed in
+     * has committed. Exceptions thrown by the action are rethrown to the caller as they are.
+     * Called from a command that is already running on that writer, it just joins that batch.
+     */
+    public <T> T execute(int shard, Supplier<T> action) {
+        Lane lane = lanes.get(shard);
+        if (Thread.currentThread() == lane.writer) {
+            return action.get();
+        }
+        if (lanes.stream().anyMatch(other -> Thread.currentThread() == other.writer)) {
+            throw new IllegalStateException("A settlement command can't wait on another shard");
+        }
+        try {
+            return submit(shard, action).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new CompletionException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for settlement", e);
+        }
+    }
+
+    // On the shard the calling thread is working on, shard 0 unless it picked one
+    public <T> T execute(Supplier<T> action) {
+        return execute(Shards.current(), action);
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> action) {
+        return submit(Shards.current(), action);
+    }
+
+    public <T> CompletableFuture<T> submit(int shard, Supplier<T> action) {
+        if (!running) {
+            throw new IllegalStateException("Settlement engine is not running");
+        }
+        Command<T> command = new Command<>(action);
+        try {
+            lanes.get(shard).queue.put(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing settlement command", e);
+        }
+        return command.result;
+    }
+
+    public Stats stats() {
+        return new Stats(commands.get(), batches.get(), retriedBatches.get());
+    }
+
+    private void apply(List<Command<?>> batch) {
+        commands.addAndGet(batch.size());
+        batches.incrementAndGet();
+        batchSizes.record(batch.size());
+        long before = statementCounter.current().statements();
+        try {
+            writeTx.executeWithoutResult(status -> batch.forEach(Command::run));
+            batchStatements.record(statementCounter.current().statements() - before);
+            batch.forEach(Command::complete);
+            return;
+        } catch (RuntimeException batchFailure) {
+            if (batch.size() == 1) {
+                batch.getFirst().result.completeExceptionally(batchFailure);
+                return;
+            }
+            log.debug("Settlement batch of {} failed, replaying commands one by one", batch.size(), batchFailure);
+        }
+
+        // Everything in the failed batch was rolled back: replay each command in its own transaction
+        retriedBatches.incrementAndGet();
+        for (Command<?> command : batch) {
+            try {
+                writeTx.executeWithoutResult(status -> command.run());
+                command.complete();
+            } catch (RuntimeException e) {
+                command.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (Lane lane : lanes) {
+            String name = lanes.size() == 1 ? "settlement-writer" : "settlement-writer-" + lane.shard;
+            // The writer stays on its shard for good, so every batch transaction routes there
+            lane.writer = new Thread(() -> shards.on(lane.shard, () -> {
+                lane.drain();
+                return null;
+            }), name);
+            lane.writer.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        // Stop taking new commands, let the writers finish what is queued
+        running = false;
+        for (Lane lane : lanes) {
+            try {
+                lane.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Anything that slipped in after the writer's last poll
+            List<Command<?>> stranded = new ArrayList<>();
+            lane.queue.drainTo(stranded);
+            stranded.forEach(command -> command.result.completeExceptionally(
+                    new IllegalStateException("Settlement engine is not running")));
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Starts before and stops after the web server, so no request finds the writer gone
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
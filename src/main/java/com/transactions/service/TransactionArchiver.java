@@ -0,0 +1,164 @@
+package com.transactions.service;
+
+import com.transactions.metrics.TransactionMetrics;
+import com.transactions.model.Transaction;
+import com.transactions.repository.TransactionArchiveRepository;
+import com.transactions.shard.Shards;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Moves PAID transactions dated more than {@code transactions.archive.min-age} ago out of the
+ * live table into {@code transactions_archive}. Paid rows never change again, so the live table
+ * only has to hold what settlement, creates and PENDING searches work on. Reads go to the
+ * archive too only when their filter could match something it holds.
+ */
+@Component
+public class TransactionArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionArchiver.class);
+
+    // UTC days of the oldest and newest archived row
+    private record Extent(LocalDate oldest, LocalDate newest) {}
+
+    private final TransactionArchiveRepository archiveRepo;
+    private final SettlementEngine engine;
+    private final Shards shards;
+    private final TransactionMetrics metrics;
+    private final boolean enabled;
+    private final Duration minAge;
+    private final int batchSize;
+
+    // Exports hold the read side so no row moves under their cursors; a run only starts when none is going
+    private final ReadWriteLock moving = new ReentrantReadWriteLock();
+    // Null while the archive is empty
+    private volatile Extent extent;
+
+    public TransactionArchiver(TransactionArchiveRepository archiveRepo,
+                               SettlementEngine engine,
+                               Shards shards,
+                               TransactionMetrics metrics,
+                               @Value("${transactions.archive.enabled:true}") boolean enabled,
+                               @Value("${transactions.archive.min-age:90d}") Duration minAge,
+                               @Value("${transactions.archive.batch-size:1000}") int batchSize) {
+        this.archiveRepo = archiveRepo;
+        this.engine = engine;
+        this.shards = shards;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.minAge = minAge;
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void refresh() {
+        List<TransactionArchiveRepository.Extent> perShard = shards.onEach(shard -> archiveRepo.findExtent());
+        Extent combined = null;
+        for (TransactionArchiveRepository.Extent e : perShard) {
+            if (e.getOldest() != null) {
+                combined = widen(combined, new Extent(dayOf(e.getOldest()), dayOf(e.getNewest())));
+            }
+        }
+        extent = combined;
+    }
+
+    @Scheduled(fixedDelayString = "${transactions.archive.interval:1h}", initialDelayString = "${transactions.archive.interval:1h}")
+    void scheduledRun() {
+        if (enabled) {
+            archiveDue();
+        }
+    }
+
+    // Everything that has been paid and is older than transactions.archive.min-age
+    public long archiveDue() {
+        return archivePaidBefore(ZonedDateTime.now(ZoneOffset.UTC).minus(minAge));
+    }
+
+    /**
+     * Archives every PAID transaction dated before {@code cutoff}, {@code batch-size} rows per
+     * settlement command so creates and payments keep getting through. Returns how many moved,
+     * or 0 without doing anything while an export is reading archivable rows.
+     */
+    public long archivePaidBefore(ZonedDateTime cutoff) {
+        if (!moving.writeLock().tryLock()) {
+            log.info("Archiving skipped, an export is reading the rows it would move");
+            return 0;
+        }
+        try {
+            return metrics.time("archive", () -> {
+                // Widened before anything moves, so a read that misses a row in the live table finds it here
+                extent = widen(extent, new Extent(LocalDate.MIN, dayOf(cutoff)));
+                long moved = shards.onEach(shard -> moveAll(shard, cutoff)).stream().mapToLong(Long::longValue).sum();
+                refresh();
+                metrics.updated("archive", moved);
+                return moved;
+            });
+        } finally {
+            moving.writeLock().unlock();
+        }
+    }
+
+    private long moveAll(int shard, ZonedDateTime cutoff) {
+        long total = 0;
+        int moved;
+        do {
+            moved = engine.execute(shard, () -> archiveRepo.moveFromLiveTable(cutoff, batchSize));
+            total += moved;
+        } while (moved == batchSize);
+        return total;
+    }
+
+    /**
+     * Whether rows matching the filter could be in the archive. Must be asked after the live
+     * table was read, so a row archived in between is still looked for.
+     */
+    public boolean mayHold(LocalDate from, LocalDate to, String status) {
+        if (status != null && !status.equals(Transaction.TransactionStatus.PAID.name())) {
+            return false;
+        }
+        Extent current = extent;
+        if (current == null) {
+            return false;
+        }
+        if (from == null || to == null) {
+            return true;
+        }
+        // A day of slack on each side, the range is compared against the stored timestamp
+        return !to.plusDays(1).isBefore(current.oldest()) && !from.minusDays(1).isAfter(current.newest());
+    }
+
+    // Runs a read that has to see each archivable row exactly once, holding off archiving until it is done
+    public <T> T holdingOff(Supplier<T> read) {
+        moving.readLock().lock();
+        try {
+            return read.get();
+        } finally {
+            moving.readLock().unlock();
+        }
+    }
+
+    private static Extent widen(Extent current, Extent by) {
+        if (current == null) {
+            return by;
+        }
+        return new Extent(by.oldest().isBefore(current.oldest()) ? by.oldest() : current.oldest(),
+                by.newest().isAfter(current.newest()) ? by.newest() : current.newest());
+    }
+
+    private static LocalDate dayOf(ZonedDateTime date) {
+        return date.withZoneSameInstant(ZoneOffset.UTC).toLocalDate();
+    }
+}
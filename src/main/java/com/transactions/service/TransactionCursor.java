@@ -0,0 +1,39 @@
+package com.transactions.service;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Encodes the (date, id) seek position of the last row handed out as an opaque url-safe token.
+// Cursor mode only hands out dated rows, so both keys are always there
+final class TransactionCursor {
+
+    private TransactionCursor() {}
+
+    static String encode(KeysetScrollPosition position) {
+        Map<String, ?> keys = position.getKeys();
+        String raw = keys.get("date") + "|" + keys.get("id");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ScrollPosition decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return ScrollPosition.keyset();
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            Map<String, Object> keys = new LinkedHashMap<>();
+            keys.put("date", ZonedDateTime.parse(raw.substring(0, separator)));
+            keys.put("id", Long.parseLong(raw.substring(separator + 1)));
+            return ScrollPosition.forward(keys);
+        } catch (RuntimeException e) {
+            throw new InvalidRequestException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.transactions.service;
+
+// No live transaction has the id, including ids outside every shard's range; answered with 404
+public class TransactionNotFoundException extends RuntimeException {
+
+    public TransactionNotFoundException() {
+        super("Transaction not found");
+    }
+}
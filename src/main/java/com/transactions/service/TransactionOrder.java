@@ -0,0 +1,79 @@
+package com.transactions.service;
+
+import com.transactions.model.Transaction;
+import org.springframework.data.domain.Sort;
+
+import java.time.chrono.ChronoZonedDateTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// The database's ORDER BY, in memory, for merging rows that come back sorted from several shards
+final class TransactionOrder {
+
+    private TransactionOrder() {}
+
+    // Nulls sort low as in H2; ties fall back to the id so every shard's rows interleave the same way
+    static Comparator<Transaction> of(Sort sort) {
+        Comparator<Transaction> order = (a, b) -> 0;
+        for (Sort.Order o : sort) {
+            Comparator<Transaction> property = byProperty(o.getProperty());
+            order = order.thenComparing(o.isAscending() ? property : property.reversed());
+        }
+        return order.thenComparing(Transaction::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+    }
+
+    private static Comparator<Transaction> byProperty(String property) {
+        return switch (property) {
+            case "id" -> Comparator.comparing(Transaction::getId, Comparator.nullsFirst(Comparator.naturalOrder()));
+            case "account" -> Comparator.comparing(Transaction::getAccount, Comparator.nullsFirst(Comparator.naturalOrder()));
+            case "name" -> Comparator.comparing(Transaction::getName, Comparator.nullsFirst(Comparator.naturalOrder()));
+            case "date" -> Comparator.comparing(Transaction::getDate, Comparator.nullsFirst(ChronoZonedDateTime.timeLineOrder()));
+            case "valueCents" -> Comparator.comparing(Transaction::getValueCents, Comparator.nullsFirst(Comparator.naturalOrder()));
+            case "status" -> Comparator.comparing(t -> t.getStatus() == null ? null : t.getStatus().name(),
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+            case "version" -> Comparator.comparing(Transaction::getVersion, Comparator.nullsFirst(Comparator.naturalOrder()));
+            default -> throw new InvalidRequestException("Can't sort by " + property);
+        };
+    }
+
+    // Two streams already sorted by order as one sorted stream; closing it closes both
+    static Stream<Transaction> merge(Stream<Transaction> a, Stream<Transaction> b, Comparator<Transaction> order) {
+        Iterator<Transaction> left = a.iterator();
+        Iterator<Transaction> right = b.iterator();
+        Iterator<Transaction> merged = new Iterator<>() {
+            private Transaction nextLeft;
+            private Transaction nextRight;
+
+            @Override
+            public boolean hasNext() {
+                return nextLeft != null || nextRight != null || left.hasNext() || right.hasNext();
+            }
+
+            @Override
+            public Transaction next() {
+                if (nextLeft == null && left.hasNext()) {
+                    nextLeft = left.next();
+                }
+                if (nextRight == null && right.hasNext()) {
+                    nextRight = right.next();
+                }
+                Transaction head;
+                if (nextRight == null || (nextLeft != null && order.compare(nextLeft, nextRight) <= 0)) {
+                    head = nextLeft;
+                    nextLeft = null;
+                } else {
+                    head = nextRight;
+                    nextRight = null;
+                }
+                return head;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED), false)
+                .onClose(a::close)
+                .onClose(b::close);
+    }
+}
@@ -1,33 +1,114 @@
 package com.transactions.service;
 
+import com.transactions.ledger.Ledger;
+import com.transactions.metrics.TransactionMetrics;
+import com.transactions.model.ArchivedTransaction;
+import com.transactions.model.Money;
 import com.transactions.model.Payment;
 import com.transactions.model.Transaction;
 import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionArchiveRepository;
 import com.transactions.repository.TransactionRepository;
+import com.transactions.search.NameSearchIndex;
+import com.transactions.shard.Shards;
+import com.transactions.spec.MonthPartitions;
 import com.transactions.spec.TransactionSpecification;
+import com.transactions.stream.ChangeFeed;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 public class TransactionService {
 
     private final TransactionRepository repo;
+    private final TransactionArchiveRepository archiveRepo;
     private final PaymentRepository paymentRepo;
+    private final PendingCreditPool creditPool;
+    private final NameSearchIndex nameIndex;
+    private final SearchResultCache searchCache;
+    private final RollupService rollups;
+    private final SettlementEngine engine;
+    private final Shards shards;
+    private final TransactionArchiver archiver;
+    private final Ledger ledger;
+    private final ChangeFeed changes;
+    private final TransactionMetrics metrics;
 
-    public TransactionService(TransactionRepository repo, PaymentRepository paymentRepo) {
+    @Value("${transactions.batch.chunk-size:1000}")
+    private int batchChunkSize = 1000;
+
+    @Value("${transactions.partitions.max-parallel:12}")
+    private int maxParallelPartitions = 12;
+
+    @Value("${transactions.bulk.chunk-size:1000}")
+    private int bulkChunkSize = 1000;
+
+    public TransactionService(TransactionRepository repo,
+                              TransactionArchiveRepository archiveRepo,
+                              PaymentRepository paymentRepo,
+                              PendingCreditPool creditPool,
+                              NameSearchIndex nameIndex,
+                              SearchResultCache searchCache,
+                              RollupService rollups,
+                              SettlementEngine engine,
+                              Shards shards,
+                              TransactionArchiver archiver,
+                              Ledger ledger,
+                              ChangeFeed changes,
+                              TransactionMetrics metrics) {
         this.repo = repo;
+        this.archiveRepo = archiveRepo;
         this.paymentRepo = paymentRepo;
+        this.creditPool = creditPool;
+        this.nameIndex = nameIndex;
+        this.searchCache = searchCache;
+        this.rollups = rollups;
+        this.engine = engine;
+        this.shards = shards;
+        this.archiver = archiver;
+        this.ledger = ledger;
+        this.changes = changes;
+        this.metrics = metrics;
     }
 
     public List<Transaction> getAll() {
-        return repo.findAll();
+        return parts(null, null, null,
+                month -> repo.findAll(),
+                month -> archiveRepo.findAll().stream().map(ArchivedTransaction::toTransaction).toList())
+                .stream().flatMap(List::stream).toList();
     }
 
     public Page<Transaction> searchWithFilters(String name,
@@ -35,119 +116,669 @@ public class TransactionService {
                                               LocalDate to,
                                               String status,
                                               Pageable pageable) {
-        Specification<Transaction> spec = Specification.unrestricted();
+        return metrics.time("search", () -> searchCache.get(SearchResultCache.Key.of(name, from, to, status, pageable, true), () -> {
+            Specification<Transaction> spec = filters(name, from, to, status);
+            Page<Transaction> page = null;
+            if (liveTableOnly(from, to, status)) {
+                page = repo.findRows(spec, pageable);
+            }
+            if (page == null || archiver.mayHold(from, to, status)) {
+                Specification<ArchivedTransaction> archived = filters(name, from, to, status);
+                page = mergedPage(parts(from, to, status,
+                        month -> repo.findRows(inMonth(spec, month), throughPage(pageable)),
+                        month -> repo.findArchivedRows(inMonth(archived, month), throughPage(pageable))),
+                        pageable);
+            }
+            metrics.scanned("search", page.getNumberOfElements());
+            return page;
+        }));
+    }
+
+    // Same as searchWithFilters but without the count(*) query behind the total
+    public Slice<Transaction> sliceWithFilters(String name,
+                                               LocalDate from,
+                                               LocalDate to,
+                                               String status,
+                                               Pageable pageable) {
+        return metrics.time("slice", () -> searchCache.get(SearchResultCache.Key.of(name, from, to, status, pageable, false), () -> {
+            Specification<Transaction> spec = filters(name, from, to, status);
+            Slice<Transaction> slice = null;
+            if (liveTableOnly(from, to, status)) {
+                slice = repo.sliceRows(spec, pageable);
+            }
+            if (slice == null || archiver.mayHold(from, to, status)) {
+                Specification<ArchivedTransaction> archived = filters(name, from, to, status);
+                slice = mergedSlice(parts(from, to, status,
+                        month -> repo.sliceRows(inMonth(spec, month), throughPage(pageable)),
+                        month -> repo.sliceArchivedRows(inMonth(archived, month), throughPage(pageable))),
+                        pageable);
+            }
+            metrics.scanned("slice", slice.getNumberOfElements());
+            return slice;
+        }));
+    }
+
+    // One query answers it: a single shard and partition, and nothing in the archive the filter could match
+    private boolean liveTableOnly(LocalDate from, LocalDate to, String status) {
+        return shards.count() == 1 && monthsToScan(from, to).size() == 1 && !archiver.mayHold(from, to, status);
+    }
+
+    // Every shard's live rows, then its archived ones if the filter may need them, one part per
+    // shard and month. The archive is asked only after the live table was read, so a row archived
+    // in between is still found
+    private <P> List<P> parts(LocalDate from, LocalDate to, String status, Function<Integer, P> live, Function<Integer, P> archived) {
+        List<Integer> months = monthsToScan(from, to);
+        List<P> parts = new ArrayList<>(shards.onEach(months, (shard, month) -> live.apply(month)));
+        if (archiver.mayHold(from, to, status)) {
+            parts.addAll(shards.onEach(months, (shard, month) -> archived.apply(month)));
+        }
+        return parts;
+    }
+
+    /**
+     * The monthly partitions a date-bounded read is split into, each read on a virtual thread
+     * of its own and the results merged in sort order. A single null means one query, which the
+     * month filter still keeps to the partitions the range overlaps: the range is open, fits one
+     * month, or spans more months than are worth a query each.
+     */
+    private List<Integer> monthsToScan(LocalDate from, LocalDate to) {
+        List<Integer> months = MonthPartitions.covering(from, to);
+        return months.size() > 1 && months.size() <= maxParallelPartitions ? months : Collections.singletonList(null);
+    }
+
+    private static <T> Specification<T> inMonth(Specification<T> spec, Integer month) {
+        return month == null ? spec : spec.and(TransactionSpecification.inMonths(month, month));
+    }
+
+    // Each part is asked for everything up to the end of the requested page, and the
+    // merged rows are cut down to that page; the deeper the page, the more each part reads
+    private static Pageable throughPage(Pageable pageable) {
+        if (pageable.isUnpaged()) {
+            return pageable;
+        }
+        return PageRequest.of(0, Math.toIntExact(pageable.getOffset() + pageable.getPageSize()), pageable.getSort());
+    }
+
+    private Page<Transaction> mergedPage(List<Page<Transaction>> pages, Pageable pageable) {
+        long total = pages.stream().mapToLong(Page::getTotalElements).sum();
+        List<Transaction> content = pageOf(pages, pageable);
+        return pageable.isUnpaged() ? new PageImpl<>(content) : new PageImpl<>(content, pageable, total);
+    }
+
+    private Slice<Transaction> mergedSlice(List<Slice<Transaction>> slices, Pageable pageable) {
+        long rows = slices.stream().mapToLong(Slice::getNumberOfElements).sum();
+        boolean more = pageable.isPaged()
+                && (rows > pageable.getOffset() + pageable.getPageSize() || slices.stream().anyMatch(Slice::hasNext));
+        return new SliceImpl<>(pageOf(slices, pageable), pageable, more);
+    }
+
+    private static List<Transaction> pageOf(List<? extends Slice<Transaction>> parts, Pageable pageable) {
+        Stream<Transaction> rows = inOrder(parts.stream().flatMap(part -> part.getContent().stream()), pageable.getSort());
+        return pageable.isUnpaged()
+                ? rows.toList()
+                : rows.skip(pageable.getOffset()).limit(pageable.getPageSize()).toList();
+    }
+
+    // A row archived while it was being read comes back from both tables; it is listed once
+    private static Stream<Transaction> inOrder(Stream<Transaction> rows, Sort sort) {
+        Set<Long> seen = new HashSet<>();
+        return rows.sorted(TransactionOrder.of(sort)).filter(t -> seen.add(t.getId()));
+    }
+
+    private static <T> Specification<T> dated(Specification<T> spec) {
+        return spec.and(TransactionSpecification.dated());
+    }
+
+    public SearchResultCache.Stats searchCacheStats() {
+        return searchCache.stats();
+    }
+
+    // Keyset pagination: seeks past the (date, id) of the previous window instead of using OFFSET.
+    // Undated rows are left out: a null date has no place in the seek, so they would repeat or vanish
+    public CursorPage<Transaction> scrollWithFilters(String name,
+                                                     LocalDate from,
+                                                     LocalDate to,
+                                                     String status,
+                                                     Sort.Direction direction,
+                                                     String cursor,
+                                                     int size) {
+        return metrics.time("scroll", () -> {
+            Sort sort = Sort.by(direction, "date").and(Sort.by(direction, "id"));
+            Specification<Transaction> spec = dated(filters(name, from, to, status));
+            ScrollPosition position = TransactionCursor.decode(cursor);
+            if (liveTableOnly(from, to, status)) {
+                Window<Transaction> window = repo.findBy(spec, q -> q.sortBy(sort).limit(size).scroll(position));
+                if (!archiver.mayHold(from, to, status)) {
+                    metrics.scanned("scroll", window.size());
+                    String next = window.hasNext() && !window.isEmpty()
+                            ? TransactionCursor.encode((KeysetScrollPosition) window.positionAt(window.size() - 1))
+                            : null;
+                    return new CursorPage<>(window.getContent(), size, next);
+                }
+            }
+
+            // Ids are unique across shards and tables, so (date, id) seeks the same way on every one
+            Specification<ArchivedTransaction> archived = dated(filters(name, from, to, status));
+            List<Window<Transaction>> windows = parts(from, to, status,
+                    month -> repo.findBy(inMonth(spec, month), q -> q.sortBy(sort).limit(size).scroll(position)),
+                    month -> archiveRepo.findBy(inMonth(archived, month), q -> q.sortBy(sort).limit(size).scroll(position))
+                            .map(ArchivedTransaction::toTransaction));
+            List<Transaction> rows = inOrder(windows.stream().flatMap(Window::stream), sort).toList();
+            metrics.scanned("scroll", rows.size());
+            List<Transaction> content = rows.subList(0, Math.min(size, rows.size()));
+            boolean more = rows.size() > size || windows.stream().anyMatch(Window::hasNext);
+            String next = null;
+            if (more && !content.isEmpty()) {
+                Transaction last = content.getLast();
+                Map<String, Object> keys = new LinkedHashMap<>();
+                keys.put("date", last.getDate());
+                keys.put("id", last.getId());
+                next = TransactionCursor.encode(ScrollPosition.forward(keys));
+            }
+            return new CursorPage<>(content, size, next);
+        });
+    }
+
+    /**
+     * Hands every matching transaction to {@code sink}, oldest first, straight from a
+     * forward-only cursor per shard and table. Nothing is buffered, so callers can export
+     * arbitrarily large ranges. Archiving waits while an export that could include paid rows runs.
+     */
+    public void exportWithFilters(String name,
+                                  LocalDate from,
+                                  LocalDate to,
+                                  String status,
+                                  Consumer<Transaction> sink) {
+        metrics.time("export", () -> {
+            Sort sort = Sort.by("date").and(Sort.by("id"));
+            Specification<Transaction> spec = filters(name, from, to, status);
+            Specification<ArchivedTransaction> archived = filters(name, from, to, status);
+            Comparator<Transaction> order = TransactionOrder.of(sort);
+            long[] exported = new long[1];
+            Supplier<Void> export = () -> {
+                // Nothing moves while this runs, so the archive is either needed for the whole export or not at all
+                boolean withArchive = archiver.mayHold(from, to, status);
+                shards.merge(shard -> withArchive
+                        ? TransactionOrder.merge(repo.streamAll(spec, sort), repo.streamArchived(archived, sort), order)
+                        : repo.streamAll(spec, sort), order, t -> {
+                    sink.accept(t);
+                    exported[0]++;
+                });
+                return null;
+            };
+            if (status == null || status.equals(Transaction.TransactionStatus.PAID.name())) {
+                archiver.holdingOff(export);
+            } else {
+                export.get();
+            }
+            metrics.scanned("export", exported[0]);
+            return null;
+        });
+    }
+
+    // The same filters fit the live and the archive table
+    private <T> Specification<T> filters(String name, LocalDate from, LocalDate to, String status) {
+        Specification<T> spec = Specification.unrestricted();
         if (name != null) {
-            spec = spec.and(TransactionSpecification.hasName(name));
+            // The index narrows the name match down to ids; LIKE is only the fallback
+            spec = spec.and(nameIndex.candidates(name)
+                    .<Specification<T>>map(TransactionSpecification::idIn)
+                    .orElseGet(() -> TransactionSpecification.hasName(name)));
         }
         if (from != null && to != null) {
             spec = spec.and(TransactionSpecification.dateBetween(from, to));
+            List<Integer> months = MonthPartitions.covering(from, to);
+            if (!months.isEmpty()) {
+                // The month range lets the index skip every partition outside the dates
+                spec = spec.and(TransactionSpecification.inMonths(months.getFirst(), months.getLast()));
+            }
         }
         if (status != null) {
             spec = spec.and(TransactionSpecification.hasStatus(status));
         }
-
-        return repo.findAll(spec, pageable);
+        return spec;
     }
 
+    // Writes below are queued on the settlement engine, which applies them one batch per transaction
     public Transaction save(Transaction t) {
+        return metrics.time("create", () -> {
+            Transaction saved = engine.execute(shards.shardOf(t.getAccount()), () -> persistNew(copyOf(t)));
+            metrics.updated("create", 1);
+            return saved;
+        });
+    }
+
+    /**
+     * Creates transactions from a stream of items, committing every {@code batchChunkSize} items
+     * so inserts are JDBC-batched and the persistence context never holds more than one chunk.
+     * Reading stops at the first item that can't be read; items that fail to persist are reported
+     * individually without affecting the rest of their chunk.
+     */
+    public BatchResult saveAll(Iterator<Transaction> items) {
+        return metrics.time("batch", () -> {
+            BatchResult result = saveAllChunked(items);
+            metrics.updated("batch", result.created());
+            return result;
+        });
+    }
+
+    private BatchResult saveAllChunked(Iterator<Transaction> items) {
+        List<BatchResult.Item> results = new ArrayList<>();
+        List<Transaction> chunk = new ArrayList<>(batchChunkSize);
+
+        while (true) {
+            Transaction next;
+            try {
+                if (!items.hasNext()) {
+                    break;
+                }
+                next = items.next();
+            } catch (RuntimeException e) {
+                saveChunk(chunk, results);
+                chunk.clear();
+                results.add(BatchResult.Item.failed(results.size(), "Unreadable item: " + e.getMessage()));
+                break;
+            }
+
+            chunk.add(next);
+            if (chunk.size() == batchChunkSize) {
+                saveChunk(chunk, results);
+                chunk.clear();
+            }
+        }
+        saveChunk(chunk, results);
+
+        return BatchResult.of(results);
+    }
+
+    private void saveChunk(List<Transaction> chunk, List<BatchResult.Item> results) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        int firstIndex = results.size();
+        BatchResult.Item[] items = new BatchResult.Item[chunk.size()];
+
+        // Each shard's part of the chunk goes to that shard's writer, all of them at once
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            byShard.computeIfAbsent(shards.shardOf(chunk.get(i).getAccount()), shard -> new ArrayList<>()).add(i);
+        }
+        Map<Integer, CompletableFuture<List<Transaction>>> parts = new TreeMap<>();
+        byShard.forEach((shard, indexes) -> parts.put(shard, engine.submit(shard,
+                () -> indexes.stream().map(i -> persistNew(copyOf(chunk.get(i)))).toList())));
+
+        parts.forEach((shard, part) -> {
+            List<Integer> indexes = byShard.get(shard);
+            try {
+                List<Transaction> saved = part.join();
+                for (int i = 0; i < saved.size(); i++) {
+                    items[indexes.get(i)] = BatchResult.Item.created(firstIndex + indexes.get(i), saved.get(i));
+                }
+            } catch (CompletionException partFailure) {
+                // Something in this part was rejected: retry item by item to find out what
+                for (int i : indexes) {
+                    Transaction t = chunk.get(i);
+                    try {
+                        items[i] = BatchResult.Item.created(firstIndex + i, engine.execute(shard, () -> persistNew(copyOf(t))));
+                    } catch (RuntimeException e) {
+                        items[i] = BatchResult.Item.failed(firstIndex + i, e.getMessage());
+                    }
+                }
+            }
+        });
+        results.addAll(Arrays.asList(items));
+    }
+
+    // Persisting mutates the entity (id, value, status), so a replayed command must start from the input again
+    private static Transaction copyOf(Transaction t) {
+        Transaction copy = new Transaction();
+        copy.setAccount(t.getAccount());
+        copy.setName(t.getName());
+        copy.setDate(t.getDate());
+        copy.setValueCents(t.getValueCents());
+        copy.setStatus(t.getStatus());
+        return copy;
+    }
+
+    private Transaction persistNew(Transaction t) {
         ZonedDateTime date = t.getDate();
         if (date != null) {
             t.setDate(date.withZoneSameInstant(ZoneOffset.UTC));
         }
 
-        List<Payment> payments = paymentRepo.findAll().stream().filter(payment -> payment.getStatus() == Payment.PaymentStatus.PENDING).toList();
+        Long value = t.getValueCents();
+        long creditUsed = 0;
+        if (value != null) {
+            long cents = value;
+            if (cents > 0 && creditPool.available(t.getAccount()) > 0) {
+                cents = consumeCredit(t.getAccount(), cents);
+                creditUsed = value - cents;
+                t.setValueCents(cents);
+            }
+            if (cents == 0) {
+                t.setStatus(Transaction.TransactionStatus.PAID);
+            }
+        }
 
-        Double transactionValue = t.getValue();
+        Transaction saved = repo.save(t);
+        ledger.created(saved, creditUsed);
+        rollups.record(saved, 1);
+        searchCache.invalidate(null, SearchResultCache.RowState.of(saved));
+        changes.created(saved);
+        return saved;
+    }
 
-        for (Payment p : payments) {
-            double paymentValue = p.getValue();
+    // Pays as many cents as possible from the account's pending payments, oldest first, and returns what is left
+    private long consumeCredit(String account, long amount) {
+        List<Payment> payments = paymentRepo.findConsumedBy(account, amount);
 
-            if (transactionValue <= 0) {
-                break; // We've paid off the transaction
-            }
+        long remaining = amount;
+        for (Payment p : payments) {
+            long paymentValue = p.getValueCents();
 
-            if (paymentValue <= transactionValue) {
+            if (paymentValue <= remaining) {
                 // Use the entire payment
-                transactionValue -= paymentValue;
+                remaining -= paymentValue;
                 p.setStatus(Payment.PaymentStatus.COMPLETED);
+                creditPool.adjust(account, -paymentValue);
             } else {
                 // Payment is larger than what's left to pay — partially use it
-                double remainingPayment = paymentValue - transactionValue;
-                p.setValue(remainingPayment);
-                // Optionally update status or leave as partially paid
-                t.setStatus(Transaction.TransactionStatus.PAID);
+                p.setValueCents(paymentValue - remaining);
+                creditPool.adjust(account, -remaining);
+                remaining = 0;
             }
+        }
+
+        paymentRepo.saveAll(payments);
+        AfterCommit.run(() -> {
+            metrics.scanned("credit", payments.size());
+            metrics.updated("credit", payments.size());
+            metrics.paymentsConsumed(payments.size());
+        });
+        return remaining;
+    }
+
+    // Pays the account's transactions; without an account, the ones that have none
+    public void makePayment(Double paymentValue, String account) {
+        long cents = Money.toCents(paymentValue.doubleValue());
+        metrics.time("pay", () -> engine.execute(shards.shardOf(account), () -> settle(account, cents)));
+    }
 
-            paymentRepo.save(p); // Persist changes
+    // Must run on the settlement engine, on the account's shard; payment jobs call it from their own commands
+    Settlement settle(String account, long paymentCents) {
+        List<TransactionRepository.DaySettlement> days;
+        long covered = 0;
+        long coveredCents = 0;
+        List<Long> paidIds = null;
+        if (ledger.enabled()) {
+            // The ledger holds the queue in memory, so it already knows which ids the payment covers
+            Ledger.Paid paid = ledger.settle(account, paymentCents);
+            days = paid.days();
+            paidIds = paid.ids();
+            covered = paidIds.size();
+            coveredCents = paid.coveredCents();
+        } else {
+            // Settle in the database: one ordered scan finds the paid-off prefix of the queue,
+            // one bulk UPDATE flips it, nothing is loaded into memory
+            days = repo.settlementByDay(account, paymentCents);
+            for (TransactionRepository.DaySettlement day : days) {
+                covered += day.getCovered();
+                coveredCents += day.getCoveredCents();
+            }
         }
+        if (covered > 0) {
+            if (paidIds != null) {
+                repo.markPaid(paidIds);
+            } else {
+                paidIds = repo.markCoveredAsPaid(account, paymentCents);
+            }
+            changes.paid(account, paidIds);
+            rollups.recordSettled(days);
+            searchCache.invalidateStatuses(Transaction.TransactionStatus.PENDING, Transaction.TransactionStatus.PAID);
+        }
+
+        // Whatever the covered transactions didn't absorb is kept as credit
+        long leftover = paymentCents - coveredCents;
+        Payment newPayment = new Payment();
+        newPayment.setAccount(account);
+        newPayment.setValueCents(leftover);
+        newPayment.setSettledCents(coveredCents);
+        newPayment.setStatus(leftover == 0 ? Payment.PaymentStatus.COMPLETED : Payment.PaymentStatus.PENDING);
+        paymentRepo.save(newPayment);
+        creditPool.adjust(account, leftover);
+
+        long settled = covered;
+        AfterCommit.run(() -> {
+            metrics.scanned("pay", days.size());
+            metrics.updated("pay", settled + 1);
+            metrics.leftover(leftover);
+        });
+        return new Settlement(covered, leftover);
+    }
+
+    // Pending transactions and unspent credit of one account; from memory in ledger mode
+    public AccountBalance balance(String account) {
+        return metrics.time("balance", () -> {
+            if (ledger.enabled()) {
+                Ledger.Balance b = ledger.balance(account);
+                return new AccountBalance(account, b.pending(), Money.fromCents(b.pendingCents()), Money.fromCents(b.creditCents()));
+            }
+            TransactionRepository.PendingTotal total = shards.on(shards.shardOf(account), () -> repo.pendingTotal(account));
+            metrics.scanned("balance", total.getCount());
+            return new AccountBalance(account, total.getCount(), Money.fromCents(total.getCents()),
+                    Money.fromCents(creditPool.available(account)));
+        });
+    }
 
-        t.setValue(transactionValue);
-        if (transactionValue == 0) {
-            t.setStatus(Transaction.TransactionStatus.PAID);
+    public Transaction update(Long id, Transaction updated){
+        if (!shards.holds(id)) {
+            throw new TransactionNotFoundException();
         }
+        return metrics.time("update", () -> {
+            Transaction saved = engine.execute(shards.shardOfId(id), () -> applyUpdate(id, updated));
+            metrics.scanned("update", 1);
+            metrics.updated("update", 1);
+            return saved;
+        });
+    }
 
-        return repo.save(t);
+    // One guarded UPDATE; the row image it returns is what the rollups, cache and name index move away from
+    private Transaction applyUpdate(Long id, Transaction updated) {
+        ZonedDateTime date = updated.getDate() == null ? null : updated.getDate().withZoneSameInstant(ZoneOffset.UTC);
+        TransactionRepository.RowImage old = repo.updateUnlessPaid(id, updated.getName(), date,
+                        updated.getValueCents(),
+                        updated.getStatus() == null ? null : updated.getStatus().name(),
+                        updated.getVersion())
+                .orElseThrow(() -> rejected(id, "Can't update paid trasnaction", updated.getVersion()));
+        Transaction before = fromImage(old);
+
+        Transaction saved = new Transaction();
+        saved.setId(id);
+        saved.setAccount(old.getAccount());
+        saved.setName(updated.getName());
+        saved.setDate(date);
+        saved.setValueCents(updated.getValueCents());
+        saved.setStatus(updated.getStatus());
+        saved.setVersion(old.getVersion() == null ? 1 : old.getVersion() + 1);
+
+        ledger.updated(saved);
+        rollups.record(before, -1);
+        rollups.record(saved, 1);
+        searchCache.invalidate(SearchResultCache.RowState.of(before), SearchResultCache.RowState.of(saved));
+        changes.updated(saved);
+        String name = saved.getName();
+        AfterCommit.run(() -> nameIndex.put(id, name));
+        return saved;
     }
 
-    @Transactional
-    public void makePayment(Double paymentValue) {
-        List<Transaction> pending = repo.findAll().stream()
-                .filter(t -> t.getStatus() == Transaction.TransactionStatus.PENDING)
-                .sorted((a,b) -> a.getDate().compareTo(b.getDate()))
-                .toList();
+    public void delete(Long id){
+        if (!shards.holds(id)) {
+            throw new TransactionNotFoundException();
+        }
+        metrics.time("delete", () -> engine.execute(shards.shardOfId(id), () -> {
+            applyDelete(id);
+            return null;
+        }));
+        metrics.scanned("delete", 1);
+        metrics.updated("delete", 1);
+    }
 
-        if (pending.isEmpty()) {
-            Payment newPayment = new Payment();
-            newPayment.setValue(paymentValue);
+    private void applyDelete(Long id) {
+        Transaction t = repo.deleteUnlessPaid(id)
+                .map(TransactionService::fromImage)
+                .orElseThrow(() -> rejected(id, "Can't delete a paid transaction", null));
+        ledger.deleted(t);
+        rollups.record(t, -1);
+        searchCache.invalidate(SearchResultCache.RowState.of(t), null);
+        changes.deleted(t);
+        AfterCommit.run(() -> nameIndex.delete(id));
+    }
 
-            newPayment.setStatus(paymentValue == 0 ? Payment.PaymentStatus.COMPLETED : Payment.PaymentStatus.PENDING );
-            paymentRepo.save(newPayment);
+    /**
+     * Sets the status of the given ids, or of every row the filter matches, a chunk of
+     * {@code bulkChunkSize} rows per statement and transaction, so neither locks nor memory
+     * grow with the size of the set. PAID rows are left as they are; nothing can be made PAID
+     * here, only payments do that.
+     */
+    public BulkResult bulkUpdateStatus(List<Long> ids, BulkFilter filter, Transaction.TransactionStatus status) {
+        if (status == null || status == Transaction.TransactionStatus.PAID) {
+            throw new InvalidRequestException("Bulk updates can set any status but PAID, got " + status);
         }
+        return metrics.time("bulk-status", () -> {
+            BulkResult result = bulk(ids, filter, chunk -> applyStatus(chunk, status));
+            metrics.updated("bulk-status", result.affected());
+            return result;
+        });
+    }
 
-        for (Transaction t : pending) {
-            if (paymentValue >= t.getValue()) {
-                paymentValue -= t.getValue();
-                t.setStatus(Transaction.TransactionStatus.PAID);
+    public BulkResult bulkDelete(List<Long> ids, BulkFilter filter) {
+        return metrics.time("bulk-delete", () -> {
+            BulkResult result = bulk(ids, filter, this::applyDeletes);
+            metrics.updated("bulk-delete", result.affected());
+            return result;
+        });
+    }
 
-                repo.save(t);
-            } else {
-                Payment newPayment = new Payment();
-                newPayment.setValue(paymentValue);
+    // Either an id list or a filter; each chunk runs as one command on its shard's writer
+    private BulkResult bulk(List<Long> ids, BulkFilter filter, Function<List<Long>, Integer> apply) {
+        if ((ids == null) == (filter == null || filter.isEmpty())) {
+            throw new InvalidRequestException("A bulk write takes either ids or a non-empty filter");
+        }
+        List<BulkResult.Chunk> chunks = new ArrayList<>();
+        if (ids != null) {
+            Map<Integer, List<Long>> byShard = new TreeMap<>();
+            // Ids no shard hands out can't exist, like any other missing id they change nothing
+            ids.stream().filter(shards::holds).distinct().sorted().forEach(id -> byShard.computeIfAbsent(shards.shardOfId(id), s -> new ArrayList<>()).add(id));
+            byShard.forEach((shard, shardIds) -> {
+                for (int from = 0; from < shardIds.size(); from += bulkChunkSize) {
+                    List<Long> chunk = shardIds.subList(from, Math.min(shardIds.size(), from + bulkChunkSize));
+                    int affected = engine.execute(shard, () -> apply.apply(chunk));
+                    chunks.add(new BulkResult.Chunk(shard, chunk.getFirst(), chunk.getLast(), chunk.size(), affected));
+                }
+            });
+            return BulkResult.of(chunks);
+        }
+
+        // Walks the matching rows in id order; PAID rows never match, so every chunk is full of rows it can change
+        Specification<Transaction> spec = bulkFilters(filter).and(TransactionSpecification.notPaid());
+        for (int shard = 0; shard < shards.count(); shard++) {
+            int s = shard;
+            long after = Long.MIN_VALUE;
+            while (true) {
+                long from = after;
+                BulkResult.Chunk chunk = engine.execute(s, () -> {
+                    List<Long> matched = repo.findIdsAfter(spec, from, bulkChunkSize);
+                    return matched.isEmpty() ? null
+                            : new BulkResult.Chunk(s, matched.getFirst(), matched.getLast(), matched.size(), apply.apply(matched));
+                });
+                if (chunk == null) {
+                    break;
+                }
+                chunks.add(chunk);
+                after = chunk.lastId();
+            }
+        }
+        return BulkResult.of(chunks);
+    }
 
+    // The list filters, with a lone from or to allowed as an open range
+    private Specification<Transaction> bulkFilters(BulkFilter filter) {
+        Specification<Transaction> spec = filters(filter.name(), filter.from(), filter.to(), filter.status());
+        if (filter.from() != null && filter.to() == null) {
+            spec = spec.and(TransactionSpecification.dateFrom(filter.from()));
+        } else if (filter.from() == null && filter.to() != null) {
+            spec = spec.and(TransactionSpecification.dateUntil(filter.to()));
+        }
+        return spec;
+    }
 
-                newPayment.setStatus(paymentValue == 0 ? Payment.PaymentStatus.COMPLETED : Payment.PaymentStatus.PENDING );
-                paymentRepo.save(newPayment);
-                break;
+    // One guarded UPDATE for the chunk; the row images it returns move the rollups, ledger and feed along
+    private int applyStatus(List<Long> ids, Transaction.TransactionStatus status) {
+        List<TransactionRepository.RowImage> images = repo.updateStatusUnlessPaid(ids, status.name());
+        Set<Transaction.TransactionStatus> touched = new HashSet<>(List.of(status));
+        for (TransactionRepository.RowImage image : images) {
+            Transaction before = fromImage(image);
+            Transaction saved = fromImage(image);
+            saved.setStatus(status);
+            saved.setVersion(image.getVersion() == null ? 1 : image.getVersion() + 1);
+            ledger.updated(saved);
+            rollups.record(before, -1);
+            rollups.record(saved, 1);
+            changes.updated(saved);
+            if (before.getStatus() != null) {
+                touched.add(before.getStatus());
             }
         }
+        // One eviction pass for the chunk rather than one per row
+        searchCache.invalidateStatuses(touched.toArray(Transaction.TransactionStatus[]::new));
+        return images.size();
     }
 
-    @Transactional
-    public Transaction update(Long id, Transaction updated){
-        Transaction current = repo.findById(id)
-                .orElseThrow(() -> new RuntimeException(("Transaction not found")));
-        if (current.getStatus() == Transaction.TransactionStatus.PAID) {
-            throw new RuntimeException("Can't update paid trasnaction");
+    private int applyDeletes(List<Long> ids) {
+        List<TransactionRepository.RowImage> images = repo.deleteAllUnlessPaid(ids);
+        Set<Transaction.TransactionStatus> touched = new HashSet<>();
+        List<Long> deleted = new ArrayList<>(images.size());
+        for (TransactionRepository.RowImage image : images) {
+            Transaction t = fromImage(image);
+            ledger.deleted(t);
+            rollups.record(t, -1);
+            changes.deleted(t);
+            deleted.add(t.getId());
+            if (t.getStatus() != null) {
+                touched.add(t.getStatus());
+            }
         }
-        ZonedDateTime date = updated.getDate();
-        if (date != null) {
-            updated.setDate(date.withZoneSameInstant(ZoneOffset.UTC));
+        if (!touched.isEmpty()) {
+            searchCache.invalidateStatuses(touched.toArray(Transaction.TransactionStatus[]::new));
         }
-        current.setName(updated.getName());
-        current.setDate(updated.getDate());
-        current.setValue(updated.getValue());
-        current.setStatus(updated.getStatus());
-        return repo.save(current);
+        AfterCommit.run(() -> deleted.forEach(nameIndex::delete));
+        return images.size();
     }
 
-    @Transactional
-    public void delete(Long id){
-        Transaction t = repo.findById(id)
-                .orElseThrow(() -> new RuntimeException("Transaction not found"));
-        if (t.getStatus() == Transaction.TransactionStatus.PAID) {
-            throw new RuntimeException("Can't delete a paid transaction");
+    // A guarded write matched no row: one more lookup tells the caller why
+    private RuntimeException rejected(Long id, String paidMessage, Long expectedVersion) {
+        Optional<TransactionRepository.StatusRow> row = repo.findStatusById(id);
+        if (row.isEmpty()) {
+            // Archived rows were paid
+            return archiveRepo.existsById(id) ? new RuntimeException(paidMessage) : new TransactionNotFoundException();
         }
-        repo.deleteById(id);
+        if (row.get().getStatus() == Transaction.TransactionStatus.PAID) {
+            return new RuntimeException(paidMessage);
+        }
+        return new OptimisticLockingFailureException(
+                "Transaction " + id + " was changed by someone else, expected version " + expectedVersion);
+    }
+
+    private static Transaction fromImage(TransactionRepository.RowImage row) {
+        Transaction t = new Transaction();
+        t.setId(row.getId());
+        t.setAccount(row.getAccount());
+        t.setName(row.getName());
+        t.setDate(row.getDate() == null ? null : row.getDate().atZoneSameInstant(ZoneOffset.UTC));
+        t.setValueCents(row.getValueCents());
+        t.setStatus(row.getStatus() == null ? null : Transaction.TransactionStatus.valueOf(row.getStatus()));
+        t.setVersion(row.getVersion());
+        return t;
     }
 }
 
@@ -0,0 +1,22 @@
+package com.transactions.shard;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Pooled sequence ids, drawn from the sequence of the shard the row is written to and
+ * offset by {@link Shards#firstId(int)}. With one shard these are plain pooled sequence ids.
+ */
+@IdGeneratorType(ShardedSequenceGenerator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface ShardedSequence {
+
+    String name();
+
+    int allocationSize() default 50;
+}
@@ -0,0 +1,41 @@
+package com.transactions.shard;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.OptimizableGenerator;
+import org.hibernate.id.enhanced.Optimizer;
+import org.hibernate.id.enhanced.OptimizerFactory;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Each shard has its own sequence, so each needs its own pool of allocated values too
+public class ShardedSequenceGenerator extends SequenceStyleGenerator {
+
+    private final ShardedSequence config;
+    private final Map<Integer, Optimizer> optimizers = new ConcurrentHashMap<>();
+
+    public ShardedSequenceGenerator(ShardedSequence config) {
+        this.config = config;
+    }
+
+    @Override
+    public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) {
+        parameters.setProperty(SEQUENCE_PARAM, config.name());
+        parameters.setProperty(OptimizableGenerator.INCREMENT_PARAM, String.valueOf(config.allocationSize()));
+        super.configure(type, parameters, serviceRegistry);
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        int shard = Shards.current();
+        Optimizer optimizer = shard == 0 ? getOptimizer() : optimizers.computeIfAbsent(shard,
+                s -> OptimizerFactory.buildOptimizer(StandardOptimizerDescriptor.POOLED, Long.class, config.allocationSize(), 1));
+        long value = ((Number) optimizer.generate(getDatabaseStructure().buildCallback(session))).longValue();
+        return Shards.firstId(shard) + value;
+    }
+}
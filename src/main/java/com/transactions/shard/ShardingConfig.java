@@ -0,0 +1,57 @@
+package com.transactions.shard;
+
+import com.transactions.config.LegacySchemaCallback;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * With more than one shard the single {@code spring.datasource} is replaced by one pool per
+ * shard behind a routing datasource. Flyway brings every shard up to the migrations in
+ * {@code db/migration} before Hibernate starts; Boot's own Flyway run only ever reaches shard 0.
+ * {@code spring.datasource.hikari.*} applies to each pool. With one shard nothing here is created.
+ */
+@Configuration
+@ConditionalOnExpression("${transactions.shards.count:1} > 1")
+public class ShardingConfig {
+
+    @Bean
+    public DataSource dataSource(DataSourceProperties properties,
+                                 Environment environment,
+                                 LegacySchemaCallback legacySchema,
+                                 @Value("${transactions.shards.count}") int count,
+                                 @Value("${transactions.shards.url}") String urlTemplate) {
+        Binder binder = Binder.get(environment);
+        boolean baselineOnMigrate = binder.bind("spring.flyway.baseline-on-migrate", Boolean.class).orElse(false);
+        String baselineVersion = binder.bind("spring.flyway.baseline-version", String.class).orElse("1");
+        List<HikariDataSource> pools = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++) {
+            HikariDataSource pool = properties.initializeDataSourceBuilder()
+                    .type(HikariDataSource.class)
+                    .url(urlTemplate.replace("{shard}", String.valueOf(shard)))
+                    .build();
+            binder.bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+            pool.setPoolName("shard-" + shard);
+            Flyway.configure()
+                    .dataSource(pool)
+                    .baselineOnMigrate(baselineOnMigrate)
+                    .baselineVersion(baselineVersion)
+                    .callbacks(legacySchema)
+                    .load()
+                    .migrate();
+            pools.add(pool);
+        }
+        return new ShardRoutingDataSource(pools);
+    }
+}
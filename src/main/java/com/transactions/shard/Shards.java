@@ -0,0 +1,246 @@
+package com.transactions.shard;
+
+import com.transactions.metrics.SqlStatementCounter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Transactions, payments and payment jobs are partitioned by account across
+ * {@code transactions.shards.count} independent databases. The shard a thread works on is
+ * held in a thread local that the routing datasource reads when a transaction takes its
+ * connection, so it has to be chosen before the transaction starts.
+ * Ids carry their shard in the high bits, so a row can be found again from its id alone.
+ */
+@Component
+public class Shards {
+
+    // Shard 0 keeps the ids it always had; shard n starts at n << 40
+    static final int ID_SHIFT = 40;
+
+    private static final ThreadLocal<Integer> CURRENT = ThreadLocal.withInitial(() -> 0);
+    private static final int MERGE_BUFFER = 256;
+
+    private final int count;
+    private final SqlStatementCounter statementCounter;
+    private final TransactionTemplate readTx;
+    private final ExecutorService fanOut = Executors.newVirtualThreadPerTaskExecutor();
+
+    public Shards(@Value("${transactions.shards.count:1}") int count,
+                  SqlStatementCounter statementCounter,
+                  PlatformTransactionManager txManager) {
+        if (count < 1) {
+            throw new IllegalArgumentException("transactions.shards.count must be at least 1");
+        }
+        this.count = count;
+        this.statementCounter = statementCounter;
+        this.readTx = new TransactionTemplate(txManager);
+        this.readTx.setReadOnly(true);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    // Rows without an account live on shard 0
+    public int shardOf(String account) {
+        return account == null ? 0 : Math.floorMod(account.hashCode(), count);
+    }
+
+    // Whether some shard hands out the id; ids from the client can be anything
+    public boolean holds(long id) {
+        return id >= 0 && (id >>> ID_SHIFT) < count;
+    }
+
+    public int shardOfId(long id) {
+        int shard = (int) (id >>> ID_SHIFT);
+        if (shard >= count) {
+            throw new IllegalArgumentException("Id " + id + " belongs to shard " + shard + " of " + count);
+        }
+        return shard;
+    }
+
+    public static long firstId(int shard) {
+        return (long) shard << ID_SHIFT;
+    }
+
+    public static int current() {
+        return CURRENT.get();
+    }
+
+    // Runs action against one shard on the calling thread
+    public <T> T on(int shard, Supplier<T> action) {
+        int previous = CURRENT.get();
+        if (previous != shard && TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Already in a transaction on shard " + previous + ", can't switch to " + shard);
+        }
+        CURRENT.set(shard);
+        try {
+            return action.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Runs action once per shard, all shards at the same time, and returns the results in
+     * shard order. With a single shard it just runs on the calling thread.
+     */
+    public <T> List<T> onEach(IntFunction<T> action) {
+        return onEach(Collections.singletonList(null), (shard, part) -> action.apply(shard));
+    }
+
+    /**
+     * Runs action once per shard and part of it, all of them at the same time, and returns
+     * the results in shard order, then in the order of {@code parts}. With a single shard and
+     * a single part it just runs on the calling thread.
+     */
+    public <P, T> List<T> onEach(List<P> parts, BiFunction<Integer, P, T> action) {
+        if (count == 1 && parts.size() == 1) {
+            return List.of(on(0, () -> action.apply(0, parts.getFirst())));
+        }
+        SqlStatementCounter.Tally caller = statementCounter.current();
+        List<CompletableFuture<T>> futures = new ArrayList<>(count * parts.size());
+        for (int shard = 0; shard < count; shard++) {
+            int target = shard;
+            for (P part : parts) {
+                futures.add(CompletableFuture.supplyAsync(
+                        () -> statementCounter.chargeTo(caller, () -> on(target, () -> action.apply(target, part))), fanOut));
+            }
+        }
+        try {
+            return futures.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hands every row of the per-shard streams to {@code sink} in {@code order}, each stream
+     * being read in its own read-only transaction. Streams must already be sorted by
+     * {@code order}; only a small buffer per shard is held in memory.
+     */
+    public <T> void merge(IntFunction<Stream<T>> source, Comparator<? super T> order, Consumer<? super T> sink) {
+        if (count == 1) {
+            on(0, () -> readTx.execute(status -> {
+                try (Stream<T> rows = source.apply(0)) {
+                    rows.forEach(sink);
+                }
+                return null;
+            }));
+            return;
+        }
+
+        SqlStatementCounter.Tally caller = statementCounter.current();
+        List<Feed<T>> feeds = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++) {
+            Feed<T> feed = new Feed<>();
+            feeds.add(feed);
+            int target = shard;
+            fanOut.execute(() -> statementCounter.chargeTo(caller, () -> on(target, () -> feed.fill(readTx, source, target))));
+        }
+
+        try {
+            PriorityQueue<Feed<T>> heads = new PriorityQueue<>(count, (a, b) -> order.compare(a.head, b.head));
+            for (Feed<T> feed : feeds) {
+                if (feed.advance()) {
+                    heads.add(feed);
+                }
+            }
+            while (!heads.isEmpty()) {
+                Feed<T> feed = heads.poll();
+                sink.accept(feed.head);
+                if (feed.advance()) {
+                    heads.add(feed);
+                }
+            }
+        } finally {
+            feeds.forEach(feed -> feed.cancelled = true);
+        }
+    }
+
+    // One shard's rows on their way from its reader thread to the merging thread
+    private static final class Feed<T> {
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> rows = new ArrayBlockingQueue<>(MERGE_BUFFER);
+        private volatile boolean cancelled;
+        private T head;
+
+        Void fill(TransactionTemplate readTx, IntFunction<Stream<T>> source, int shard) {
+            Object last = END;
+            try {
+                readTx.executeWithoutResult(status -> {
+                    try (Stream<T> stream = source.apply(shard)) {
+                        Iterator<T> it = stream.iterator();
+                        boolean wanted = true;
+                        while (wanted && it.hasNext()) {
+                            wanted = offer(it.next());
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                last = e;
+            }
+            offer(last);
+            return null;
+        }
+
+        // False once the merging side has given up, so the reader can let go of its cursor
+        private boolean offer(Object row) {
+            try {
+                while (!cancelled) {
+                    if (rows.offer(row, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean advance() {
+            Object next;
+            try {
+                next = rows.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while merging shards", e);
+            }
+            if (next == END) {
+                return false;
+            }
+            if (next instanceof RuntimeException failure) {
+                throw failure;
+            }
+            head = (T) next;
+            return true;
+        }
+    }
+}
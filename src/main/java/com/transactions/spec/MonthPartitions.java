@@ -0,0 +1,37 @@
+package com.transactions.spec;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transactions are partitioned by the UTC month of their date: every row carries a
+ * {@code month_key} of {@code yyyymm} that H2 derives from the date, and the indexes lead with
+ * it, so each month is a contiguous range of the index the way it would be a table of its own.
+ * A date-bounded filter only has to look at the months it overlaps.
+ */
+public final class MonthPartitions {
+
+    // Column definition shared by the live and archive tables; keep in step with db/migration
+    public static final String COLUMN = "INT GENERATED ALWAYS AS "
+            + "(EXTRACT(YEAR FROM date AT TIME ZONE 'UTC') * 100 + EXTRACT(MONTH FROM date AT TIME ZONE 'UTC'))";
+
+    private MonthPartitions() {}
+
+    public static int keyOf(YearMonth month) {
+        return month.getYear() * 100 + month.getMonthValue();
+    }
+
+    // Keys of the months the UTC days from..to overlap, oldest first; empty when the range is open or backwards
+    public static List<Integer> covering(LocalDate from, LocalDate to) {
+        List<Integer> keys = new ArrayList<>();
+        if (from == null || to == null) {
+            return keys;
+        }
+        for (YearMonth month = YearMonth.from(from); !month.isAfter(YearMonth.from(to)); month = month.plusMonths(1)) {
+            keys.add(keyOf(month));
+        }
+        return keys;
+    }
+}
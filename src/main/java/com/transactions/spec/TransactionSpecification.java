@@ -3,24 +3,61 @@ package com.transactions.spec;
 import com.transactions.model.Transaction;
 import org.springframework.data.jpa.domain.Specification;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collection;
 
+// Generic so the same filters apply to the live table and to the archive, which share their column names
 public class TransactionSpecification {
 
-    public static Specification<Transaction> hasName(String name) {
+    public static <T> Specification<T> hasName(String name) {
         return (root, query, cb) -> name == null
                 ? null
                 : cb.like(cb.lower(root.get("name")), "%" + name.toLowerCase() + "%");
     }
 
-    public static Specification<Transaction> hasStatus(String status) {
+    public static <T> Specification<T> hasStatus(String status) {
         return (root, query, cb) -> status == null
                 ? null
                 : cb.equal(root.get("status"), Transaction.TransactionStatus.valueOf(status));
     }
 
-    public static Specification<Transaction> dateBetween(LocalDate from, LocalDate to) {
+    // Both days included, as UTC days: from the start of from up to the start of the day after to
+    public static <T> Specification<T> dateBetween(LocalDate from, LocalDate to) {
         return (root, query, cb) -> (from != null && to != null)
-                ? cb.between(root.get("date"), from, to)
+                ? cb.and(cb.greaterThanOrEqualTo(root.<ZonedDateTime>get("date"), from.atStartOfDay(ZoneOffset.UTC)),
+                         cb.lessThan(root.<ZonedDateTime>get("date"), to.plusDays(1).atStartOfDay(ZoneOffset.UTC)))
                 : null;
     }
+
+    // One-sided versions of dateBetween, for bulk writes such as "everything up to to"
+    public static <T> Specification<T> dateFrom(LocalDate from) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.<ZonedDateTime>get("date"), from.atStartOfDay(ZoneOffset.UTC));
+    }
+
+    public static <T> Specification<T> dateUntil(LocalDate to) {
+        return (root, query, cb) -> cb.lessThan(root.<ZonedDateTime>get("date"), to.plusDays(1).atStartOfDay(ZoneOffset.UTC));
+    }
+
+    public static <T> Specification<T> dated() {
+        return (root, query, cb) -> cb.isNotNull(root.get("date"));
+    }
+
+    public static <T> Specification<T> notPaid() {
+        return (root, query, cb) -> cb.or(cb.isNull(root.get("status")),
+                cb.notEqual(root.get("status"), Transaction.TransactionStatus.PAID));
+    }
+
+    // Restricts the rows to the monthly partitions from first to last, see MonthPartitions
+    public static <T> Specification<T> inMonths(int first, int last) {
+        return (root, query, cb) -> first == last
+                ? cb.equal(root.get("monthKey"), first)
+                : cb.between(root.<Integer>get("monthKey"), first, last);
+    }
+
+    public static <T> Specification<T> idIn(Collection<Long> ids) {
+        return (root, query, cb) -> ids.isEmpty()
+                ? cb.disjunction()
+                : root.get("id").in(ids);
+    }
 }
@@ -0,0 +1,41 @@
+package com.transactions.stream;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.transactions.model.Transaction;
+
+import java.util.List;
+
+/**
+ * One committed change, as pushed on {@code GET /api/transactions/stream}. {@code created} and
+ * {@code updated} carry the transaction as written, {@code deleted} its id, and {@code paid} the
+ * ids a payment settled. {@code resync} tells a client it missed changes and should read again.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ChangeEvent(@JsonIgnore long seq,
+                          String type,
+                          String account,
+                          Long id,
+                          Transaction transaction,
+                          List<Long> ids) {
+
+    static ChangeEvent created(long seq, Transaction t) {
+        return new ChangeEvent(seq, "created", t.getAccount(), t.getId(), t, null);
+    }
+
+    static ChangeEvent updated(long seq, Transaction t) {
+        return new ChangeEvent(seq, "updated", t.getAccount(), t.getId(), t, null);
+    }
+
+    static ChangeEvent deleted(long seq, String account, long id) {
+        return new ChangeEvent(seq, "deleted", account, id, null, null);
+    }
+
+    static ChangeEvent paid(long seq, String account, List<Long> ids) {
+        return new ChangeEvent(seq, "paid", account, null, null, ids);
+    }
+
+    static ChangeEvent resync(long seq) {
+        return new ChangeEvent(seq, "resync", null, null, null, null);
+    }
+}
@@ -0,0 +1,241 @@
+package com.transactions.stream;
+
+import com.transactions.model.Transaction;
+import com.transactions.service.AfterCommit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+
+/**
+ * Pushes committed creates, updates, deletes and settlements to Server-Sent Events subscribers.
+ * Every change gets a sequence number and the last {@code replay-size} changes are kept, so a
+ * client that reconnects with {@code Last-Event-ID} gets what it missed. Each subscriber has a
+ * queue of at most {@code client-buffer} events; a client too slow to keep up has its queue
+ * dropped and gets a {@code resync} event instead, telling it to read the current state again.
+ * Subscribers hold no thread while idle: a virtual thread is started when there is something to send.
+ */
+@Component
+public class ChangeFeed implements SmartLifecycle {
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final String account;
+        private final ArrayDeque<ChangeEvent> queue = new ArrayDeque<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        // When the client fell behind: the newest event it was not sent
+        private Long droppedThrough;
+        private boolean ping;
+
+        private Subscriber(SseEmitter emitter, String account) {
+            this.emitter = emitter;
+            this.account = account;
+        }
+
+        private boolean wants(ChangeEvent event) {
+            return account == null || account.equals(event.account());
+        }
+
+        private synchronized void offer(ChangeEvent event) {
+            if (droppedThrough == null && queue.size() < clientBuffer) {
+                queue.add(event);
+                return;
+            }
+            // What is queued is no use any more: the client is going to read everything again
+            droppedEvents.increment(queue.size() + 1);
+            queue.clear();
+            droppedThrough = event.seq();
+        }
+
+        private synchronized void resync(long through) {
+            queue.clear();
+            droppedThrough = through;
+        }
+
+        private synchronized void ping() {
+            ping = true;
+        }
+
+        // What to send next: the resync owed to a client that fell behind comes first
+        private synchronized ChangeEvent next() {
+            if (droppedThrough != null) {
+                ChangeEvent resync = ChangeEvent.resync(droppedThrough);
+                droppedThrough = null;
+                return resync;
+            }
+            return queue.poll();
+        }
+
+        private synchronized boolean idle() {
+            return queue.isEmpty() && droppedThrough == null && !ping;
+        }
+
+        private void wake() {
+            if (sending.compareAndSet(false, true)) {
+                sender.execute(this::send);
+            }
+        }
+
+        private void send() {
+            try {
+                boolean heartbeat;
+                synchronized (this) {
+                    heartbeat = ping;
+                    ping = false;
+                }
+                if (heartbeat) {
+                    emitter.send(SseEmitter.event().comment(""));
+                }
+                for (ChangeEvent event = next(); event != null; event = next()) {
+                    emitter.send(SseEmitter.event()
+                            .id(Long.toString(event.seq()))
+                            .name(event.type())
+                            .data(event, MediaType.APPLICATION_JSON));
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client went away; the emitter's callbacks take it off the list
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                sending.set(false);
+            }
+            // Something may have come in after the last look but before the flag was cleared
+            if (!idle()) {
+                wake();
+            }
+        }
+    }
+
+    private final int replaySize;
+    private final int clientBuffer;
+    private final ArrayDeque<ChangeEvent> recent = new ArrayDeque<>();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+    private final Counter droppedEvents;
+    private volatile boolean running;
+    // Starts from the clock, so ids from before a restart are older than anything kept and get a resync
+    private long seq = System.currentTimeMillis() * 1000;
+
+    public ChangeFeed(MeterRegistry registry,
+                      @Value("${transactions.stream.replay-size:10000}") int replaySize,
+                      @Value("${transactions.stream.client-buffer:256}") int clientBuffer) {
+        this.replaySize = replaySize;
+        this.clientBuffer = clientBuffer;
+        Gauge.builder("transactions.stream.subscribers", subscribers, Set::size)
+                .description("Clients connected to the change stream")
+                .register(registry);
+        this.droppedEvents = Counter.builder("transactions.stream.dropped")
+                .description("Change events dropped for clients that fell behind, who were told to resync")
+                .register(registry);
+    }
+
+    // Called inside the writing transaction; the event goes out once it commits
+    public void created(Transaction t) {
+        AfterCommit.run(() -> publish(seq -> ChangeEvent.created(seq, t)));
+    }
+
+    public void updated(Transaction t) {
+        AfterCommit.run(() -> publish(seq -> ChangeEvent.updated(seq, t)));
+    }
+
+    public void deleted(Transaction t) {
+        String account = t.getAccount();
+        long id = t.getId();
+        AfterCommit.run(() -> publish(seq -> ChangeEvent.deleted(seq, account, id)));
+    }
+
+    public void paid(String account, List<Long> ids) {
+        if (!ids.isEmpty()) {
+            List<Long> paid = List.copyOf(ids);
+            AfterCommit.run(() -> publish(seq -> ChangeEvent.paid(seq, account, paid)));
+        }
+    }
+
+    private synchronized void publish(LongFunction<ChangeEvent> change) {
+        ChangeEvent event = change.apply(++seq);
+        recent.add(event);
+        if (recent.size() > replaySize) {
+            recent.removeFirst();
+        }
+        for (Subscriber s : subscribers) {
+            if (s.wants(event)) {
+                s.offer(event);
+                s.wake();
+            }
+        }
+    }
+
+    /**
+     * A new subscriber to changes of one account, or of all of them. With {@code lastEventId} it
+     * first gets the kept changes after that one, or a {@code resync} when they are no longer kept.
+     */
+    public SseEmitter subscribe(String account, Long lastEventId) {
+        SseEmitter emitter = new SseEmitter();
+        Subscriber subscriber = new Subscriber(emitter, account);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+
+        // Under the lock, so nothing is published between the replay and joining the live feed
+        synchronized (this) {
+            if (lastEventId != null && lastEventId < seq) {
+                long oldestKept = recent.isEmpty() ? seq + 1 : recent.getFirst().seq();
+                if (lastEventId < oldestKept - 1) {
+                    subscriber.resync(seq);
+                } else {
+                    recent.stream()
+                            .filter(event -> event.seq() > lastEventId && subscriber.wants(event))
+                            .forEach(subscriber::offer);
+                }
+            } else if (lastEventId != null && lastEventId > seq) {
+                // An id this process never handed out: from before a restart
+                subscriber.resync(seq);
+            }
+            subscribers.add(subscriber);
+        }
+        subscriber.wake();
+        return emitter;
+    }
+
+    // Keeps idle connections from being closed by proxies, and finds clients that have gone away
+    @Scheduled(fixedDelayString = "${transactions.stream.heartbeat:15s}", initialDelayString = "${transactions.stream.heartbeat:15s}")
+    void heartbeat() {
+        for (Subscriber s : subscribers) {
+            s.ping();
+            s.wake();
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    // Ends every stream before the web server shuts down, which would otherwise wait on them as open requests
+    @Override
+    public void stop() {
+        running = false;
+        subscribers.forEach(s -> s.emitter.complete());
+        sender.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
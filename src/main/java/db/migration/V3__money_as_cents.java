@@ -0,0 +1,57 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Databases from builds that stored money as decimals still have those columns next to (or
+ * instead of) the whole-cent ones. Each one found is copied into its cents column, rounded to the
+ * nearest cent, and dropped. Databases created from V1 never had them, so for those this does
+ * nothing; it is Java only because SQL can't ask whether a column exists first.
+ */
+public class V3__money_as_cents extends BaseJavaMigration {
+
+    private record MoneyColumn(String table, String decimal, String cents) {}
+
+    private static final List<MoneyColumn> COLUMNS = List.of(
+            new MoneyColumn("TRANSACTIONS", "TRANSACTION_VALUE", "VALUE_CENTS"),
+            new MoneyColumn("PAYMENTS", "PAYMENT_VALUE", "VALUE_CENTS"),
+            new MoneyColumn("PAYMENT_JOBS", "AMOUNT", "AMOUNT_CENTS"),
+            new MoneyColumn("PAYMENT_JOBS", "LEFTOVER", "LEFTOVER_CENTS"),
+            new MoneyColumn("TRANSACTION_ROLLUPS", "TOTAL_VALUE", "TOTAL_CENTS"));
+
+    @Override
+    public void migrate(Context context) throws SQLException {
+        Connection connection = context.getConnection();
+        try (Statement sql = connection.createStatement()) {
+            for (MoneyColumn column : COLUMNS) {
+                if (!exists(connection, column.table(), column.decimal())) {
+                    continue;
+                }
+                sql.execute("ALTER TABLE " + column.table() + " ADD COLUMN IF NOT EXISTS " + column.cents() + " BIGINT");
+                // Rows written after the cents column appeared already have it; the decimal is null there
+                sql.executeUpdate("UPDATE " + column.table() + " SET " + column.cents() + " = ROUND(" + column.decimal() + " * 100)"
+                        + " WHERE " + column.cents() + " IS NULL AND " + column.decimal() + " IS NOT NULL");
+                sql.execute("ALTER TABLE " + column.table() + " DROP COLUMN " + column.decimal());
+            }
+        }
+    }
+
+    private static boolean exists(Connection connection, String table, String column) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT 1 FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = CURRENT_SCHEMA AND TABLE_NAME = ? AND COLUMN_NAME = ?")) {
+            query.setString(1, table);
+            query.setString(2, column);
+            try (ResultSet row = query.executeQuery()) {
+                return row.next();
+            }
+        }
+    }
+}
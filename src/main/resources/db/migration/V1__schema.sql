@@ -0,0 +1,66 @@
+-- Applied once per database (every shard) by Flyway; Hibernate only validates against it.
+-- Written with IF NOT EXISTS: a database ddl-auto created before is baselined at 0, LegacySchemaCallback adds
+-- the columns and sequences it lacks, and this then creates only the tables and indexes still missing.
+CREATE SEQUENCE IF NOT EXISTS transactions_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS payments_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS payment_jobs_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS transactions (
+    id BIGINT NOT NULL PRIMARY KEY,
+    account VARCHAR(255),
+    date TIMESTAMP(6) WITH TIME ZONE,
+    name VARCHAR(255),
+    status VARCHAR(255) CHECK (status IN ('PENDING', 'PAID', 'REJECTED')),
+    value_cents BIGINT,
+    version BIGINT,
+    month_key INT GENERATED ALWAYS AS (EXTRACT(YEAR FROM date AT TIME ZONE 'UTC') * 100 + EXTRACT(MONTH FROM date AT TIME ZONE 'UTC'))
+);
+CREATE INDEX IF NOT EXISTS idx_transactions_account_status_date ON transactions (account, status, date, id);
+CREATE INDEX IF NOT EXISTS idx_transactions_month_status_date ON transactions (month_key, status, date, id);
+
+CREATE TABLE IF NOT EXISTS payments (
+    id BIGINT NOT NULL PRIMARY KEY,
+    account VARCHAR(255),
+    status VARCHAR(255) CHECK (status IN ('PENDING', 'COMPLETED')),
+    value_cents BIGINT
+);
+CREATE INDEX IF NOT EXISTS idx_payments_account_status_id ON payments (account, status, id);
+
+CREATE TABLE IF NOT EXISTS payment_jobs (
+    id BIGINT NOT NULL PRIMARY KEY,
+    account VARCHAR(255),
+    amount_cents BIGINT NOT NULL,
+    error VARCHAR(255),
+    finished_at TIMESTAMP(6) WITH TIME ZONE,
+    leftover_cents BIGINT,
+    settled_transactions BIGINT,
+    status VARCHAR(255) CHECK (status IN ('QUEUED', 'COMPLETED', 'FAILED')),
+    submitted_at TIMESTAMP(6) WITH TIME ZONE
+);
+CREATE INDEX IF NOT EXISTS idx_payment_jobs_status_id ON payment_jobs (status, id);
+
+CREATE TABLE IF NOT EXISTS transaction_rollups (
+    bucket_day DATE NOT NULL,
+    status VARCHAR(255) NOT NULL CHECK (status IN ('PENDING', 'PAID', 'REJECTED')),
+    tx_count BIGINT,
+    total_cents BIGINT,
+    PRIMARY KEY (bucket_day, status)
+);
+
+CREATE TABLE IF NOT EXISTS transactions_archive (
+    id BIGINT NOT NULL PRIMARY KEY,
+    account VARCHAR(255),
+    date TIMESTAMP(6) WITH TIME ZONE,
+    name VARCHAR(255),
+    status VARCHAR(255) CHECK (status = 'PAID'),
+    value_cents BIGINT,
+    version BIGINT,
+    month_key INT GENERATED ALWAYS AS (EXTRACT(YEAR FROM date AT TIME ZONE 'UTC') * 100 + EXTRACT(MONTH FROM date AT TIME ZONE 'UTC'))
+);
+CREATE INDEX IF NOT EXISTS idx_transactions_archive_date ON transactions_archive (date, id);
+CREATE INDEX IF NOT EXISTS idx_transactions_archive_month_date ON transactions_archive (month_key, date, id);
+
+CREATE TABLE IF NOT EXISTS ledger_checkpoint (
+    id INTEGER NOT NULL PRIMARY KEY,
+    seq BIGINT NOT NULL
+);
@@ -0,0 +1,6 @@
+-- What each payment paid off directly, so reconciliation can check it against the PAID transactions.
+-- Payments stored before this column existed leave it NULL: what they settled was never recorded.
+ALTER TABLE payments ADD COLUMN IF NOT EXISTS settled_cents BIGINT;
+
+-- Reconciliation sums an account's archived rows when it double-checks a mismatch
+CREATE INDEX IF NOT EXISTS idx_transactions_archive_account ON transactions_archive (account, id);
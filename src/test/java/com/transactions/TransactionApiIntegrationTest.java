@@ -1,25 +1,40 @@
 package com.transactions;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.transactions.model.Transaction;
 import com.transactions.model.Transaction.TransactionStatus;
+import com.transactions.model.PaymentJob;
+import com.transactions.repository.PaymentJobRepository;
+import com.transactions.repository.PaymentRepository;
 import com.transactions.repository.TransactionRepository;
+import com.transactions.service.PaymentJobService;
+import com.transactions.service.PendingCreditPool;
+import com.transactions.service.RollupService;
+import com.transactions.service.SearchResultCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.time.ZonedDateTime;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:api;DB_CLOSE_DELAY=-1")
 @AutoConfigureMockMvc
+@AutoConfigureObservability
 public class TransactionApiIntegrationTest {
 
     @Autowired
@@ -28,12 +43,35 @@ public class TransactionApiIntegrationTest {
     @Autowired
     private TransactionRepository repo;
 
+    @Autowired
+    private PaymentRepository paymentRepo;
+
+    @Autowired
+    private PaymentJobRepository jobRepo;
+
+    @Autowired
+    private PaymentJobService paymentJobs;
+
+    @Autowired
+    private PendingCreditPool creditPool;
+
+    @Autowired
+    private SearchResultCache searchCache;
+
+    @Autowired
+    private RollupService rollups;
+
     @Autowired
     private ObjectMapper objectMapper;
 
     @BeforeEach
     void cleanDb() {
         repo.deleteAll();
+        paymentRepo.deleteAll();
+        jobRepo.deleteAll();
+        creditPool.reload();
+        searchCache.clear();
+        rollups.rebuild();
     }
 
     private Transaction createTransaction(String name, double value, Transaction.TransactionStatus status, ZonedDateTime date) {
@@ -49,14 +87,17 @@ public class TransactionApiIntegrationTest {
     void postTransaction_savesWithUtcDate() throws Exception {
         Transaction t = createTransaction("Groceries", 523467.35, Transaction.TransactionStatus.PENDING,ZonedDateTime.parse("2025-07-29T18:00:00-05:00[America/Chicago]") );
 
-        mockMvc.perform(post("/api/transactions")
+        String body = mockMvc.perform(post("/api/transactions")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(t)))
                 .andExpect(status().isCreated())
                 .andExpect(jsonPath("$.name").value("Groceries"))
-                .andExpect(jsonPath("$.status").value("PENDING"));
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andReturn().getResponse().getContentAsString();
 
-        Transaction saved = repo.findAll().getFirst();
+        // Ids come from pooled sequence blocks, so the posted row isn't necessarily the first one
+        long id = objectMapper.readTree(body).get("id").asLong();
+        Transaction saved = repo.findById(id).orElseThrow();
         assertThat(saved.getDate().getOffset()).isEqualTo(ZonedDateTime.now().withZoneSameInstant(java.time.ZoneOffset.UTC).getOffset());
     }
 
@@ -74,6 +115,65 @@ public class TransactionApiIntegrationTest {
                 .andExpect(jsonPath("$.content[0].name").value("Alice"));
     }
 
+    @Test
+    void getTransactions_dateRange_isInclusiveUtcDays_acrossMonthlyPartitions() throws Exception {
+        createTransaction("June", 10.0, TransactionStatus.PENDING, ZonedDateTime.parse("2025-06-30T23:00:00Z"));
+        createTransaction("July first", 10.0, TransactionStatus.PENDING, ZonedDateTime.parse("2025-07-01T00:00:00Z"));
+        createTransaction("July last", 10.0, TransactionStatus.PAID, ZonedDateTime.parse("2025-07-31T23:59:00Z"));
+        createTransaction("August", 10.0, TransactionStatus.PENDING, ZonedDateTime.parse("2025-08-15T10:00:00Z"));
+        createTransaction("September", 10.0, TransactionStatus.PENDING, ZonedDateTime.parse("2025-09-01T00:00:00Z"));
+
+        mockMvc.perform(get("/api/transactions")
+                        .param("from", "2025-07-31")
+                        .param("to", "2025-07-31"))
+                .andExpect(jsonPath("$.content[*].name").value(contains("July last")));
+
+        for (String page : List.of("0", "1")) {
+            mockMvc.perform(get("/api/transactions")
+                            .param("from", "2025-07-01")
+                            .param("to", "2025-08-31")
+                            .param("sort", "date,asc")
+                            .param("size", "2")
+                            .param("page", page))
+                    .andExpect(jsonPath("$.totalElements").value(3))
+                    .andExpect(jsonPath("$.content[*].name").value(page.equals("0")
+                            ? contains("July first", "July last")
+                            : contains("August")));
+        }
+
+        mockMvc.perform(get("/api/transactions")
+                        .param("mode", "cursor")
+                        .param("direction", "ASC")
+                        .param("from", "2025-06-30")
+                        .param("to", "2025-08-31")
+                        .param("status", "PENDING"))
+                .andExpect(jsonPath("$.content[*].name").value(contains("June", "July first", "August")));
+    }
+
+    @Test
+    void getTransactions_slimEnvelope_inEveryEncoding() throws Exception {
+        createTransaction("Alice", 100.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now().minusDays(1));
+
+        mockMvc.perform(get("/api/transactions"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements").value(1))
+                .andExpect(jsonPath("$.page").value(0))
+                .andExpect(jsonPath("$.pageable").doesNotExist())
+                .andExpect(jsonPath("$.sort").doesNotExist());
+
+        for (MediaType type : List.of(MediaType.APPLICATION_CBOR, MediaType.valueOf("application/x-jackson-smile"))) {
+            byte[] body = mockMvc.perform(get("/api/transactions").accept(type))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentTypeCompatibleWith(type))
+                    .andReturn().getResponse().getContentAsByteArray();
+            ObjectMapper reader = objectMapper.copyWith(type.equals(MediaType.APPLICATION_CBOR) ? new CBORFactory() : new SmileFactory());
+            JsonNode page = reader.readTree(body);
+            assertThat(page.get("totalElements").asLong()).isEqualTo(1);
+            assertThat(page.get("content").get(0).get("name").asText()).isEqualTo("Alice");
+            assertThat(page.get("content").get(0).get("value").asDouble()).isEqualTo(100.0);
+        }
+    }
+
     @Test
     void updateTransaction_modifiesFields() throws Exception {
         ZonedDateTime date = ZonedDateTime.now().minusDays(2);
@@ -108,6 +208,39 @@ public class TransactionApiIntegrationTest {
                 .andExpect(jsonPath("$.value").value(75.0));
     }
 
+    @Test
+    void updateTransaction_withStaleVersion_isRejectedWithConflict() throws Exception {
+        Transaction t = createTransaction("Versioned", 50.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now());
+        assertThat(t.getVersion()).isZero();
+        rollups.rebuild();
+
+        Transaction edit = new Transaction();
+        edit.setName("Renamed");
+        edit.setValue(60.0);
+        edit.setStatus(Transaction.TransactionStatus.PENDING);
+        edit.setDate(t.getDate());
+        edit.setVersion(0L);
+
+        mockMvc.perform(put("/api/transactions/{id}", t.getId())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(edit)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(1));
+
+        // Same base version again: someone else's edit got there first
+        mockMvc.perform(put("/api/transactions/{id}", t.getId())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(edit)))
+                .andExpect(status().isConflict());
+
+        // The guarded UPDATE bypasses entity listeners, the name index must still follow it
+        mockMvc.perform(get("/api/transactions").param("name", "Renamed"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(1))
+                .andExpect(jsonPath("$.content[0].value").value(60.0));
+        assertThat(rollups.check()).isEmpty();
+    }
+
     @Test
     void deleteTransaction_removesIt() throws Exception {
         Transaction t = createTransaction("ToDelete", 10.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now());
@@ -146,4 +279,398 @@ public class TransactionApiIntegrationTest {
                 .andExpect(jsonPath("$.content[?(@.name == 'T2')].status").value("PAID"))
                 .andExpect(jsonPath("$.content[?(@.name == 'T3')].status").value("PENDING"));
     }
+
+    @Test
+    void asyncPayment_isAcceptedAndSettledInTheBackground() throws Exception {
+        createTransaction("T1", 50.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now().minusDays(2));
+        createTransaction("T2", 75.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now().minusDays(1));
+
+        String body = mockMvc.perform(post("/api/transactions/pay")
+                        .param("mode", "async")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"paymentValue\":60}"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists("Location"))
+                .andExpect(jsonPath("$.status").value("QUEUED"))
+                .andReturn().getResponse().getContentAsString();
+        long jobId = objectMapper.readTree(body).get("id").asLong();
+
+        PaymentJob job = awaitFinished(jobId);
+        assertThat(job.getStatus()).isEqualTo(PaymentJob.JobStatus.COMPLETED);
+        assertThat(job.getSettledTransactions()).isEqualTo(1);
+        assertThat(job.getLeftover()).isEqualTo(10.0);
+
+        mockMvc.perform(get("/api/transactions/pay/{jobId}", jobId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("COMPLETED"));
+        mockMvc.perform(get("/api/transactions/pay/{jobId}", jobId + 1000))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void queuedPaymentJobs_areRecoveredOnStartup() throws Exception {
+        createTransaction("T1", 50.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now().minusDays(1));
+
+        // Accepted by a previous run that stopped before settling it
+        PaymentJob stranded = new PaymentJob();
+        stranded.setAmountCents(5000);
+        stranded.setStatus(PaymentJob.JobStatus.QUEUED);
+        stranded = jobRepo.save(stranded);
+
+        assertThat(paymentJobs.recover()).isEqualTo(1);
+
+        assertThat(awaitFinished(stranded.getId()).getStatus()).isEqualTo(PaymentJob.JobStatus.COMPLETED);
+        assertThat(repo.findAll()).extracting(Transaction::getStatus).containsExactly(Transaction.TransactionStatus.PAID);
+    }
+
+    private PaymentJob awaitFinished(long jobId) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            PaymentJob job = jobRepo.findById(jobId).orElseThrow();
+            if (job.getStatus() != PaymentJob.JobStatus.QUEUED) {
+                return job;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Payment job " + jobId + " did not finish");
+    }
+
+    @Test
+    void postTransaction_consumesPendingCredit() throws Exception {
+        // Nothing pending, so the whole payment is kept as credit
+        mockMvc.perform(post("/api/transactions/pay")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"paymentValue\":40}"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(post("/api/transactions")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"Covered\",\"value\":30,\"status\":\"PENDING\",\"date\":\"2025-07-29T10:00:00Z\"}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.status").value("PAID"))
+                .andExpect(jsonPath("$.value").value(0.0));
+
+        mockMvc.perform(post("/api/transactions")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"Partial\",\"value\":50,\"status\":\"PENDING\",\"date\":\"2025-07-30T10:00:00Z\"}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andExpect(jsonPath("$.value").value(40.0));
+
+        assertThat(creditPool.available(null)).isZero();
+    }
+
+    @Test
+    void creditInFractionalAmounts_settlesExactly() throws Exception {
+        // 0.1 + 0.2 is 0.30000000000000004 in binary floating point; in cents it is exactly 30
+        for (String amount : new String[]{"0.1", "0.2"}) {
+            mockMvc.perform(post("/api/transactions/pay")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"paymentValue\":" + amount + "}"))
+                    .andExpect(status().isOk());
+        }
+
+        mockMvc.perform(post("/api/transactions")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"Cents\",\"value\":0.3,\"status\":\"PENDING\",\"date\":\"2025-07-29T10:00:00Z\"}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.status").value("PAID"))
+                .andExpect(jsonPath("$.value").value(0.0));
+
+        assertThat(creditPool.available(null)).isZero();
+    }
+
+    @Test
+    void postBatch_acceptsJsonArray() throws Exception {
+        mockMvc.perform(post("/api/transactions/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                [{"name":"B1","value":10,"status":"PENDING","date":"2025-07-29T10:00:00-05:00"},
+                                 {"name":"B2","value":20,"status":"PENDING","date":"2025-07-30T10:00:00Z"}]
+                                """))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.received").value(2))
+                .andExpect(jsonPath("$.created").value(2))
+                .andExpect(jsonPath("$.items[0].status").value("PENDING"))
+                .andExpect(jsonPath("$.items[1].id").isNumber());
+
+        assertThat(repo.findAll())
+                .extracting(t -> t.getDate().getOffset())
+                .containsOnly(java.time.ZoneOffset.UTC);
+    }
+
+    @Test
+    void postBatch_acceptsNdjson_andReportsFailedItems() throws Exception {
+        String tooLong = "x".repeat(300);
+
+        mockMvc.perform(post("/api/transactions/batch")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"name\":\"N1\",\"value\":10,\"status\":\"PENDING\"}\n"
+                                + "{\"name\":\"" + tooLong + "\",\"value\":10,\"status\":\"PENDING\"}\n"
+                                + "{\"name\":\"N3\",\"value\":10,\"status\":\"PENDING\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.received").value(3))
+                .andExpect(jsonPath("$.created").value(2))
+                .andExpect(jsonPath("$.failed").value(1))
+                .andExpect(jsonPath("$.items[1].index").value(1))
+                .andExpect(jsonPath("$.items[1].error").isNotEmpty());
+
+        assertThat(repo.findAll()).extracting(Transaction::getName).containsExactlyInAnyOrder("N1", "N3");
+    }
+
+    @Test
+    void getTransactions_withoutCount_skipsTotals() throws Exception {
+        createTransaction("Alice", 100.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now().minusDays(1));
+        createTransaction("Bob", 200.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now().minusDays(2));
+
+        mockMvc.perform(get("/api/transactions")
+                        .param("count", "false")
+                        .param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].name").value("Alice"))
+                .andExpect(jsonPath("$.last").value(false))
+                .andExpect(jsonPath("$.totalElements").doesNotExist());
+    }
+
+    @Test
+    void getTransactions_cursorMode_walksAllWindowsInDateOrder() throws Exception {
+        ZonedDateTime base = ZonedDateTime.now().minusDays(10);
+        for (int i = 0; i < 5; i++) {
+            createTransaction("C" + i, 10.0, Transaction.TransactionStatus.PENDING, base.plusDays(i));
+        }
+        // Same date as C4, the id breaks the tie
+        createTransaction("C5", 10.0, Transaction.TransactionStatus.PENDING, base.plusDays(4));
+        createTransaction("Other", 10.0, Transaction.TransactionStatus.PAID, base.plusDays(2));
+        // No (date, id) position to seek past, so cursor mode leaves them out
+        createTransaction("Undated", 10.0, Transaction.TransactionStatus.PENDING, null);
+        createTransaction("Undated", 10.0, Transaction.TransactionStatus.PENDING, null);
+
+        java.util.List<String> names = new java.util.ArrayList<>();
+        String cursor = null;
+        do {
+            var request = get("/api/transactions")
+                    .param("mode", "cursor")
+                    .param("status", "PENDING")
+                    .param("size", "2");
+            if (cursor != null) {
+                request.param("cursor", cursor);
+            }
+            String body = mockMvc.perform(request)
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.totalElements").doesNotExist())
+                    .andReturn().getResponse().getContentAsString();
+
+            var json = objectMapper.readTree(body);
+            json.get("content").forEach(node -> names.add(node.get("name").asText()));
+            cursor = json.get("nextCursor").isNull() ? null : json.get("nextCursor").asText();
+        } while (cursor != null);
+
+        assertThat(names).containsExactly("C5", "C4", "C3", "C2", "C1", "C0");
+    }
+
+    @Test
+    void getTransactions_cursorMode_rejectsForeignCursors_andCapsTheWindowSize() throws Exception {
+        mockMvc.perform(get("/api/transactions")
+                        .param("mode", "cursor")
+                        .param("cursor", "not-a-cursor"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Invalid cursor"));
+        // A position without a date was never handed out
+        String undated = java.util.Base64.getUrlEncoder().withoutPadding().encodeToString("|42".getBytes());
+        mockMvc.perform(get("/api/transactions")
+                        .param("mode", "cursor")
+                        .param("cursor", undated))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/api/transactions")
+                        .param("mode", "cursor")
+                        .param("size", "1000000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").value(2000));
+    }
+
+    @Test
+    void idsOutsideEveryShard_areNotFound() throws Exception {
+        long foreign = 1L << 50;
+        Transaction body = new Transaction();
+        body.setName("Nobody");
+
+        mockMvc.perform(put("/api/transactions/{id}", foreign)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(body)))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").value("Transaction not found"));
+        mockMvc.perform(delete("/api/transactions/{id}", foreign))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(delete("/api/transactions/{id}", -1L))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/transactions/pay/{jobId}", foreign))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(post("/api/transactions/bulk/delete")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\": [" + foreign + "]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affected").value(0));
+    }
+
+    @Test
+    void export_streamsFilteredRowsAsNdjsonAndCsv() throws Exception {
+        createTransaction("Old", 10.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now().minusDays(3));
+        createTransaction("Rent, March", 20.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now().minusDays(2));
+        createTransaction("Paid", 30.0, Transaction.TransactionStatus.PAID, ZonedDateTime.now().minusDays(1));
+        Transaction owned = new Transaction();
+        owned.setAccount("acc-7");
+        owned.setName("Owned");
+        owned.setValue(40.0);
+        owned.setStatus(Transaction.TransactionStatus.PENDING);
+        owned.setDate(ZonedDateTime.now().minusHours(1));
+        owned = repo.save(owned);
+
+        var ndjson = mockMvc.perform(get("/api/transactions/export").param("status", "PENDING"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String lines = mockMvc.perform(asyncDispatch(ndjson))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+        assertThat(lines.lines().map(line -> {
+            try {
+                return objectMapper.readTree(line).get("name").asText();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        })).containsExactly("Old", "Rent, March", "Owned");
+
+        var csv = mockMvc.perform(get("/api/transactions/export").param("format", "csv").param("status", "PENDING"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String rows = mockMvc.perform(asyncDispatch(csv))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assertThat(rows.lines().toList()).hasSize(4);
+        assertThat(rows.lines().findFirst()).contains("id,account,name,date,value,status");
+        assertThat(rows).contains(",,\"Rent, March\",");
+        assertThat(rows).contains(owned.getId() + ",acc-7,Owned,");
+    }
+
+    @Test
+    void getTransactions_repeatedReadsHitCache_untilAWriteInvalidatesThem() throws Exception {
+        Transaction t = createTransaction("Cached", 10.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now().minusDays(1));
+        SearchResultCache.Stats before = searchCache.stats();
+
+        for (int i = 0; i < 5; i++) {
+            mockMvc.perform(get("/api/transactions").param("status", "PENDING"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.content.length()").value(1));
+        }
+        SearchResultCache.Stats warm = searchCache.stats();
+        assertThat(warm.misses() - before.misses()).isEqualTo(1);
+        assertThat(warm.hits() - before.hits()).isEqualTo(4);
+
+        // A REJECTED-only query is unaffected by the PENDING row being deleted
+        mockMvc.perform(get("/api/transactions").param("status", "REJECTED")).andExpect(status().isOk());
+        mockMvc.perform(delete("/api/transactions/{id}", t.getId())).andExpect(status().isNoContent());
+        assertThat(searchCache.stats().size()).isEqualTo(1);
+
+        mockMvc.perform(get("/api/transactions").param("status", "PENDING"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content.length()").value(0));
+    }
+
+    @Test
+    void prometheusEndpoint_exposesOperationTimersAndStatementCounts() throws Exception {
+        mockMvc.perform(post("/api/transactions")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"Metered\",\"value\":10,\"status\":\"PENDING\",\"date\":\"2025-07-29T10:00:00Z\"}"))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/api/transactions/pay")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"paymentValue\":15}"))
+                .andExpect(status().isOk());
+
+        String scrape = mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("transactions_operation_seconds_count{operation=\"create\"")))
+                .andExpect(content().string(containsString("transactions_rows_updated_rows_total{operation=\"pay\"")))
+                .andExpect(content().string(containsString("transactions_payment_leftover_count")))
+                .andExpect(content().string(containsString("transactions_http_sql_statements_count{method=\"POST\",uri=\"/api/transactions/pay\"")))
+                .andExpect(content().string(containsString("hikaricp_connections_acquire_seconds")))
+                .andReturn().getResponse().getContentAsString();
+
+        // The settlement ran on the writer thread but its statements are charged to the request
+        String paySum = scrape.lines()
+                .filter(l -> l.startsWith("transactions_http_sql_statements_sum{method=\"POST\",uri=\"/api/transactions/pay\""))
+                .findFirst().orElseThrow();
+        assertThat(Double.parseDouble(paySum.substring(paySum.lastIndexOf(' ') + 1))).isPositive();
+    }
+
+    @Test
+    void searchCacheStats_areExposed() throws Exception {
+        mockMvc.perform(get("/api/transactions/search-cache/stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits").isNumber())
+                .andExpect(jsonPath("$.misses").isNumber());
+    }
+
+    private long createViaApi(String name, double value, String date) throws Exception {
+        String body = mockMvc.perform(post("/api/transactions")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"" + name + "\",\"value\":" + value
+                                + ",\"status\":\"PENDING\",\"date\":\"" + date + "\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body).get("id").asLong();
+    }
+
+    @Test
+    void summary_tracksEveryWriteIncrementally() throws Exception {
+        createViaApi("A", 10.0, "2025-07-01T10:00:00Z");
+        // 23:30 in Bogota is already the next day in UTC
+        createViaApi("B", 20.0, "2025-07-01T23:30:00-05:00");
+        long c = createViaApi("C", 40.0, "2025-07-03T10:00:00Z");
+        long d = createViaApi("D", 5.0, "2025-07-04T10:00:00Z");
+
+        mockMvc.perform(post("/api/transactions/pay")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"paymentValue\":35}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(put("/api/transactions/{id}", c)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"C\",\"value\":45,\"status\":\"REJECTED\",\"date\":\"2025-07-03T10:00:00Z\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(delete("/api/transactions/{id}", d)).andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/api/transactions/summary"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.byStatus[?(@.status == 'PAID')].count").value(2))
+                .andExpect(jsonPath("$.byStatus[?(@.status == 'PAID')].total").value(30.0))
+                .andExpect(jsonPath("$.byStatus[?(@.status == 'REJECTED')].total").value(45.0))
+                .andExpect(jsonPath("$.byStatus[?(@.status == 'PENDING')].count").value(0))
+                .andExpect(jsonPath("$.byDay[?(@.day == '2025-07-02')].total").value(20.0));
+
+        mockMvc.perform(get("/api/transactions/summary")
+                        .param("from", "2025-07-02")
+                        .param("to", "2025-07-03"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.byDay.length()").value(2));
+
+        mockMvc.perform(get("/api/transactions/summary/check"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void summaryCheck_reportsDrift_andRebuildRepairsIt() throws Exception {
+        // Written behind the service's back, so the rollups never saw it
+        createTransaction("Hidden", 12.0, Transaction.TransactionStatus.PENDING, ZonedDateTime.now());
+
+        mockMvc.perform(get("/api/transactions/summary/check"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].expectedCount").value(1))
+                .andExpect(jsonPath("$[0].actualCount").value(0));
+
+        mockMvc.perform(post("/api/transactions/summary/rebuild")).andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/transactions/summary/check"))
+                .andExpect(jsonPath("$.length()").value(0));
+    }
 }
@@ -0,0 +1,61 @@
+package com.transactions.config;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class LegacySchemaCallbackTest {
+
+    @Test
+    void databaseFromBeforeMigrations_isBaselinedAndUpgradedInPlace() {
+        DriverManagerDataSource db = new DriverManagerDataSource("jdbc:h2:mem:legacy-schema;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(db);
+        // The tables ddl-auto=update made for the first build: identity ids and decimal amounts only
+        jdbc.execute("CREATE TABLE transactions (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                + " date TIMESTAMP(6) WITH TIME ZONE, name VARCHAR(255),"
+                + " status VARCHAR(255) CHECK (status IN ('PENDING', 'PAID', 'REJECTED')), transaction_value FLOAT(53))");
+        jdbc.execute("CREATE TABLE payments (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                + " payment_value FLOAT(53), status VARCHAR(255) CHECK (status IN ('PENDING', 'COMPLETED')))");
+        jdbc.update("INSERT INTO transactions (date, name, status, transaction_value) VALUES"
+                + " (TIMESTAMP WITH TIME ZONE '2025-07-31 23:30:00-05:00', 'Rent', 'PENDING', 100.1),"
+                + " (TIMESTAMP WITH TIME ZONE '2025-07-01 09:00:00+00:00', 'Power', 'PAID', 80.0)");
+        jdbc.update("INSERT INTO payments (status, payment_value) VALUES ('COMPLETED', 80.0)");
+
+        Flyway.configure().dataSource(db)
+                .baselineOnMigrate(true)
+                .baselineVersion("0")
+                .callbacks(new LegacySchemaCallback())
+                .load()
+                .migrate();
+
+        assertThat(jdbc.queryForList("SELECT id, value_cents, version, month_key, account FROM transactions ORDER BY id"))
+                .containsExactly(row(1L, 10010L, 202508), row(2L, 8000L, 202507));
+        assertThat(jdbc.queryForObject("SELECT value_cents FROM payments", Long.class)).isEqualTo(8000L);
+        // The rollups start out holding the rows that were already there
+        assertThat(jdbc.queryForList("SELECT bucket_day, status, tx_count, total_cents FROM transaction_rollups ORDER BY bucket_day"))
+                .extracting(r -> r.get("BUCKET_DAY").toString(), r -> r.get("STATUS"), r -> r.get("TX_COUNT"), r -> r.get("TOTAL_CENTS"))
+                .containsExactly(tuple("2025-07-01", "PAID", 1L, 8000L), tuple("2025-08-01", "PENDING", 1L, 10010L));
+        // Pooled ids hand out the 49 values below what the sequence returns
+        assertThat(jdbc.queryForObject("SELECT NEXT VALUE FOR transactions_seq", Long.class) - 49).isGreaterThan(2L);
+        assertThat(jdbc.queryForObject("SELECT NEXT VALUE FOR payments_seq", Long.class) - 49).isGreaterThan(1L);
+        assertThat(jdbc.queryForList("SELECT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = 'TRANSACTIONS'", String.class))
+                .contains("IDX_TRANSACTIONS_ACCOUNT_STATUS_DATE", "IDX_TRANSACTIONS_MONTH_STATUS_DATE");
+    }
+
+    private static Map<String, Object> row(long id, long cents, int monthKey) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("ID", id);
+        row.put("VALUE_CENTS", cents);
+        row.put("VERSION", 0L);
+        row.put("MONTH_KEY", monthKey);
+        row.put("ACCOUNT", null);
+        return row;
+    }
+}
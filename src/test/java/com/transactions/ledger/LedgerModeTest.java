@@ -0,0 +1,139 @@
+package com.transactions.ledger;
+
+import com.transactions.model.Transaction;
+import com.transactions.repository.LedgerCheckpointRepository;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.service.AccountBalance;
+import com.transactions.service.RollupService;
+import com.transactions.service.TransactionService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest(properties = {
+        "transactions.ledger.enabled=true",
+        "spring.datasource.url=jdbc:h2:mem:ledger;DB_CLOSE_DELAY=-1",
+        "transactions.search-cache.enabled=false"
+})
+class LedgerModeTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2025, 3, 1, 9, 0, 0, 0, ZoneOffset.UTC);
+
+    @DynamicPropertySource
+    static void ledgerDir(DynamicPropertyRegistry registry) throws IOException {
+        String dir = Files.createTempDirectory("ledger").toString();
+        registry.add("transactions.ledger.dir", () -> dir);
+    }
+
+    @Autowired
+    private TransactionService service;
+
+    @Autowired
+    private Ledger ledger;
+
+    @Autowired
+    private TransactionRepository repo;
+
+    @Autowired
+    private PaymentRepository paymentRepo;
+
+    @Autowired
+    private LedgerCheckpointRepository checkpointRepo;
+
+    @Autowired
+    private RollupService rollups;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    private Transaction create(String account, String name, int day, double value) {
+        Transaction t = new Transaction();
+        t.setAccount(account);
+        t.setName(name);
+        t.setDate(START.plusDays(day));
+        t.setValue(value);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+        return service.save(t);
+    }
+
+    @Test
+    void balances_followTheTables_andSurviveRecovery_andRebuildThem() {
+        Transaction rent = create("acme", "Rent", 0, 10.0);
+        Transaction bill = create("acme", "Bill", 1, 20.0);
+        Transaction other = create("other", "Other", 0, 5.0);
+        service.makePayment(15.0, "acme");
+
+        Transaction edit = new Transaction();
+        edit.setName("Bigger bill");
+        edit.setDate(bill.getDate());
+        edit.setValue(30.0);
+        edit.setStatus(Transaction.TransactionStatus.PENDING);
+        service.update(bill.getId(), edit);
+        Transaction covered = create("acme", "Coffee", 2, 3.0);
+        service.delete(other.getId());
+
+        assertThat(covered.getStatus()).isEqualTo(Transaction.TransactionStatus.PAID);
+        assertThat(service.balance("acme")).isEqualTo(new AccountBalance("acme", 1, 30.0, 2.0));
+        assertThat(service.balance("other")).isEqualTo(new AccountBalance("other", 0, 0.0, 0.0));
+        TransactionRepository.PendingTotal inTable = repo.pendingTotal("acme");
+        assertThat(inTable.getCount()).isEqualTo(1);
+        assertThat(inTable.getCents()).isEqualTo(3000);
+
+        // A restart rebuilds the same state from the snapshot and the log
+        ledger.recover();
+        assertThat(service.balance("acme")).isEqualTo(new AccountBalance("acme", 1, 30.0, 2.0));
+
+        // Tables that lost everything are rebuilt from the log
+        new TransactionTemplate(txManager).executeWithoutResult(status -> {
+            repo.deleteAll();
+            paymentRepo.deleteAll();
+            checkpointRepo.advance(0);
+        });
+        rollups.rebuild();
+        ledger.recover();
+
+        assertThat(repo.findAll()).extracting(Transaction::getName, Transaction::getStatus, Transaction::getValue)
+                .containsExactlyInAnyOrder(
+                        tuple("Rent", Transaction.TransactionStatus.PAID, 10.0),
+                        tuple("Bigger bill", Transaction.TransactionStatus.PENDING, 30.0),
+                        tuple("Coffee", Transaction.TransactionStatus.PAID, 0.0));
+        assertThat(repo.findById(rent.getId())).isPresent();
+        assertThat(paymentRepo.sumPendingCreditByAccount())
+                .extracting(PaymentRepository.AccountCredit::getAccount, PaymentRepository.AccountCredit::getCents)
+                .contains(tuple("acme", 200L));
+        assertThat(rollups.check()).isEmpty();
+        assertThat(service.balance("acme")).isEqualTo(new AccountBalance("acme", 1, 30.0, 2.0));
+    }
+
+    @Test
+    void rolledBackChanges_leaveTheLedgerAlone() {
+        Transaction t = new Transaction();
+        t.setId(Long.MAX_VALUE >>> 30);
+        t.setAccount("rolled-back");
+        t.setValueCents(500L);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+
+        new TransactionTemplate(txManager).executeWithoutResult(status -> {
+            ledger.created(t, 0);
+            status.setRollbackOnly();
+        });
+        service.makePayment(10.0, "rolled-back");
+
+        assertThat(service.balance("rolled-back")).isEqualTo(new AccountBalance("rolled-back", 0, 0.0, 10.0));
+        ledger.recover();
+        assertThat(service.balance("rolled-back")).isEqualTo(new AccountBalance("rolled-back", 0, 0.0, 10.0));
+    }
+}
@@ -0,0 +1,142 @@
+package com.transactions.ledger;
+
+import com.transactions.model.Transaction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LedgerTest {
+
+    // Header, seq, type byte, id and a one-letter account: 30 bytes per entry
+    private static final int DELETED_ENTRY = 30;
+
+    @TempDir
+    private Path dir;
+
+    private static List<LedgerEvent> deletes(int from, int to) {
+        List<LedgerEvent> events = new ArrayList<>();
+        for (int id = from; id <= to; id++) {
+            events.add(new LedgerEvent.Deleted(id, "a"));
+        }
+        return events;
+    }
+
+    private static List<LedgerEvent> readAll(LedgerFile file, long after) {
+        List<LedgerEvent> events = new ArrayList<>();
+        file.read(after, (seq, event) -> events.add(event));
+        return events;
+    }
+
+    @Test
+    void entries_surviveReopening() {
+        LedgerEvent created = new LedgerEvent.Created(7, "acme", "Rent", Instant.parse("2025-03-01T09:00:00Z"),
+                1000L, Transaction.TransactionStatus.PENDING, 250);
+        LedgerEvent settled = new LedgerEvent.Settled(null, 500, 1, 0);
+        try (LedgerFile file = new LedgerFile(dir, 4096)) {
+            assertThat(file.append(List.of(created, settled))).isEqualTo(2);
+        }
+
+        try (LedgerFile file = new LedgerFile(dir, 4096)) {
+            assertThat(file.lastSeq()).isEqualTo(2);
+            assertThat(readAll(file, 0)).containsExactly(created, settled);
+            assertThat(readAll(file, 1)).containsExactly(settled);
+        }
+    }
+
+    @Test
+    void tornWrite_isDroppedAndOverwritten() throws IOException {
+        try (LedgerFile file = new LedgerFile(dir, 4096)) {
+            file.append(deletes(1, 3));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {42}), 2 * DELETED_ENTRY + 20);
+        }
+
+        try (LedgerFile file = new LedgerFile(dir, 4096)) {
+            assertThat(file.lastSeq()).isEqualTo(2);
+            file.append(deletes(9, 9));
+            assertThat(readAll(file, 0)).containsExactly(
+                    new LedgerEvent.Deleted(1, "a"), new LedgerEvent.Deleted(2, "a"), new LedgerEvent.Deleted(9, "a"));
+        }
+    }
+
+    @Test
+    void segments_rollAndOldOnesAreDropped() {
+        try (LedgerFile file = new LedgerFile(dir, 3 * DELETED_ENTRY)) {
+            for (int id = 1; id <= 10; id++) {
+                file.append(deletes(id, id));
+            }
+            assertThat(file.firstSeq()).isEqualTo(1);
+
+            file.dropThrough(6);
+
+            assertThat(file.firstSeq()).isEqualTo(7);
+            assertThat(readAll(file, 6)).isEqualTo(deletes(7, 10));
+            assertThatThrownBy(() -> file.read(2, (seq, event) -> {})).hasMessageContaining("missing");
+        }
+    }
+
+    @Test
+    void state_settlesOldestFirst_andUndoes() {
+        LedgerState state = new LedgerState();
+        state.apply(new LedgerEvent.Created(2, "acme", "Later", Instant.parse("2025-03-02T00:00:00Z"), 300L,
+                Transaction.TransactionStatus.PENDING, 0), null);
+        state.apply(new LedgerEvent.Created(1, "acme", "Earlier", Instant.parse("2025-03-01T00:00:00Z"), 200L,
+                Transaction.TransactionStatus.PENDING, 0), null);
+        state.apply(new LedgerEvent.Created(3, "acme", "Undated", null, 100L,
+                Transaction.TransactionStatus.PENDING, 0), null);
+
+        assertThat(state.covered("acme", 350)).extracting(LedgerState.Pending::id).containsExactly(3L, 1L);
+
+        List<LedgerState.Pending> settled = new ArrayList<>();
+        Runnable undo = state.apply(new LedgerEvent.Settled("acme", 350, 2, 50), settled);
+        assertThat(settled).extracting(LedgerState.Pending::id).containsExactly(3L, 1L);
+        assertThat(state.account("acme").pendingCents()).isEqualTo(300);
+        assertThat(state.account("acme").credit()).isEqualTo(50);
+
+        undo.run();
+        assertThat(state.account("acme").pendingCount()).isEqualTo(3);
+        assertThat(state.account("acme").credit()).isZero();
+
+        assertThatThrownBy(() -> state.apply(new LedgerEvent.Settled("acme", 350, 3, 50), null))
+                .hasMessageContaining("diverged");
+    }
+
+    @Test
+    void snapshot_roundTrips() throws IOException {
+        LedgerState state = new LedgerState();
+        state.seed("acme", new LedgerState.Pending(1, Instant.parse("2025-03-01T00:00:00Z"), 200));
+        state.seed(null, new LedgerState.Pending(2, null, 100));
+        state.seedCredit("acme", 75);
+        Path snapshot = dir.resolve("snapshot");
+        state.writeSnapshot(snapshot, 42);
+
+        LedgerState read = new LedgerState();
+        assertThat(read.readSnapshot(snapshot)).isEqualTo(42);
+        assertThat(read.account("acme").pendingCents()).isEqualTo(200);
+        assertThat(read.account("acme").credit()).isEqualTo(75);
+        assertThat(read.covered(null, 100)).containsExactly(new LedgerState.Pending(2, null, 100));
+
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[20] ^= 1;
+        Files.write(snapshot, bytes);
+        assertThatThrownBy(() -> new LedgerState().readSnapshot(snapshot)).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,125 @@
+package com.transactions.search;
+
+import com.transactions.model.Transaction;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.service.AfterCommit;
+import com.transactions.service.SearchResultCache;
+import com.transactions.service.TransactionService;
+import com.transactions.spec.TransactionSpecification;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:names;DB_CLOSE_DELAY=-1")
+class NameSearchIndexTest {
+
+    private static final List<String> WORDS = List.of("Rent", "rent", "GROCERIES", "Groceries at Joe's",
+            "power bill", "Car rental", "a", "ab", "abc", "Ünïcode café", "Water");
+
+    @Autowired
+    private TransactionService service;
+
+    @Autowired
+    private TransactionRepository repo;
+
+    @Autowired
+    private NameSearchIndex index;
+
+    @Autowired
+    private SearchResultCache searchCache;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    @BeforeEach
+    void cleanDb() {
+        repo.deleteAll();
+        searchCache.clear();
+    }
+
+    private List<Long> viaService(String name) {
+        return service.searchWithFilters(name, null, null, null, Pageable.unpaged()).stream()
+                .map(Transaction::getId).sorted().toList();
+    }
+
+    private List<Long> viaLike(String name) {
+        return repo.findAll(TransactionSpecification.hasName(name)).stream()
+                .map(Transaction::getId).sorted().toList();
+    }
+
+    @Test
+    void search_matchesLikeSemantics_acrossCreatesUpdatesAndDeletes() {
+        Random random = new Random(7);
+        for (int i = 0; i < 60; i++) {
+            Transaction t = new Transaction();
+            t.setName(WORDS.get(random.nextInt(WORDS.size())) + (random.nextBoolean() ? " " + i : ""));
+            t.setValue(10.0);
+            t.setStatus(Transaction.TransactionStatus.PENDING);
+            t.setDate(ZonedDateTime.now());
+            repo.save(t);
+        }
+        List<Transaction> all = repo.findAll();
+        for (int i = 0; i < 10; i++) {
+            Transaction renamed = all.get(i);
+            renamed.setName("Renamed " + i);
+            repo.save(renamed);
+        }
+        repo.deleteAll(all.subList(10, 20));
+
+        List<String> queries = List.of("rent", "RENT", "re", "r", "oce", "joe's", "renamed 1", "café",
+                "1", "zzz", "power bill", "a_c", "%", "e 5");
+        for (String q : queries) {
+            assertThat(viaService(q)).as("name=%s", q).isEqualTo(viaLike(q));
+        }
+    }
+
+    @Test
+    void candidates_defersToLike_forWildcardsAndIsExactOtherwise() {
+        Transaction t = new Transaction();
+        t.setName("Monthly Rent");
+        t.setValue(10.0);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+        Long id = repo.save(t).getId();
+
+        assertThat(index.candidates("rent")).contains(java.util.Set.of(id));
+        assertThat(index.candidates("rents")).contains(java.util.Set.of());
+        assertThat(index.candidates("r_nt")).isEmpty();
+
+        index.rebuild();
+        assertThat(index.candidates("monthly")).contains(java.util.Set.of(id));
+    }
+
+    @Test
+    void searchBetweenCommitAndIndexUpdate_doesNotLeaveAStalePageCached() {
+        Transaction t = new Transaction();
+        t.setName("Old name");
+        t.setValue(10.0);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+        Long id = repo.save(t).getId();
+        assertThat(viaService("renamed")).isEmpty();
+
+        new TransactionTemplate(txManager).executeWithoutResult(status -> {
+            Transaction renamed = repo.findById(id).orElseThrow();
+            SearchResultCache.RowState before = SearchResultCache.RowState.of(renamed);
+            renamed.setName("Renamed");
+            repo.save(renamed);
+            searchCache.invalidate(before, SearchResultCache.RowState.of(renamed));
+            // A request on another thread searches once the row is committed but, as the listener
+            // registers its index update at flush, before the name index has it
+            AfterCommit.run(() -> assertThat(CompletableFuture.supplyAsync(() -> viaService("renamed")).join()).isEmpty());
+        });
+
+        assertThat(viaService("renamed")).containsExactly(id);
+    }
+}
@@ -0,0 +1,149 @@
+package com.transactions.service;
+
+import com.transactions.model.Transaction;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.shard.Shards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest(properties = {
+        "transactions.shards.count=2",
+        "transactions.shards.url=jdbc:h2:mem:bulk{shard};DB_CLOSE_DELAY=-1",
+        "transactions.bulk.chunk-size=2"
+})
+class BulkWriteTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2025, 5, 1, 9, 0, 0, 0, ZoneOffset.UTC);
+
+    @Autowired
+    private TransactionService service;
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private TransactionRepository repo;
+
+    @Autowired
+    private PaymentRepository paymentRepo;
+
+    @Autowired
+    private PendingCreditPool creditPool;
+
+    @Autowired
+    private RollupService rollups;
+
+    // One account per shard
+    private final List<String> accounts = new ArrayList<>();
+    // Per shard: the first row is PAID, the other three PENDING
+    private final List<List<Long>> ids = new ArrayList<>();
+
+    @BeforeEach
+    void seed() {
+        shards.onEach(shard -> {
+            repo.deleteAll();
+            paymentRepo.deleteAll();
+            return null;
+        });
+        creditPool.reload();
+        rollups.rebuild();
+
+        for (int i = 0; accounts.size() < shards.count(); i++) {
+            String account = "bulk-" + i;
+            if (shards.shardOf(account) == accounts.size()) {
+                accounts.add(account);
+            }
+        }
+        for (String account : accounts) {
+            List<Long> shardIds = new ArrayList<>();
+            for (int day = 0; day < 4; day++) {
+                Transaction t = new Transaction();
+                t.setAccount(account);
+                t.setName(day % 2 == 0 ? "Rent" : "Power");
+                t.setDate(START.plusDays(day));
+                t.setValue(10.0);
+                t.setStatus(Transaction.TransactionStatus.PENDING);
+                shardIds.add(service.save(t).getId());
+            }
+            service.makePayment(10.0, account);
+            ids.add(shardIds);
+        }
+    }
+
+    private Transaction.TransactionStatus statusOf(long id) {
+        return shards.on(shards.shardOfId(id), () -> repo.findById(id).map(Transaction::getStatus).orElse(null));
+    }
+
+    private boolean exists(long id) {
+        return shards.on(shards.shardOfId(id), () -> repo.existsById(id));
+    }
+
+    @Test
+    void bulkStatus_byIds_runsOneStatementPerChunkPerShard_andLeavesPaidRowsAlone() {
+        List<Long> all = new ArrayList<>();
+        ids.forEach(all::addAll);
+        all.add(ids.get(0).get(3) + 1000);
+
+        BulkResult result = service.bulkUpdateStatus(all, null, Transaction.TransactionStatus.REJECTED);
+
+        // Shard 0 has four ids and a missing one, shard 1 four: 2 + 2 + 1 and 2 + 2
+        assertThat(result.matched()).isEqualTo(9);
+        assertThat(result.affected()).isEqualTo(6);
+        assertThat(result.chunks()).allSatisfy(chunk -> assertThat(chunk.matched()).isLessThanOrEqualTo(2));
+        assertThat(result.chunks()).extracting(BulkResult.Chunk::shard).containsOnly(0, 1);
+        assertThat(result.chunks()).hasSize(5);
+        for (List<Long> shardIds : ids) {
+            assertThat(statusOf(shardIds.get(0))).isEqualTo(Transaction.TransactionStatus.PAID);
+            assertThat(shardIds.subList(1, 4)).allSatisfy(id ->
+                    assertThat(statusOf(id)).isEqualTo(Transaction.TransactionStatus.REJECTED));
+        }
+        assertThat(rollups.check()).isEmpty();
+    }
+
+    @Test
+    void bulkDelete_byFilter_walksEveryShardInChunks() {
+        // Rent on days 0 and 2; day 0 is PAID, so one row per shard goes
+        BulkFilter rentUntilDay2 = new BulkFilter("Rent", null, LocalDate.of(2025, 5, 3), null);
+
+        BulkResult result = service.bulkDelete(null, rentUntilDay2);
+
+        assertThat(result.chunks())
+                .extracting(BulkResult.Chunk::shard, BulkResult.Chunk::matched, BulkResult.Chunk::affected)
+                .containsExactly(tuple(0, 1, 1), tuple(1, 1, 1));
+        for (List<Long> shardIds : ids) {
+            assertThat(exists(shardIds.get(0))).isTrue();
+            assertThat(exists(shardIds.get(2))).isFalse();
+            assertThat(exists(shardIds.get(3))).isTrue();
+        }
+        assertThat(service.searchWithFilters("Rent", null, null, null, PageRequest.of(0, 10))
+                .getContent()).extracting(Transaction::getId)
+                .containsExactlyInAnyOrder(ids.get(0).get(0), ids.get(1).get(0));
+        assertThat(rollups.check()).isEmpty();
+    }
+
+    @Test
+    void bulkWrites_takeIdsOrAFilter_andNeverSetPaid() {
+        BulkFilter pending = new BulkFilter(null, null, null, "PENDING");
+
+        assertThatThrownBy(() -> service.bulkUpdateStatus(List.of(1L), pending, Transaction.TransactionStatus.REJECTED))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.bulkDelete(null, new BulkFilter(null, null, null, null)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.bulkUpdateStatus(null, pending, Transaction.TransactionStatus.PAID))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
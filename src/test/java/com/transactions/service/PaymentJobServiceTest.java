@@ -0,0 +1,145 @@
+package com.transactions.service;
+
+import com.transactions.metrics.SqlStatementCounter;
+import com.transactions.model.PaymentJob;
+import com.transactions.repository.PaymentJobRepository;
+import com.transactions.shard.Shards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PaymentJobServiceTest {
+
+    @Mock
+    private PaymentJobRepository jobRepo;
+
+    @Mock
+    private TransactionService transactions;
+
+    @Mock
+    private SettlementEngine engine;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private PaymentJobService service;
+
+    // Workers block in the engine until the test releases them, so submitted jobs pile up
+    @BeforeEach
+    void setUp() {
+        AtomicLong ids = new AtomicLong();
+        lenient().when(jobRepo.save(any())).thenAnswer(inv -> {
+            PaymentJob job = inv.getArgument(0);
+            job.setId(ids.incrementAndGet());
+            return job;
+        });
+        lenient().when(engine.execute(anyInt(), any())).thenAnswer(inv -> {
+            release.await(10, TimeUnit.SECONDS);
+            return null;
+        });
+        when(jobRepo.findQueuedIds()).thenReturn(List.of());
+
+        Shards shards = new Shards(1, new SqlStatementCounter(), mock(PlatformTransactionManager.class));
+        service = new PaymentJobService(jobRepo, transactions, engine, shards, 1, 2, 3, Duration.ofMillis(1));
+        service.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        service.stop();
+    }
+
+    @Test
+    void submit_rejectsOnceTheIntakeIsFull_andAcceptsAgainWhenJobsFinish() throws Exception {
+        Optional<PaymentJob> first = service.submit(1000, null);
+        Optional<PaymentJob> second = service.submit(2000, null);
+        Optional<PaymentJob> third = service.submit(3000, null);
+
+        assertTrue(first.isPresent());
+        assertEquals(PaymentJob.JobStatus.QUEUED, first.get().getStatus());
+        assertTrue(second.isPresent());
+        assertTrue(third.isEmpty());
+        verify(jobRepo, times(2)).save(any());
+
+        release.countDown();
+        for (int i = 0; i < 100 && service.outstanding() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, service.outstanding());
+        assertTrue(service.submit(4000, null).isPresent());
+    }
+
+    @Test
+    void recover_requeuesJobsLeftQueued() {
+        when(jobRepo.findQueuedIds()).thenReturn(List.of(7L, 8L));
+
+        assertEquals(2, service.recover());
+        assertEquals(2, service.outstanding());
+    }
+
+    @Test
+    void transientFailure_isRetried_andTheJobNotMarkedFailed() throws Exception {
+        doThrow(new CannotAcquireLockException("Timeout trying to lock table"))
+                .doReturn(null)
+                .when(engine).execute(anyInt(), any());
+
+        service.submit(1000, null);
+        awaitIdle();
+
+        verify(engine, times(2)).execute(anyInt(), any());
+        verify(jobRepo, never()).findById(any());
+    }
+
+    @Test
+    void permanentFailure_marksTheJobFailedWithoutRetrying() throws Exception {
+        PaymentJob job = new PaymentJob();
+        job.setStatus(PaymentJob.JobStatus.QUEUED);
+        when(jobRepo.findById(1L)).thenReturn(Optional.of(job));
+        doThrow(new IllegalStateException("No such account")).when(engine).execute(anyInt(), any());
+
+        service.submit(1000, null);
+        awaitIdle();
+
+        verify(engine, times(1)).execute(anyInt(), any());
+        assertEquals(PaymentJob.JobStatus.FAILED, job.getStatus());
+        assertEquals("No such account", job.getError());
+    }
+
+    @Test
+    void transientFailure_thatOutlastsTheAttempts_marksTheJobFailed() throws Exception {
+        PaymentJob job = new PaymentJob();
+        job.setStatus(PaymentJob.JobStatus.QUEUED);
+        when(jobRepo.findById(1L)).thenReturn(Optional.of(job));
+        doThrow(new CannotAcquireLockException("Timeout trying to lock table")).when(engine).execute(anyInt(), any());
+
+        service.submit(1000, null);
+        awaitIdle();
+
+        verify(engine, times(3)).execute(anyInt(), any());
+        assertEquals(PaymentJob.JobStatus.FAILED, job.getStatus());
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        for (int i = 0; i < 250 && service.outstanding() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, service.outstanding());
+    }
+}
@@ -0,0 +1,139 @@
+package com.transactions.service;
+
+import com.transactions.model.Payment;
+import com.transactions.model.Transaction;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionArchiveRepository;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.shard.Shards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest(properties = {
+        "transactions.shards.count=2",
+        "transactions.shards.url=jdbc:h2:mem:reconcile{shard};DB_CLOSE_DELAY=-1",
+        "transactions.reconcile.chunk-size=3",
+        "transactions.reconcile.dir=target/reconciliation-test"
+})
+class ReconcilerTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2024, 12, 31, 9, 0, 0, 0, ZoneOffset.UTC);
+
+    @Autowired
+    private Reconciler reconciler;
+
+    @Autowired
+    private TransactionService service;
+
+    @Autowired
+    private TransactionArchiver archiver;
+
+    @Autowired
+    private RollupService rollups;
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private TransactionRepository repo;
+
+    @Autowired
+    private TransactionArchiveRepository archiveRepo;
+
+    @Autowired
+    private PaymentRepository paymentRepo;
+
+    @Autowired
+    private PendingCreditPool creditPool;
+
+    // One account per shard
+    private final List<String> accounts = new ArrayList<>();
+
+    @BeforeEach
+    void seed() {
+        shards.onEach(shard -> {
+            repo.deleteAll();
+            archiveRepo.deleteAll();
+            paymentRepo.deleteAll();
+            return null;
+        });
+        creditPool.reload();
+        rollups.rebuild();
+
+        for (int i = 0; accounts.size() < shards.count(); i++) {
+            String account = "reconcile-" + i;
+            if (shards.shardOf(account) == accounts.size()) {
+                accounts.add(account);
+            }
+        }
+        // Per account: six transactions of 10 from 2024-12-31 on, two of them paid with 5 kept as
+        // credit, a 3 paid from that credit, and the 2024 one moved to the archive
+        for (String account : accounts) {
+            for (int day = 0; day < 6; day++) {
+                create(account, day, 10.0, Transaction.TransactionStatus.PENDING);
+            }
+            service.makePayment(25.0, account);
+            create(account, 2, 3.0, Transaction.TransactionStatus.PENDING);
+        }
+        archiver.archivePaidBefore(ZonedDateTime.of(2025, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC));
+    }
+
+    private Transaction create(String account, int day, double value, Transaction.TransactionStatus status) {
+        Transaction t = new Transaction();
+        t.setAccount(account);
+        t.setName("Invoice");
+        t.setDate(START.plusDays(day));
+        t.setValue(value);
+        t.setStatus(status);
+        return service.save(t);
+    }
+
+    @Test
+    void reconcile_countsEveryRowInParallelChunks_andAgreesWithTheRollups() throws Exception {
+        ReconciliationReport report = reconciler.run();
+
+        // Per shard: 6 live transactions, 1 archived, 1 payment, cut into ranges of 3 ids
+        assertThat(report.transactions()).isEqualTo(14);
+        assertThat(report.payments()).isEqualTo(2);
+        assertThat(report.chunks()).isGreaterThan(3 * shards.count());
+        assertThat(report.byStatus()).containsExactlyInAnyOrderElementsOf(rollups.summary(null, null).byStatus());
+        assertThat(report.byDay()).filteredOn(d -> d.day().equals(LocalDate.of(2024, 12, 31)))
+                .extracting(RollupService.DayTotal::status, RollupService.DayTotal::count, RollupService.DayTotal::total)
+                .containsExactly(tuple(Transaction.TransactionStatus.PAID, 2L, 20.0));
+        assertThat(report.mismatches()).isEmpty();
+        assertThat(report.uncheckedAccounts()).isZero();
+        assertThat(Files.readString(Path.of(report.file()))).startsWith("# transactions reconciliation\n");
+    }
+
+    @Test
+    void reconcile_flagsPaidTransactionsNoPaymentSettled() {
+        // Stored as PAID by its creator, with no payment behind it
+        create("reconcile-unpaid", 1, 7.0, Transaction.TransactionStatus.PAID);
+        // A payment from before settled amounts were recorded: its account can't be checked
+        shards.on(shards.shardOf("reconcile-legacy"), () -> {
+            Payment legacy = new Payment();
+            legacy.setAccount("reconcile-legacy");
+            legacy.setStatus(Payment.PaymentStatus.COMPLETED);
+            return paymentRepo.save(legacy);
+        });
+
+        ReconciliationReport report = reconciler.run();
+
+        assertThat(report.mismatches()).containsExactly(
+                new ReconciliationReport.AccountMismatch("reconcile-unpaid", 7.0, 0.0));
+        assertThat(report.uncheckedAccounts()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,205 @@
+package com.transactions.service;
+
+import com.transactions.metrics.SqlStatementCounter;
+import com.transactions.model.Money;
+import com.transactions.model.Payment;
+import com.transactions.model.Transaction;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.shard.Shards;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Many clients creating and paying at once must still account for every unit of money
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:settlement-engine;DB_CLOSE_DELAY=-1")
+class SettlementEngineTest {
+
+    private static final int CLIENTS = 16;
+    private static final int OPERATIONS_PER_CLIENT = 60;
+
+    @Autowired
+    private TransactionService service;
+
+    @Autowired
+    private SettlementEngine engine;
+
+    @Autowired
+    private TransactionRepository repo;
+
+    @Autowired
+    private PaymentRepository paymentRepo;
+
+    @Autowired
+    private PendingCreditPool creditPool;
+
+    @Autowired
+    private RollupService rollups;
+
+    @Autowired
+    private PlatformTransactionManager txManager;
+
+    @Autowired
+    private SqlStatementCounter statementCounter;
+
+    @Autowired
+    private Shards shards;
+
+    @BeforeEach
+    void cleanDb() {
+        repo.deleteAll();
+        paymentRepo.deleteAll();
+        creditPool.reload();
+        rollups.rebuild();
+    }
+
+    @Test
+    void concurrentCreatesAndPayments_conserveMoney() throws Exception {
+        Map<Long, Double> createdValues = new ConcurrentHashMap<>();
+        AtomicLong paidIn = new AtomicLong();
+        SettlementEngine.Stats before = engine.stats();
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<?>> done = new ArrayList<>();
+        for (int c = 0; c < CLIENTS; c++) {
+            long seed = c;
+            done.add(clients.submit(() -> {
+                Random random = new Random(seed);
+                ZonedDateTime base = ZonedDateTime.of(2025, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+                for (int i = 0; i < OPERATIONS_PER_CLIENT; i++) {
+                    if (random.nextInt(3) == 0) {
+                        int amount = 1 + random.nextInt(60);
+                        service.makePayment((double) amount, null);
+                        paidIn.addAndGet(amount);
+                    } else {
+                        Transaction t = new Transaction();
+                        t.setName("C" + seed + "-" + i);
+                        t.setValue((double) (1 + random.nextInt(30)));
+                        t.setStatus(Transaction.TransactionStatus.PENDING);
+                        t.setDate(base.plusMinutes(random.nextInt(10_000)));
+                        createdValues.put(service.save(t).getId(), t.getValue());
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : done) {
+            f.get(2, TimeUnit.MINUTES);
+        }
+        clients.shutdown();
+
+        // Every unit paid in either settled a transaction, reduced one through credit, or is still credit
+        double absorbed = 0;
+        for (Transaction t : repo.findAll()) {
+            double original = createdValues.get(t.getId());
+            absorbed += t.getStatus() == Transaction.TransactionStatus.PAID ? original : original - t.getValue();
+        }
+        double credit = paymentRepo.findAll().stream()
+                .filter(p -> p.getStatus() == Payment.PaymentStatus.PENDING)
+                .mapToDouble(p -> Money.fromCents(p.getValueCents()))
+                .sum();
+        assertThat(absorbed + credit).isEqualTo((double) paidIn.get());
+        assertThat(Money.fromCents(creditPool.available(null))).isEqualTo(credit);
+        assertThat(rollups.check()).isEmpty();
+
+        // Concurrent commands were grouped into shared transactions
+        SettlementEngine.Stats after = engine.stats();
+        long commands = after.commands() - before.commands();
+        long batches = after.batches() - before.batches();
+        assertThat(commands).isEqualTo((long) CLIENTS * OPERATIONS_PER_CLIENT);
+        assertThat(batches).isLessThan(commands);
+    }
+
+    @Test
+    void failingCommand_doesNotTakeItsBatchDown() {
+        Transaction t = new Transaction();
+        t.setName("Survivor");
+        t.setValue(10.0);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+
+        var ok = engine.submit(() -> service.save(t));
+        var failing = engine.submit(() -> {
+            throw new IllegalStateException("boom");
+        });
+
+        assertThat(ok.join().getId()).isNotNull();
+        assertThat(failing).failsWithin(Duration.ofSeconds(10))
+                .withThrowableThat().withCauseInstanceOf(IllegalStateException.class);
+        assertThat(repo.findAll()).extracting(Transaction::getName).containsExactly("Survivor");
+    }
+
+    @Test
+    void rollupRebuild_inTheMiddleOfABatch_countsEveryWriteOnce() throws Exception {
+        CountDownLatch hold = new CountDownLatch(1);
+        var blocker = engine.submit(() -> {
+            try {
+                return hold.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // Queued behind the blocker, so the writer takes all three as one batch
+        var before = engine.submit(() -> service.save(pending("Before", 10.0)));
+        var rebuild = engine.submit(() -> rollups.rebuild());
+        var after = engine.submit(() -> service.save(pending("After", 5.0)));
+        hold.countDown();
+
+        assertThat(CompletableFuture.allOf(blocker, before, rebuild, after)).succeedsWithin(Duration.ofSeconds(10));
+        assertThat(rollups.check()).isEmpty();
+        assertThat(rollups.summary(null, null).byStatus())
+                .containsExactly(new RollupService.StatusTotal(Transaction.TransactionStatus.PENDING, 2, 15.0));
+    }
+
+    private static Transaction pending(String name, double value) {
+        Transaction t = new Transaction();
+        t.setName(name);
+        t.setValue(value);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+        t.setDate(ZonedDateTime.of(2025, 7, 1, 9, 0, 0, 0, ZoneOffset.UTC));
+        return t;
+    }
+
+    @Test
+    void linger_groupsCommandsThatArriveApart_untilTheBatchIsFull() throws Exception {
+        SettlementEngine lingering = new SettlementEngine(txManager, statementCounter, shards,
+                new SimpleMeterRegistry(), 4, 100, Duration.ofSeconds(5));
+        lingering.start();
+        try {
+            List<CompletableFuture<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int n = i;
+                results.add(lingering.submit(() -> n));
+                Thread.sleep(20);
+            }
+
+            // The fourth command fills the batch, long before the linger time is up
+            assertThat(CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)))
+                    .succeedsWithin(Duration.ofSeconds(2));
+            assertThat(results).extracting(CompletableFuture::join).containsExactly(0, 1, 2, 3);
+            assertThat(lingering.stats().batches()).isEqualTo(1);
+        } finally {
+            lingering.stop();
+        }
+    }
+}
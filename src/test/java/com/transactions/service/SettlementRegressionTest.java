@@ -0,0 +1,117 @@
+package com.transactions.service;
+
+import com.transactions.model.Money;
+import com.transactions.model.Payment;
+import com.transactions.model.Transaction;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Checks the set-based settlement against the original load-everything FIFO loop
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:settlement-regression;DB_CLOSE_DELAY=-1")
+class SettlementRegressionTest {
+
+    @Autowired
+    private TransactionService service;
+
+    @Autowired
+    private TransactionRepository repo;
+
+    @Autowired
+    private PaymentRepository paymentRepo;
+
+    @Autowired
+    private PendingCreditPool creditPool;
+
+    @BeforeEach
+    void cleanDb() {
+        repo.deleteAll();
+        paymentRepo.deleteAll();
+        creditPool.reload();
+    }
+
+    // The algorithm makePayment used before it was moved into SQL, except that a payment
+    // covering the whole queue now keeps its remainder as credit instead of dropping it
+    private record Expected(List<Long> paidIds, double leftover) {}
+
+    private Expected referenceSettlement(List<Transaction> all, double paymentValue) {
+        List<Transaction> pending = all.stream()
+                .filter(t -> t.getStatus() == Transaction.TransactionStatus.PENDING)
+                .sorted(Comparator.comparing(Transaction::getDate).thenComparing(Transaction::getId))
+                .toList();
+
+        if (pending.isEmpty()) {
+            return new Expected(List.of(), paymentValue);
+        }
+
+        List<Long> paid = new ArrayList<>();
+        for (Transaction t : pending) {
+            if (paymentValue >= t.getValue()) {
+                paymentValue -= t.getValue();
+                paid.add(t.getId());
+            } else {
+                return new Expected(paid, paymentValue);
+            }
+        }
+        return new Expected(paid, paymentValue);
+    }
+
+    @Test
+    void makePayment_matchesReferenceAlgorithm() {
+        Random random = new Random(42);
+        ZonedDateTime base = ZonedDateTime.of(2025, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+        for (int round = 0; round < 20; round++) {
+            repo.deleteAll();
+            paymentRepo.deleteAll();
+
+            List<Transaction> seeded = new ArrayList<>();
+            int size = random.nextInt(30);
+            for (int i = 0; i < size; i++) {
+                Transaction t = new Transaction();
+                t.setName("T" + i);
+                t.setValue((double) (1 + random.nextInt(100)));
+                // Duplicate dates on purpose so the id tie-break is exercised
+                t.setDate(base.plusDays(random.nextInt(10)));
+                t.setStatus(Transaction.TransactionStatus.values()[random.nextInt(3)]);
+                seeded.add(repo.save(t));
+            }
+
+            double paymentValue = random.nextInt(500);
+            Expected expected = referenceSettlement(seeded, paymentValue);
+
+            service.makePayment(paymentValue, null);
+
+            Map<Long, Transaction> after = repo.findAll().stream()
+                    .collect(Collectors.toMap(Transaction::getId, Function.identity()));
+            for (Transaction before : seeded) {
+                Transaction.TransactionStatus expectedStatus = expected.paidIds().contains(before.getId())
+                        ? Transaction.TransactionStatus.PAID
+                        : before.getStatus();
+                assertThat(after.get(before.getId()).getStatus()).isEqualTo(expectedStatus);
+            }
+
+            List<Payment> payments = paymentRepo.findAll();
+            assertThat(payments).hasSize(1);
+            assertThat(Money.fromCents(payments.getFirst().getValueCents())).isEqualTo(expected.leftover());
+            assertThat(payments.getFirst().getStatus()).isEqualTo(expected.leftover() == 0
+                    ? Payment.PaymentStatus.COMPLETED
+                    : Payment.PaymentStatus.PENDING);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.transactions.service;
+
+import com.transactions.model.Transaction;
+import com.transactions.repository.TransactionArchiveRepository;
+import com.transactions.repository.TransactionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:archiver;DB_CLOSE_DELAY=-1")
+class TransactionArchiverTest {
+
+    private static final ZonedDateTime CUTOFF = ZonedDateTime.of(2025, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    @Autowired
+    private TransactionService service;
+
+    @Autowired
+    private TransactionArchiver archiver;
+
+    @Autowired
+    private TransactionRepository repo;
+
+    @Autowired
+    private TransactionArchiveRepository archiveRepo;
+
+    @Autowired
+    private SearchResultCache searchCache;
+
+    @Autowired
+    private RollupService rollups;
+
+    // Other test classes share the database and don't expect archived rows
+    @BeforeEach
+    @AfterEach
+    void cleanDb() {
+        repo.deleteAll();
+        archiveRepo.deleteAll();
+        archiver.refresh();
+        searchCache.clear();
+        rollups.rebuild();
+    }
+
+    private Transaction create(String name, ZonedDateTime date, Transaction.TransactionStatus status) {
+        Transaction t = new Transaction();
+        t.setName(name);
+        t.setDate(date);
+        t.setValue(10.0);
+        t.setStatus(status);
+        return service.save(t);
+    }
+
+    @Test
+    void archive_movesOnlyOldPaidRows_andReadsStillSeeThem() {
+        Transaction oldPaid = create("Old rent", CUTOFF.minusDays(30), Transaction.TransactionStatus.PAID);
+        create("Old bill", CUTOFF.minusDays(20), Transaction.TransactionStatus.PENDING);
+        create("New rent", CUTOFF.plusDays(10), Transaction.TransactionStatus.PAID);
+        create("Older rent", CUTOFF.minusDays(40), Transaction.TransactionStatus.PAID);
+
+        assertThat(archiver.archivePaidBefore(CUTOFF)).isEqualTo(2);
+
+        assertThat(repo.findAll()).extracting(Transaction::getName).containsExactlyInAnyOrder("Old bill", "New rent");
+        assertThat(archiveRepo.findById(oldPaid.getId())).isPresent();
+
+        Page<Transaction> all = service.searchWithFilters(null, null, null, null,
+                PageRequest.of(0, 3, Sort.by(Sort.Direction.DESC, "date")));
+        assertThat(all.getTotalElements()).isEqualTo(4);
+        assertThat(all.getContent()).extracting(Transaction::getName).containsExactly("New rent", "Old bill", "Old rent");
+
+        assertThat(service.sliceWithFilters("rent", null, null, "PAID", PageRequest.of(0, 10, Sort.by("date"))).getContent())
+                .extracting(Transaction::getName).containsExactly("Older rent", "Old rent", "New rent");
+
+        CursorPage<Transaction> first = service.scrollWithFilters(null, null, null, null, Sort.Direction.ASC, null, 2);
+        CursorPage<Transaction> second = service.scrollWithFilters(null, null, null, null, Sort.Direction.ASC, first.nextCursor(), 2);
+        assertThat(first.content()).extracting(Transaction::getName).containsExactly("Older rent", "Old rent");
+        assertThat(second.content()).extracting(Transaction::getName).containsExactly("Old bill", "New rent");
+
+        List<String> exported = new ArrayList<>();
+        service.exportWithFilters(null, null, null, null, t -> exported.add(t.getName()));
+        assertThat(exported).containsExactly("Older rent", "Old rent", "Old bill", "New rent");
+
+        assertThat(rollups.check()).isEmpty();
+    }
+
+    @Test
+    void filtersThatCantMatchArchivedRows_leaveTheArchiveAlone() {
+        create("Old rent", CUTOFF.minusDays(30), Transaction.TransactionStatus.PAID);
+        archiver.archivePaidBefore(CUTOFF);
+
+        assertThat(archiver.mayHold(null, null, "PENDING")).isFalse();
+        assertThat(archiver.mayHold(LocalDate.of(2025, 6, 1), LocalDate.of(2025, 6, 30), null)).isFalse();
+        assertThat(archiver.mayHold(LocalDate.of(2024, 12, 1), LocalDate.of(2024, 12, 31), "PAID")).isTrue();
+        assertThat(archiver.mayHold(null, null, null)).isTrue();
+    }
+
+    @Test
+    void archivedRows_stayPaid() {
+        Transaction old = create("Old rent", CUTOFF.minusDays(30), Transaction.TransactionStatus.PAID);
+        archiver.archivePaidBefore(CUTOFF);
+
+        Transaction edit = new Transaction();
+        edit.setName("Changed");
+        edit.setDate(old.getDate());
+        edit.setValue(1.0);
+        edit.setStatus(Transaction.TransactionStatus.PENDING);
+
+        assertThatThrownBy(() -> service.update(old.getId(), edit)).hasMessageContaining("paid");
+        assertThatThrownBy(() -> service.delete(old.getId())).hasMessageContaining("paid");
+    }
+}
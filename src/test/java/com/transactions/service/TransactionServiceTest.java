@@ -1,22 +1,45 @@
 package com.transactions.service;
 
+import com.transactions.ledger.Ledger;
+import com.transactions.metrics.SqlStatementCounter;
+import com.transactions.metrics.TransactionMetrics;
+import com.transactions.model.Payment;
 import com.transactions.model.Transaction;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionArchiveRepository;
 import com.transactions.repository.TransactionRepository;
+import com.transactions.search.NameSearchIndex;
+import com.transactions.shard.Shards;
+import com.transactions.stream.ChangeFeed;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import static com.transactions.model.Transaction.TransactionStatus.*;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -25,6 +48,50 @@ class TransactionServiceTest {
     @Mock
     private TransactionRepository repo;
 
+    @Mock
+    private TransactionArchiveRepository archiveRepo;
+
+    @Mock
+    private PaymentRepository paymentRepo;
+
+    @Mock
+    private PendingCreditPool creditPool;
+
+    @Mock
+    private NameSearchIndex nameIndex;
+
+    @Mock
+    private SearchResultCache searchCache;
+
+    @Mock
+    private RollupService rollups;
+
+    @Mock
+    private SettlementEngine engine;
+
+    @Mock
+    private TransactionArchiver archiver;
+
+    @Mock
+    private Ledger ledger;
+
+    @Mock
+    private ChangeFeed changes;
+
+    @Spy
+    private TransactionMetrics metrics = new TransactionMetrics(new SimpleMeterRegistry());
+
+    @Spy
+    private Shards shards = new Shards(1, new SqlStatementCounter(), mock(PlatformTransactionManager.class));
+
+    // The engine's writer thread is replaced by running each command on the calling thread
+    @BeforeEach
+    void runCommandsInline() {
+        lenient().when(engine.execute(anyInt(), any())).thenAnswer(inv -> ((Supplier<?>) inv.getArgument(1)).get());
+        lenient().when(engine.submit(anyInt(), any())).thenAnswer(inv ->
+                CompletableFuture.completedFuture(((Supplier<?>) inv.getArgument(1)).get()));
+    }
+
     @InjectMocks
     private TransactionService service;
 
@@ -54,11 +121,65 @@ class TransactionServiceTest {
         verify(repo).save(any());
     }
 
+    @Test
+    void save_skipsPaymentLookup_whenNoCreditIsPending() {
+        Transaction t = createTransaction(null, "New", 80.0, PENDING, ZonedDateTime.now());
+        when(repo.save(any())).thenAnswer(inv -> inv.getArgument(0));
+
+        Transaction result = service.save(t);
+
+        assertEquals(80.0, result.getValue());
+        assertEquals(PENDING, result.getStatus());
+        verifyNoInteractions(paymentRepo);
+    }
+
+    @Test
+    void save_consumesOnlyTheCreditItNeeds() {
+        Payment whole = new Payment();
+        whole.setValueCents(3000);
+        whole.setStatus(Payment.PaymentStatus.PENDING);
+        Payment partial = new Payment();
+        partial.setValueCents(10000);
+        partial.setStatus(Payment.PaymentStatus.PENDING);
+
+        when(creditPool.available(null)).thenReturn(13000L);
+        when(paymentRepo.findConsumedBy(null, 8000)).thenReturn(List.of(whole, partial));
+        when(repo.save(any())).thenAnswer(inv -> inv.getArgument(0));
+
+        Transaction result = service.save(createTransaction(null, "New", 80.0, PENDING, ZonedDateTime.now()));
+
+        assertEquals(0.0, result.getValue());
+        assertEquals(PAID, result.getStatus());
+        assertEquals(Payment.PaymentStatus.COMPLETED, whole.getStatus());
+        assertEquals(Payment.PaymentStatus.PENDING, partial.getStatus());
+        assertEquals(5000, partial.getValueCents());
+        verify(paymentRepo).saveAll(List.of(whole, partial));
+        verify(creditPool).adjust(null, -3000);
+        verify(creditPool).adjust(null, -5000);
+    }
+
+    private TransactionRepository.RowImage image(Transaction t) {
+        return new TransactionRepository.RowImage() {
+            public Long getId() { return t.getId(); }
+            public String getAccount() { return t.getAccount(); }
+            public String getName() { return t.getName(); }
+            public OffsetDateTime getDate() { return t.getDate() == null ? null : t.getDate().toOffsetDateTime(); }
+            public Long getValueCents() { return t.getValueCents(); }
+            public String getStatus() { return t.getStatus() == null ? null : t.getStatus().name(); }
+            public Long getVersion() { return t.getVersion(); }
+        };
+    }
+
+    private TransactionRepository.StatusRow statusRow(Transaction.TransactionStatus status) {
+        return () -> status;
+    }
+
     @Test
     void update_changesFieldsCorrectly() {
         Transaction existing = createTransaction(1L, "Old", 100.0, PENDING, ZonedDateTime.now().minusDays(2));
-        when(repo.findById(1L)).thenReturn(Optional.of(existing));
-        when(repo.save(any())).thenAnswer(inv -> inv.getArgument(0));
+        existing.setVersion(3L);
+        when(repo.updateUnlessPaid(eq(1L), eq("Updated"), any(), eq(15000L), eq("PAID"), isNull()))
+                .thenReturn(Optional.of(image(existing)));
 
         Transaction updated = new Transaction();
         updated.setName("Updated");
@@ -71,12 +192,17 @@ class TransactionServiceTest {
         assertEquals("Updated", result.getName());
         assertEquals(150.0, result.getValue());
         assertEquals(PAID, result.getStatus());
+        assertEquals(4L, result.getVersion());
+        verify(repo, never()).findById(any());
+        verify(repo, never()).findStatusById(any());
+        verify(rollups).record(argThat(t -> t.getName().equals("Old")), eq(-1));
+        verify(rollups).record(result, 1);
     }
 
     @Test
     void update_throwsIfTransactionIsPaid() {
-        Transaction paid = createTransaction(1L, "Paid Txn", 100.0, PAID, ZonedDateTime.now());
-        when(repo.findById(1L)).thenReturn(Optional.of(paid));
+        when(repo.updateUnlessPaid(eq(1L), any(), any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(repo.findStatusById(1L)).thenReturn(Optional.of(statusRow(PAID)));
 
         Transaction updated = new Transaction();
         updated.setName("Attempted Update");
@@ -86,47 +212,81 @@ class TransactionServiceTest {
         });
 
         assertTrue(ex.getMessage().contains("Can't update paid"));
+        verifyNoInteractions(rollups);
+    }
+
+    @Test
+    void update_tellsMissingAndStaleRowsApart() {
+        when(repo.updateUnlessPaid(any(), any(), any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(repo.findStatusById(1L)).thenReturn(Optional.empty());
+        when(repo.findStatusById(2L)).thenReturn(Optional.of(statusRow(PENDING)));
+
+        Transaction updated = new Transaction();
+        updated.setVersion(7L);
+
+        RuntimeException missing = assertThrows(RuntimeException.class, () -> service.update(1L, updated));
+        assertEquals("Transaction not found", missing.getMessage());
+        assertThrows(OptimisticLockingFailureException.class, () -> service.update(2L, updated));
     }
 
     @Test
     void delete_invokesRepository() {
         Transaction t = createTransaction(1L, "To Delete", 50.0, PENDING, ZonedDateTime.now());
-        when(repo.findById(1L)).thenReturn(Optional.of(t));
+        when(repo.deleteUnlessPaid(1L)).thenReturn(Optional.of(image(t)));
 
         service.delete(1L);
 
-        verify(repo).findById(1L);
-        verify(repo).deleteById(1L);
+        verify(repo).deleteUnlessPaid(1L);
+        verify(repo, never()).findById(any());
+        verify(rollups).record(argThat(r -> r.getName().equals("To Delete")), eq(-1));
     }
 
     @Test
     void delete_throwsIfPaid() {
-        Transaction t = createTransaction(1L, "Paid Txn", 50.0, PAID, ZonedDateTime.now());
-        when(repo.findById(1L)).thenReturn(Optional.of(t));
+        when(repo.deleteUnlessPaid(1L)).thenReturn(Optional.empty());
+        when(repo.findStatusById(1L)).thenReturn(Optional.of(statusRow(PAID)));
 
         RuntimeException ex = assertThrows(RuntimeException.class, () -> {
             service.delete(1L);
         });
 
         assertTrue(ex.getMessage().contains("Can't delete a paid"));
-        verify(repo, never()).deleteById(any());
+        verifyNoInteractions(rollups);
+    }
+
+    private TransactionRepository.DaySettlement day(LocalDate day, long covered, long coveredCents) {
+        return new TransactionRepository.DaySettlement() {
+            public LocalDate getDay() { return day; }
+            public long getCovered() { return covered; }
+            public long getCoveredCents() { return coveredCents; }
+        };
     }
 
     @Test
-    void makePayment_marksTransactionsAsPaidInOrder() {
-        Transaction t1 = createTransaction(1L, "T1", 50.0, PENDING, ZonedDateTime.now().minusDays(3));
-        Transaction t2 = createTransaction(2L, "T2", 75.0, PENDING, ZonedDateTime.now().minusDays(2));
-        Transaction t3 = createTransaction(3L, "T3", 100.0, PENDING, ZonedDateTime.now().minusDays(1));
+    void makePayment_bulkSettlesCoveredPrefix_andKeepsLeftoverAsCredit() {
+        List<TransactionRepository.DaySettlement> days = List.of(
+                day(LocalDate.of(2025, 7, 1), 1, 5000),
+                day(LocalDate.of(2025, 7, 2), 1, 7500));
+        when(repo.settlementByDay(null, 13000)).thenReturn(days);
 
-        when(repo.findAll()).thenReturn(List.of(t1, t2, t3));
-        when(repo.save(any())).thenAnswer(inv -> inv.getArgument(0));
+        service.makePayment(130.0, null);
 
-        service.makePayment(130.0);
+        verify(repo).markCoveredAsPaid(null, 13000);
+        verify(rollups).recordSettled(days);
+        verify(repo, never()).findAll();
+        verify(paymentRepo).save(argThat(p ->
+                p.getValueCents() == 500 && p.getStatus() == Payment.PaymentStatus.PENDING));
+        verify(creditPool).adjust(null, 500);
+    }
+
+    @Test
+    void makePayment_withNothingPending_storesWholePaymentAsCredit() {
+        when(repo.settlementByDay(null, 4000)).thenReturn(List.of());
 
-        assertEquals(PAID, t1.getStatus());
-        assertEquals(PAID, t2.getStatus());
-        assertEquals(PENDING, t3.getStatus());
+        service.makePayment(40.0, null);
 
-        verify(repo, times(2)).save(any());
+        verify(repo, never()).markCoveredAsPaid(any(), anyLong());
+        verify(paymentRepo).save(argThat(p ->
+                p.getValueCents() == 4000 && p.getStatus() == Payment.PaymentStatus.PENDING));
     }
 }
@@ -0,0 +1,222 @@
+package com.transactions.shard;
+
+import com.transactions.model.PaymentJob;
+import com.transactions.model.Transaction;
+import com.transactions.repository.PaymentJobRepository;
+import com.transactions.repository.PaymentRepository;
+import com.transactions.repository.TransactionRepository;
+import com.transactions.service.CursorPage;
+import com.transactions.service.PaymentJobService;
+import com.transactions.service.PendingCreditPool;
+import com.transactions.service.RollupService;
+import com.transactions.service.SettlementEngine;
+import com.transactions.service.TransactionService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest(properties = {
+        "transactions.shards.count=3",
+        "transactions.shards.url=jdbc:h2:mem:shard{shard};DB_CLOSE_DELAY=-1",
+        "transactions.search-cache.enabled=false"
+})
+class ShardedStorageTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2025, 3, 1, 9, 0, 0, 0, ZoneOffset.UTC);
+
+    @Autowired
+    private TransactionService service;
+
+    @Autowired
+    private PaymentJobService paymentJobs;
+
+    @Autowired
+    private SettlementEngine engine;
+
+    @Autowired
+    private Shards shards;
+
+    @Autowired
+    private TransactionRepository repo;
+
+    @Autowired
+    private PaymentRepository paymentRepo;
+
+    @Autowired
+    private PaymentJobRepository jobRepo;
+
+    @Autowired
+    private PendingCreditPool creditPool;
+
+    @Autowired
+    private RollupService rollups;
+
+    // One account per shard
+    private final List<String> accounts = new ArrayList<>();
+
+    @BeforeEach
+    void cleanShards() {
+        shards.onEach(shard -> {
+            repo.deleteAll();
+            paymentRepo.deleteAll();
+            jobRepo.deleteAll();
+            return null;
+        });
+        creditPool.reload();
+        rollups.rebuild();
+
+        for (int i = 0; accounts.size() < shards.count(); i++) {
+            String account = "account-" + i;
+            if (shards.shardOf(account) == accounts.size()) {
+                accounts.add(account);
+            }
+        }
+    }
+
+    private Transaction create(String account, int minutes, double value) {
+        Transaction t = new Transaction();
+        t.setAccount(account);
+        t.setName("Order " + account);
+        t.setDate(START.plusMinutes(minutes));
+        t.setValue(value);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+        return service.save(t);
+    }
+
+    @Test
+    void rowsAreStoredOnTheirAccountsShard_andIdsSayWhichOne() {
+        for (int shard = 0; shard < shards.count(); shard++) {
+            Transaction saved = create(accounts.get(shard), shard, 10.0);
+
+            assertThat(shards.shardOfId(saved.getId())).isEqualTo(shard);
+            int expected = shard;
+            assertThat(shards.onEach(s -> repo.existsById(saved.getId())))
+                    .containsExactly(expected == 0, expected == 1, expected == 2);
+        }
+    }
+
+    @Test
+    void search_mergesEveryShardsRowsInDateOrder() {
+        // Interleaved dates, so every page needs rows from more than one shard
+        for (int minute = 0; minute < 9; minute++) {
+            create(accounts.get(minute % shards.count()), minute, 1.0 + minute);
+        }
+        PageRequest byDateDesc = PageRequest.of(1, 4, Sort.by(Sort.Direction.DESC, "date"));
+
+        Page<Transaction> page = service.searchWithFilters(null, null, null, null, byDateDesc);
+
+        assertThat(page.getTotalElements()).isEqualTo(9);
+        assertThat(page.getContent()).extracting(Transaction::getValue).containsExactly(5.0, 4.0, 3.0, 2.0);
+
+        CursorPage<Transaction> first = service.scrollWithFilters(null, null, null, null, Sort.Direction.ASC, null, 5);
+        CursorPage<Transaction> second = service.scrollWithFilters(null, null, null, null, Sort.Direction.ASC, first.nextCursor(), 5);
+        assertThat(first.content()).extracting(Transaction::getValue).containsExactly(1.0, 2.0, 3.0, 4.0, 5.0);
+        assertThat(second.content()).extracting(Transaction::getValue).containsExactly(6.0, 7.0, 8.0, 9.0);
+        assertThat(second.nextCursor()).isNull();
+
+        List<Double> exported = new ArrayList<>();
+        service.exportWithFilters(null, null, null, null, t -> exported.add(t.getValue()));
+        assertThat(exported).containsExactly(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0);
+    }
+
+    @Test
+    void payment_settlesOnlyItsOwnAccount_andKeepsTheRestAsThatAccountsCredit() {
+        String alice = accounts.get(1);
+        String bob = accounts.get(2);
+        Transaction alicesOld = create(alice, 0, 30.0);
+        Transaction alicesNew = create(alice, 5, 50.0);
+        Transaction bobs = create(bob, 1, 10.0);
+
+        service.makePayment(40.0, alice);
+
+        assertThat(status(alicesOld)).isEqualTo(Transaction.TransactionStatus.PAID);
+        assertThat(status(alicesNew)).isEqualTo(Transaction.TransactionStatus.PENDING);
+        assertThat(status(bobs)).isEqualTo(Transaction.TransactionStatus.PENDING);
+        assertThat(creditPool.available(alice)).isEqualTo(1000);
+        assertThat(creditPool.available(bob)).isZero();
+
+        // Bob's new transaction can't spend Alice's credit, hers can
+        assertThat(create(bob, 2, 10.0).getStatus()).isEqualTo(Transaction.TransactionStatus.PENDING);
+        assertThat(create(alice, 6, 10.0).getStatus()).isEqualTo(Transaction.TransactionStatus.PAID);
+        assertThat(rollups.check()).isEmpty();
+    }
+
+    @Test
+    void updatesDeletesAndPaymentJobsFindTheirShardFromTheId() {
+        Transaction t = create(accounts.get(2), 0, 20.0);
+        Transaction edit = new Transaction();
+        edit.setName("Renamed");
+        edit.setDate(t.getDate());
+        edit.setValue(25.0);
+        edit.setStatus(Transaction.TransactionStatus.PENDING);
+
+        assertThat(service.update(t.getId(), edit).getAccount()).isEqualTo(accounts.get(2));
+        service.delete(create(accounts.get(1), 1, 5.0).getId());
+
+        PaymentJob job = paymentJobs.submit(2500, accounts.get(2)).orElseThrow();
+        assertThat(shards.shardOfId(job.getId())).isEqualTo(2);
+        waitForJob(job.getId());
+        assertThat(status(t)).isEqualTo(Transaction.TransactionStatus.PAID);
+
+        RollupService.Summary summary = rollups.summary(null, null);
+        assertThat(summary.byStatus()).extracting(RollupService.StatusTotal::status, RollupService.StatusTotal::count)
+                .containsExactly(tuple(Transaction.TransactionStatus.PAID, 1L),
+                        tuple(Transaction.TransactionStatus.PENDING, 0L));
+        assertThat(rollups.check()).isEmpty();
+    }
+
+    // Each shard has its own writer: one shard being stuck doesn't hold up writes to the others
+    @Test
+    void writesToDifferentShardsDontWaitForEachOther() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> stuck = engine.submit(0, () -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+
+        CompletableFuture<Transaction> other = CompletableFuture.supplyAsync(() -> create(accounts.get(1), 0, 1.0));
+        assertThat(other).succeedsWithin(Duration.ofSeconds(5));
+        assertThat(stuck).isNotDone();
+
+        release.countDown();
+        assertThat(stuck).succeedsWithin(Duration.ofSeconds(5));
+    }
+
+    private Transaction.TransactionStatus status(Transaction t) {
+        return shards.on(shards.shardOfId(t.getId()), () -> repo.findById(t.getId()).orElseThrow().getStatus());
+    }
+
+    private void waitForJob(Long id) {
+        for (int i = 0; i < 100; i++) {
+            if (paymentJobs.find(id).orElseThrow().getStatus() != PaymentJob.JobStatus.QUEUED) {
+                return;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.transactions.spec;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MonthPartitionsTest {
+
+    @Test
+    void covering_listsEveryOverlappedMonth() {
+        assertThat(MonthPartitions.covering(LocalDate.of(2024, 11, 30), LocalDate.of(2025, 2, 1)))
+                .containsExactly(202411, 202412, 202501, 202502);
+        assertThat(MonthPartitions.covering(LocalDate.of(2025, 7, 1), LocalDate.of(2025, 7, 31)))
+                .containsExactly(202507);
+    }
+
+    @Test
+    void covering_prunesNothing_forOpenOrBackwardRanges() {
+        assertThat(MonthPartitions.covering(null, LocalDate.of(2025, 7, 31))).isEmpty();
+        assertThat(MonthPartitions.covering(LocalDate.of(2025, 8, 1), LocalDate.of(2025, 7, 1))).isEmpty();
+    }
+}
@@ -0,0 +1,143 @@
+package com.transactions.stream;
+
+import com.transactions.model.Transaction;
+import com.transactions.service.TransactionService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:stream;DB_CLOSE_DELAY=-1",
+        "transactions.stream.replay-size=3"
+})
+class ChangeFeedTest {
+
+    private record Event(String id, String type, String data) {}
+
+    // Reads the stream on a thread of its own, one event per blank-line-terminated block
+    private final class Client implements AutoCloseable {
+        private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+        private final Stream<String> lines;
+
+        private Client(String query, String lastEventId) throws Exception {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/transactions/stream" + query))
+                    .header("Accept", "text/event-stream");
+            if (lastEventId != null) {
+                request.header("Last-Event-ID", lastEventId);
+            }
+            HttpResponse<Stream<String>> response = http.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+            assertThat(response.statusCode()).isEqualTo(200);
+            lines = response.body();
+            Thread.ofVirtual().start(() -> {
+                String[] block = new String[3];
+                try {
+                    lines.forEach(line -> {
+                        if (line.startsWith("id:")) {
+                            block[0] = line.substring(3);
+                        } else if (line.startsWith("event:")) {
+                            block[1] = line.substring(6);
+                        } else if (line.startsWith("data:")) {
+                            block[2] = line.substring(5);
+                        } else if (line.isEmpty() && block[1] != null) {
+                            events.add(new Event(block[0], block[1], block[2]));
+                            block[0] = block[1] = block[2] = null;
+                        }
+                    });
+                } catch (UncheckedIOException closed) {
+                    // close() cancelled the request
+                }
+            });
+        }
+
+        Event next() throws InterruptedException {
+            Event event = events.poll(10, TimeUnit.SECONDS);
+            assertThat(event).as("an event within 10s").isNotNull();
+            return event;
+        }
+
+        @Override
+        public void close() {
+            lines.close();
+        }
+    }
+
+    private final HttpClient http = HttpClient.newHttpClient();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TransactionService service;
+
+    private Transaction create(String account, String name, double value) {
+        Transaction t = new Transaction();
+        t.setAccount(account);
+        t.setName(name);
+        t.setDate(ZonedDateTime.of(2025, 4, 1, 9, 0, 0, 0, ZoneOffset.UTC));
+        t.setValue(value);
+        t.setStatus(Transaction.TransactionStatus.PENDING);
+        return service.save(t);
+    }
+
+    @Test
+    void committedChanges_arePushed_andResumedAfterLastEventId() throws Exception {
+        Event created;
+        Transaction rent;
+        try (Client client = new Client("?account=stream-acme", null)) {
+            create("someone-else", "Not for us", 1.0);
+            rent = create("stream-acme", "Rent", 10.0);
+            service.makePayment(10.0, "stream-acme");
+
+            created = client.next();
+            assertThat(created.type()).isEqualTo("created");
+            assertThat(created.data()).contains("\"id\":" + rent.getId(), "\"name\":\"Rent\"");
+            Event paid = client.next();
+            assertThat(paid.type()).isEqualTo("paid");
+            assertThat(paid.data()).contains("\"ids\":[" + rent.getId() + "]");
+            assertThat(Long.parseLong(paid.id())).isGreaterThan(Long.parseLong(created.id()));
+        }
+
+        // Changes made while disconnected are replayed on reconnect
+        Transaction bill = create("stream-acme", "Bill", 20.0);
+        try (Client client = new Client("?account=stream-acme", created.id())) {
+            assertThat(client.next().type()).isEqualTo("paid");
+            Event missed = client.next();
+            assertThat(missed.type()).isEqualTo("created");
+            assertThat(missed.data()).contains("\"id\":" + bill.getId());
+
+            service.delete(bill.getId());
+            Event deleted = client.next();
+            assertThat(deleted.type()).isEqualTo("deleted");
+            assertThat(deleted.data()).contains("\"id\":" + bill.getId());
+        }
+    }
+
+    @Test
+    void resumingFromAnEventNoLongerKept_asksForAResync() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            create("stream-resync", "Filler " + i, 1.0);
+        }
+        try (Client client = new Client("", "1")) {
+            assertThat(client.next().type()).isEqualTo("resync");
+            Transaction after = create("stream-resync", "After", 1.0);
+            Event next = client.next();
+            assertThat(next.type()).isEqualTo("created");
+            assertThat(next.data()).contains("\"id\":" + after.getId());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package db.migration;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MoneyAsCentsMigrationTest {
+
+    @Test
+    void decimalAmounts_areCopiedIntoCents_andTheirColumnsDropped() {
+        DriverManagerDataSource db = new DriverManagerDataSource("jdbc:h2:mem:money-as-cents;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(db);
+        Flyway.configure().dataSource(db).target("2").load().migrate();
+
+        // What ddl-auto=update left behind: the decimal columns of the older build next to the cents
+        // ones, which it could only add as NOT NULL where the table was still empty
+        jdbc.execute("ALTER TABLE payment_jobs DROP COLUMN amount_cents");
+        jdbc.execute("ALTER TABLE transaction_rollups DROP COLUMN total_cents");
+        jdbc.execute("ALTER TABLE transactions ADD COLUMN transaction_value DOUBLE PRECISION");
+        jdbc.execute("ALTER TABLE payments ADD COLUMN payment_value DOUBLE PRECISION");
+        jdbc.execute("ALTER TABLE payment_jobs ADD COLUMN amount DOUBLE PRECISION");
+        jdbc.execute("ALTER TABLE payment_jobs ADD COLUMN leftover DOUBLE PRECISION");
+        jdbc.execute("ALTER TABLE transaction_rollups ADD COLUMN total_value DOUBLE PRECISION");
+        jdbc.update("INSERT INTO transactions (id, status, transaction_value) VALUES (1, 'PENDING', 0.1 + 0.2), (2, 'PAID', 19.999)");
+        // Written by a build that already stored cents
+        jdbc.update("INSERT INTO transactions (id, status, value_cents) VALUES (3, 'PENDING', 1250)");
+        jdbc.update("INSERT INTO payments (id, status, payment_value) VALUES (1, 'COMPLETED', 40.05)");
+        jdbc.update("INSERT INTO payment_jobs (id, status, amount, leftover) VALUES (1, 'COMPLETED', 40.05, 0.07)");
+        jdbc.update("INSERT INTO transaction_rollups (bucket_day, status, tx_count, total_value) VALUES (DATE '2025-07-01', 'PAID', 2, 20.3)");
+
+        Flyway.configure().dataSource(db).target("3").load().migrate();
+
+        assertThat(jdbc.queryForList("SELECT id, value_cents FROM transactions ORDER BY id"))
+                .containsExactly(Map.of("ID", 1L, "VALUE_CENTS", 30L),
+                        Map.of("ID", 2L, "VALUE_CENTS", 2000L),
+                        Map.of("ID", 3L, "VALUE_CENTS", 1250L));
+        assertThat(jdbc.queryForObject("SELECT value_cents FROM payments", Long.class)).isEqualTo(4005L);
+        assertThat(jdbc.queryForMap("SELECT amount_cents, leftover_cents FROM payment_jobs"))
+                .isEqualTo(Map.of("AMOUNT_CENTS", 4005L, "LEFTOVER_CENTS", 7L));
+        assertThat(jdbc.queryForObject("SELECT total_cents FROM transaction_rollups", Long.class)).isEqualTo(2030L);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS WHERE COLUMN_NAME IN"
+                + " ('TRANSACTION_VALUE', 'PAYMENT_VALUE', 'AMOUNT', 'LEFTOVER', 'TOTAL_VALUE')", Long.class)).isZero();
+    }
+}